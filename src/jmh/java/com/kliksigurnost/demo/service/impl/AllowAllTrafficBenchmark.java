@@ -0,0 +1,81 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.helper.TrafficExpressionCompiler;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.TrafficExpression;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Allow-all traffic expression rebuilt on every policy create, update and delete. Policies start without a
+ * compiled expression, as rows saved before it was persisted do, so the first invocation per fork compiles them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class AllowAllTrafficBenchmark {
+
+    /**
+     * Policies per user; users are capped at 10, 50 approximates an account-wide rebuild.
+     */
+    @Param({"1", "10", "50"})
+    private int policyCount;
+
+    private List<CloudflarePolicy> policies;
+    private String traffic;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        policies = new ArrayList<>();
+        for (int i = 0; i < policyCount; i++) {
+            policies.add(CloudflarePolicy.builder()
+                    .id(UUID.nameUUIDFromBytes(("policy-" + i).getBytes()).toString())
+                    .action("block")
+                    .traffic(traffic(random))
+                    .build());
+        }
+        policies.add(CloudflarePolicy.builder()
+                .id("allow-all")
+                .action("allow")
+                .traffic("not(any(dns.content_category[*] in {2 67}))")
+                .isAllowAll(true)
+                .build());
+        traffic = policies.get(0).getTraffic();
+    }
+
+    /**
+     * Shapes produced by the frontend: categories always, app types and app IDs on some policies.
+     */
+    private static String traffic(Random random) {
+        List<String> clauses = new ArrayList<>();
+        clauses.add("any(dns.content_category[*] in {" + ids(random, 3 + random.nextInt(15), 200) + "})");
+        if (random.nextBoolean()) {
+            clauses.add("any(app.type.ids[*] in {" + ids(random, 1 + random.nextInt(5), 30) + "})");
+        }
+        if (random.nextBoolean()) {
+            clauses.add("any(app.ids[*] in {" + ids(random, 1 + random.nextInt(20), 1500) + "})");
+        }
+        return String.join(" or ", clauses);
+    }
+
+    private static String ids(Random random, int count, int bound) {
+        return random.ints(count, 1, bound).distinct().mapToObj(String::valueOf).collect(Collectors.joining(" "));
+    }
+
+    @Benchmark
+    public String buildAllowAllTrafficString() {
+        return CloudflarePolicyServiceImpl.buildAllowAllTrafficString(policies);
+    }
+
+    @Benchmark
+    public TrafficExpression parseTraffic() {
+        return TrafficExpressionCompiler.parse(traffic);
+    }
+}
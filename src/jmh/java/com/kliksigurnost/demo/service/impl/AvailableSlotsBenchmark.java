@@ -0,0 +1,64 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.model.SupportAppointment;
+import com.kliksigurnost.demo.repository.SupportAppointmentRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slot computation behind {@code GET /api/appointments/available}, with the repository replaced by an in-memory
+ * stub so only the service's own work is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class AvailableSlotsBenchmark {
+
+    /**
+     * Booked appointments on the day; a working day has 16 slots.
+     */
+    @Param({"0", "8", "16"})
+    private int booked;
+
+    // A fixed future date, so the "at least two hours from now" filter for today never kicks in
+    private final LocalDate date = LocalDate.of(2099, 6, 15);
+
+    private SupportAppointmentServiceImpl service;
+
+    @Setup
+    public void setUp() {
+        List<SupportAppointment> appointments = new ArrayList<>();
+        for (int i = 0; i < booked; i++) {
+            appointments.add(SupportAppointment.builder()
+                    .id(i)
+                    .userEmail("user" + i + "@example.com")
+                    .appointmentDateTime(date.atTime(8, 0).plusMinutes(30L * i))
+                    .build());
+        }
+
+        SupportAppointmentRepository repository = (SupportAppointmentRepository) Proxy.newProxyInstance(
+                SupportAppointmentRepository.class.getClassLoader(),
+                new Class<?>[]{SupportAppointmentRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("findByAppointmentDateTimeBetween")) {
+                        return appointments;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        service = new SupportAppointmentServiceImpl(repository, null, null);
+    }
+
+    @Benchmark
+    public List<LocalDateTime> getAvailableSlots() {
+        return service.getAvailableSlots(date);
+    }
+}
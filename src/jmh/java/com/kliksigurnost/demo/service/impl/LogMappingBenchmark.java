@@ -0,0 +1,77 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.model.CloudflareLog;
+import com.kliksigurnost.demo.model.cloudflare.GatewayResolverQueries;
+import com.kliksigurnost.demo.model.cloudflare.GraphQLResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of a {@code gatewayResolverQueriesAdaptiveGroups} page to {@link CloudflareLog}s, alone and together with
+ * decoding the response body the way {@link MakeApiCall#graphql} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class LogMappingBenchmark {
+
+    @Param({"1000"})
+    private int rows;
+
+    private byte[] payload;
+    private JavaType envelopeType;
+    private List<GatewayResolverQueries.Group> groups;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        Instant end = Instant.parse("2025-01-15T12:00:00Z");
+        List<Map<String, Object>> rowList = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            rowList.add(Map.of(
+                    "count", 1 + random.nextInt(5),
+                    "dimensions", Map.of(
+                            "categoryNames", List.of("Gambling", "Social Networks").subList(0, 1 + random.nextInt(2)),
+                            "datetime", end.minusSeconds(i * 37L).toString(),
+                            "matchedApplicationName", random.nextInt(4) == 0 ? "TikTok" : "",
+                            "policyId", "0b5c4f1e-6a4d-4a8b-9f1e-00000000000" + random.nextInt(10),
+                            "policyName", "user@example.com-" + Integer.toHexString(random.nextInt()),
+                            "queryName", "site" + random.nextInt(5000) + ".example.com",
+                            "resolverDecision", random.nextBoolean() ? 9 : 10)));
+        }
+        payload = MakeApiCall.MAPPER.writeValueAsBytes(Map.of(
+                "data", Map.of("viewer", Map.of("accounts", List.of(Map.of("gatewayResolverQueriesAdaptiveGroups", rowList)))),
+                "errors", List.of()));
+
+        envelopeType = MakeApiCall.MAPPER.getTypeFactory()
+                .constructParametricType(GraphQLResponse.class, GatewayResolverQueries.class);
+        groups = decode().data().groups();
+    }
+
+    private GraphQLResponse<GatewayResolverQueries> decode() throws IOException {
+        return MakeApiCall.MAPPER.readValue(payload, envelopeType);
+    }
+
+    @Benchmark
+    public List<CloudflareLog> mapLogsToCloudflareLogs() {
+        return CloudflareLogServiceImpl.mapLogsToCloudflareLogs(groups, null, groups.size());
+    }
+
+    @Benchmark
+    public List<CloudflareLog> decodeAndMap() throws IOException {
+        List<GatewayResolverQueries.Group> decoded = decode().data().groups();
+        return CloudflareLogServiceImpl.mapLogsToCloudflareLogs(decoded, null, decoded.size());
+    }
+}
@@ -13,7 +13,6 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.web.client.RestTemplate;
 
 @Slf4j
 @Configuration
@@ -21,11 +20,6 @@ import org.springframework.web.client.RestTemplate;
 public class AppConfig {
     private final UserRepository repository;
 
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
-
     @Bean
     public UserDetailsService userDetailsService() {
         return username -> repository.findByEmail(username)
@@ -0,0 +1,142 @@
+package com.kliksigurnost.demo.config;
+
+import com.kliksigurnost.demo.helper.CloudflarePayloads;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Outbound HTTP engine used by {@link com.kliksigurnost.demo.helper.MakeApiCall} for Cloudflare calls.
+ * <p>
+ * {@code cloudflare.http.engine=pooled} (default) uses a keep-alive Apache HttpClient pool with per-route limits
+ * and idle eviction. {@code cloudflare.http.engine=http2} uses the JDK client, which multiplexes all requests to
+ * api.cloudflare.com over a single HTTP/2 connection. Either way responses are requested gzip-compressed, see
+ * {@link CloudflarePayloads}.
+ */
+@Slf4j
+@Configuration
+public class CloudflareHttpConfig {
+
+    @Value("${cloudflare.http.engine:pooled}")
+    private String engine;
+
+    @Value("${cloudflare.http.max-connections-total:100}")
+    private int maxConnectionsTotal;
+
+    @Value("${cloudflare.http.max-connections-per-route:20}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${cloudflare.http.connect-timeout:5s}")
+    private Duration connectTimeout;
+
+    @Value("${cloudflare.http.read-timeout:30s}")
+    private Duration readTimeout;
+
+    @Value("${cloudflare.http.pool-acquire-timeout:5s}")
+    private Duration poolAcquireTimeout;
+
+    @Value("${cloudflare.http.idle-eviction:60s}")
+    private Duration idleEviction;
+
+    @Value("${cloudflare.http.connection-ttl:5m}")
+    private Duration connectionTtl;
+
+    @Value("${cloudflare.http.async-threads:4}")
+    private int asyncThreads;
+
+    private ExecutorService asyncExecutor;
+
+    @Bean
+    public RestTemplate restTemplate(ClientHttpRequestFactory cloudflareRequestFactory) {
+        RestTemplate restTemplate = new RestTemplate(cloudflareRequestFactory);
+        restTemplate.getInterceptors().add(CloudflarePayloads.compressionInterceptor());
+        return restTemplate;
+    }
+
+    @Bean
+    public ClientHttpRequestFactory cloudflareRequestFactory(HttpClient cloudflareHttpClient) {
+        log.info("Using '{}' HTTP engine for Cloudflare API calls", engine);
+        if ("http2".equalsIgnoreCase(engine)) {
+            JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(cloudflareHttpClient);
+            factory.setReadTimeout(readTimeout);
+            return factory;
+        }
+        return new HttpComponentsClientHttpRequestFactory(pooledHttpClient());
+    }
+
+    private CloseableHttpClient pooledHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnectionsTotal)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                // LIFO keeps a few hot connections busy so the rest can age out through idle eviction
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(connectionTtl))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .build())
+                .build();
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(poolAcquireTimeout))
+                .setResponseTimeout(Timeout.of(readTimeout))
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .build();
+    }
+
+    /**
+     * Non-blocking JDK client behind {@link com.kliksigurnost.demo.helper.AsyncApiCall} (and the blocking
+     * {@code http2} engine). Requests are multiplexed over HTTP/2, so hundreds of in-flight calls only need the
+     * small executor that runs response handling. Java 17's client can't be closed, so the executor's threads are
+     * daemons and the pool is shut down with the context.
+     */
+    @Bean
+    public HttpClient cloudflareHttpClient() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cloudflare-async-");
+        threadFactory.setDaemon(true);
+        asyncExecutor = Executors.newFixedThreadPool(asyncThreads, threadFactory);
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(asyncExecutor)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdownAsyncExecutor() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+    }
+}
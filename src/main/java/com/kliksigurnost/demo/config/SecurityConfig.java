@@ -4,6 +4,7 @@ import com.kliksigurnost.demo.config.oauth2.CustomOAuth2UserService;
 import com.kliksigurnost.demo.config.oauth2.OAuth2LoginFailureHandler;
 import com.kliksigurnost.demo.config.oauth2.OAuth2LoginSuccessHandler;
 import com.kliksigurnost.demo.model.Role;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -46,8 +47,10 @@ public class SecurityConfig {
                         .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
                 )
                 .authorizeHttpRequests(auth -> auth
+                        // Streamed responses (log exports) finish on an async dispatch, authorized by the original one
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers("/api/auth/**", "/oauth2/**", "/api/contact").permitAll()
-                        .requestMatchers("/api/admin/**").hasRole(Role.ADMIN.toString())
+                        .requestMatchers("/api/admin/**", "/actuator/**").hasRole(Role.ADMIN.toString())
                         .requestMatchers("/api/policies/**", "/api/appointments/**", "/api/notifications/**").hasRole(Role.USER.toString())
                         .anyRequest().authenticated()
                 )
@@ -2,20 +2,26 @@ package com.kliksigurnost.demo.controller;
 
 import com.kliksigurnost.demo.exception.CloudflareApiException;
 import com.kliksigurnost.demo.exception.NotFoundException;
+import com.kliksigurnost.demo.helper.CloudflareCircuitBreaker;
+import com.kliksigurnost.demo.helper.LogExport;
 import com.kliksigurnost.demo.model.*;
 import com.kliksigurnost.demo.repository.ContactFormRepository;
 import com.kliksigurnost.demo.service.CloudflareAccountService;
+import com.kliksigurnost.demo.service.CloudflareLogService;
 import com.kliksigurnost.demo.service.CloudflarePolicyService;
 import com.kliksigurnost.demo.service.SupportAppointmentService;
 import com.kliksigurnost.demo.service.UserService;
+import com.kliksigurnost.demo.service.impl.GatewayRuleReconciler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
 @Slf4j
@@ -26,9 +32,12 @@ public class AdminController {
 
     private final CloudflareAccountService cloudflareAccountService;
     private final CloudflarePolicyService cloudflarePolicyService;
+    private final CloudflareLogService cloudflareLogService;
     private final UserService userService;
     private final SupportAppointmentService supportAppointmentService;
     private final ContactFormRepository contactFormRepository;
+    private final CloudflareCircuitBreaker cloudflareCircuitBreaker;
+    private final GatewayRuleReconciler gatewayRuleReconciler;
 
     // Endpoint to get all Cloudflare accounts
     @GetMapping("/accounts")
@@ -56,6 +65,49 @@ public class AdminController {
         }
     }
 
+    // Endpoint to inspect per-account Cloudflare circuit breakers
+    @GetMapping("/accounts/breakers")
+    public ResponseEntity<List<CloudflareCircuitBreaker.Snapshot>> getCloudflareBreakers() {
+        log.info("Fetching Cloudflare circuit breaker state");
+        return ResponseEntity.ok(cloudflareCircuitBreaker.getSnapshots());
+    }
+
+    // Endpoint to manually close a tripped circuit, e.g. after rotating an account's token
+    @PutMapping("/accounts/breakers/{accountId}/reset")
+    public ResponseEntity<Void> resetCloudflareBreaker(@PathVariable String accountId) {
+        log.info("Resetting Cloudflare circuit breaker for account {}", accountId);
+        cloudflareCircuitBreaker.reset(accountId);
+        return ResponseEntity.noContent().build();
+    }
+
+    // Endpoint to compare every account's gateway rules with our policies, optionally repairing the drift
+    @PostMapping("/accounts/rules/reconcile")
+    public ResponseEntity<List<GatewayRuleReconciler.ReconcileReport>> reconcileGatewayRules(
+            @RequestParam(defaultValue = "false") boolean repair) {
+        log.info("Reconciling gateway rules (repair: {})", repair);
+        return ResponseEntity.ok(gatewayRuleReconciler.reconcileAll(repair));
+    }
+
+    // Endpoint to download an account's logs as NDJSON or CSV, streamed page by page
+    @GetMapping("/accounts/{accountId}/logs/export")
+    public ResponseEntity<StreamingResponseBody> exportAccountLogs(
+            @PathVariable String accountId,
+            @RequestParam String startDateTime,
+            @RequestParam String endDateTime,
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(defaultValue = "0") int resolverDecision) {
+        log.info("Exporting logs of account {}", accountId);
+        try {
+            return LogExport.response(LogExport.Format.of(format), "logs-" + accountId,
+                    cloudflareLogService.exportLogsForAccount(accountId, startDateTime, endDateTime, resolverDecision));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected log export request: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        }
+    }
+
     // Endpoint to get all users
     @GetMapping("/users")
     public ResponseEntity<List<UserProfile>> getAllUsers() {
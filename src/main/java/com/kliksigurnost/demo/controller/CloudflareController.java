@@ -4,20 +4,34 @@ import com.kliksigurnost.demo.exception.CloudflareApiException;
 import com.kliksigurnost.demo.exception.LimitReached;
 import com.kliksigurnost.demo.exception.NotFoundException;
 import com.kliksigurnost.demo.exception.UnauthorizedAccessException;
+import com.kliksigurnost.demo.helper.LogExport;
+import com.kliksigurnost.demo.model.BlockSummary;
+import com.kliksigurnost.demo.model.BlockTimelinePoint;
 import com.kliksigurnost.demo.model.CloudflareDevice;
 import com.kliksigurnost.demo.model.CloudflareLog;
 import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.DomainListChange;
+import com.kliksigurnost.demo.model.DomainListDiff;
+import com.kliksigurnost.demo.model.DomainListPolicyRequest;
+import com.kliksigurnost.demo.model.PolicyBatchOperation;
+import com.kliksigurnost.demo.model.PolicyBatchResult;
+import com.kliksigurnost.demo.model.PolicyOutboxEntry;
+import com.kliksigurnost.demo.service.BlockSummaryService;
 import com.kliksigurnost.demo.service.CloudflareDeviceService;
 import com.kliksigurnost.demo.service.CloudflareLogService;
 import com.kliksigurnost.demo.service.CloudflarePolicyService;
+import com.kliksigurnost.demo.service.DomainListPolicyService;
+import com.kliksigurnost.demo.service.PolicyOutboxService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 @Slf4j
 @RestController
@@ -28,6 +42,9 @@ public class CloudflareController {
     private final CloudflarePolicyService cloudflarePolicyService;
     private final CloudflareLogService cloudflareLogService;
     private final CloudflareDeviceService cloudflareDeviceService;
+    private final PolicyOutboxService policyOutboxService;
+    private final DomainListPolicyService domainListPolicyService;
+    private final BlockSummaryService blockSummaryService;
 
     private final Environment env;
 
@@ -38,9 +55,12 @@ public class CloudflareController {
     }
 
     @PostMapping
-    public ResponseEntity<String> createUserPolicy(@RequestBody CloudflarePolicy policy) {
+    public ResponseEntity<?> createUserPolicy(@RequestBody CloudflarePolicy policy) {
         log.info("Creating a new policy for the current user");
         try {
+            if (policyOutboxService.isEnabled()) {
+                return ResponseEntity.accepted().body(policyOutboxService.enqueueCreate(policy));
+            }
             String response = cloudflarePolicyService.createPolicy(policy);
             return ResponseEntity.ok(response);
         } catch (CloudflareApiException e) {
@@ -52,10 +72,30 @@ public class CloudflareController {
         }
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<PolicyBatchResult>> applyPolicyBatch(@RequestBody List<PolicyBatchOperation> operations) {
+        log.info("Applying a batch of {} policy operations for the current user", operations.size());
+        try {
+            if (policyOutboxService.isEnabled()) {
+                return ResponseEntity.accepted().body(policyOutboxService.enqueueBatch(operations));
+            }
+            return ResponseEntity.ok(cloudflarePolicyService.applyBatch(operations));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected policy batch: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        } catch (LimitReached e) {
+            log.error("Failed to apply policy batch: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(null);
+        }
+    }
+
     @DeleteMapping("/{policyId}")
-    public ResponseEntity<String> deleteUserPolicy(@PathVariable String policyId) {
+    public ResponseEntity<?> deleteUserPolicy(@PathVariable String policyId) {
         log.info("Deleting policy with ID: {}", policyId);
         try {
+            if (policyOutboxService.isEnabled()) {
+                return ResponseEntity.accepted().body(policyOutboxService.enqueueDelete(policyId));
+            }
             cloudflarePolicyService.deletePolicy(policyId);
             return ResponseEntity.ok(env.getProperty("policy-delete-success"));
         } catch (NotFoundException e) {
@@ -71,9 +111,12 @@ public class CloudflareController {
     }
 
     @PutMapping("/{policyId}")
-    public ResponseEntity<String> updateUserPolicy(@PathVariable String policyId, @RequestBody CloudflarePolicy updatedPolicy) {
+    public ResponseEntity<?> updateUserPolicy(@PathVariable String policyId, @RequestBody CloudflarePolicy updatedPolicy) {
         log.info("Updating policy with ID: {}", policyId);
         try {
+            if (policyOutboxService.isEnabled()) {
+                return ResponseEntity.accepted().body(policyOutboxService.enqueueUpdate(policyId, updatedPolicy));
+            }
             cloudflarePolicyService.updatePolicy(policyId, updatedPolicy);
             return ResponseEntity.ok(env.getProperty("policy-update-success"));
         } catch (NotFoundException e) {
@@ -88,6 +131,96 @@ public class CloudflareController {
         }
     }
 
+    @PostMapping("/domain-lists")
+    public ResponseEntity<?> createDomainListPolicy(@RequestBody DomainListPolicyRequest request) {
+        log.info("Creating a new domain-list policy for the current user");
+        try {
+            return ResponseEntity.ok(domainListPolicyService.createDomainListPolicy(request));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected domain-list policy: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (LimitReached e) {
+            log.error("Failed to create domain-list policy: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (CloudflareApiException e) {
+            log.error("Failed to create domain-list policy: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{policyId}/domains")
+    public ResponseEntity<?> getPolicyDomains(@PathVariable String policyId) {
+        log.info("Fetching domains of policy with ID: {}", policyId);
+        try {
+            return ResponseEntity.ok(domainListPolicyService.getDomains(policyId));
+        } catch (NotFoundException e) {
+            log.warn("Domain list not found for policy: {}", policyId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (UnauthorizedAccessException e) {
+            log.warn("Unauthorized access to domains of policy: {}", policyId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        }
+    }
+
+    @PatchMapping("/{policyId}/domains")
+    public ResponseEntity<?> updatePolicyDomains(@PathVariable String policyId, @RequestBody DomainListChange change) {
+        log.info("Changing domains of policy with ID: {}", policyId);
+        return domainListResponse(policyId, () -> domainListPolicyService.updateDomains(policyId, change));
+    }
+
+    @PutMapping("/{policyId}/domains")
+    public ResponseEntity<?> replacePolicyDomains(@PathVariable String policyId, @RequestBody List<String> domains) {
+        log.info("Replacing domains of policy with ID: {}", policyId);
+        return domainListResponse(policyId, () -> domainListPolicyService.replaceDomains(policyId, domains));
+    }
+
+    private ResponseEntity<?> domainListResponse(String policyId, Supplier<DomainListDiff> change) {
+        try {
+            return ResponseEntity.ok(change.get());
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected domain list change for policy {}: {}", policyId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (NotFoundException e) {
+            log.warn("Domain list not found for policy: {}", policyId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (UnauthorizedAccessException e) {
+            log.warn("Unauthorized access to domains of policy: {}", policyId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (CloudflareApiException e) {
+            log.error("Failed to update domain list: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/sync")
+    public ResponseEntity<String> syncUserPolicies() {
+        log.info("Flushing pending allow-all changes for the current user");
+        try {
+            cloudflarePolicyService.flushAllowAllPolicy();
+            return ResponseEntity.ok(env.getProperty("policy-sync-success"));
+        } catch (CloudflareApiException e) {
+            log.error("Failed to sync policies: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/outbox")
+    public ResponseEntity<List<PolicyOutboxEntry>> getOutboxEntries() {
+        log.info("Fetching queued policy changes for the current user");
+        return ResponseEntity.ok(policyOutboxService.getEntries());
+    }
+
+    @GetMapping("/outbox/{entryId}")
+    public ResponseEntity<?> getOutboxEntry(@PathVariable Long entryId) {
+        log.info("Fetching queued policy change {}", entryId);
+        try {
+            return ResponseEntity.ok(policyOutboxService.getEntry(entryId));
+        } catch (NotFoundException e) {
+            log.warn("Outbox entry not found: {}", entryId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
     @GetMapping("/devices")
     public ResponseEntity<List<CloudflareDevice>> getUserDevices() {
         log.info("Fetching devices for the current user");
@@ -106,15 +239,64 @@ public class CloudflareController {
             @RequestParam(defaultValue = "datetime_DESC") List<String> orderBy,
             @RequestParam(defaultValue = "25") int pageSize,
             @RequestParam(defaultValue = "0") int resolverDecision, // 9 is blocked, 10 is allowed
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false) String lastDateTime,
             @RequestParam(required = false) String lastPolicyId) {
         log.info("Fetching logs for the current user");
         try {
             return ResponseEntity.ok(cloudflareLogService.getLogsForUser(
-                    startDateTime, endDateTime, orderBy, lastDateTime, lastPolicyId, pageSize, resolverDecision));
+                    startDateTime, endDateTime, orderBy, cursor, lastDateTime, lastPolicyId, pageSize,
+                    resolverDecision));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected log page request: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
         } catch (CloudflareApiException e) {
             log.error("Failed to fetch logs: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
-}
\ No newline at end of file
+
+    @GetMapping("/userLogs/export")
+    public ResponseEntity<StreamingResponseBody> exportUserLogs(
+            @RequestParam String startDateTime,
+            @RequestParam String endDateTime,
+            @RequestParam(defaultValue = "ndjson") String format, // ndjson or csv
+            @RequestParam(defaultValue = "0") int resolverDecision) {
+        log.info("Exporting logs for the current user");
+        try {
+            return LogExport.response(LogExport.Format.of(format), "logs",
+                    cloudflareLogService.exportLogsForUser(startDateTime, endDateTime, resolverDecision));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected log export request: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    @GetMapping("/blockSummary")
+    public ResponseEntity<BlockSummary> getBlockSummary(
+            @RequestParam String from,
+            @RequestParam String to,
+            @RequestParam(defaultValue = "10") int top) {
+        log.info("Fetching the block summary for the current user");
+        try {
+            return ResponseEntity.ok(blockSummaryService.getSummary(from, to, top));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected block summary request: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    @GetMapping("/blockSummary/timeline")
+    public ResponseEntity<List<BlockTimelinePoint>> getBlockTimeline(
+            @RequestParam String from,
+            @RequestParam String to,
+            @RequestParam(required = false) String granularity) { // hour or day
+        log.info("Fetching the block timeline for the current user");
+        try {
+            return ResponseEntity.ok(blockSummaryService.getTimeline(from, to, granularity));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected block timeline request: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.TrafficExpression;
+import com.kliksigurnost.demo.model.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-user union of everything the user's policies block, i.e. what their allow-all rule must exclude.
+ * <p>
+ * Each blocked ID and domain is reference-counted by the number of policies blocking it, so a policy mutation
+ * applies only its own delta instead of reloading and recompiling every policy. A user's state is loaded from the
+ * database on first use. Like the rest of our in-memory Cloudflare state this assumes a single application instance.
+ */
+@Component
+@RequiredArgsConstructor
+public class AllowAllTrafficIndex {
+
+    private final PolicySnapshotCache policySnapshotCache;
+
+    private final Map<Integer, BlockedTraffic> byUser = new ConcurrentHashMap<>();
+
+    /**
+     * Records {@code traffic} as what policy {@code policyId} now blocks, {@code null} once the policy is deleted.
+     *
+     * @return the user's allow-all traffic after the change
+     */
+    public String apply(User user, String policyId, TrafficExpression traffic) {
+        return stateOf(user).apply(policyId, traffic);
+    }
+
+    public String allowAllTraffic(User user) {
+        return stateOf(user).render();
+    }
+
+    /**
+     * Drops the user's state; it is reloaded from the database on next use.
+     */
+    public void invalidate(User user) {
+        byUser.remove(user.getId());
+    }
+
+    private BlockedTraffic stateOf(User user) {
+        return byUser.computeIfAbsent(user.getId(), id -> {
+            BlockedTraffic blocked = new BlockedTraffic();
+            for (CloudflarePolicy policy : policySnapshotCache.policies(user)) {
+                blocked.add(policy);
+            }
+            return blocked;
+        });
+    }
+
+    /**
+     * Refcounted blocked sets for one user, keyed by the policies contributing to them. Re-applying a policy
+     * replaces its previous contribution, so loading state that already includes a policy is harmless.
+     */
+    public static final class BlockedTraffic {
+        private final Map<String, TrafficExpression> contributions = new HashMap<>();
+        private final TreeMap<Integer, Integer> categories = new TreeMap<>();
+        private final TreeMap<Integer, Integer> appTypes = new TreeMap<>();
+        private final TreeMap<Integer, Integer> appIds = new TreeMap<>();
+        private final TreeMap<String, Integer> domains = new TreeMap<>();
+        private final TreeMap<String, Integer> fqdns = new TreeMap<>();
+        private final TreeMap<String, Integer> domainLists = new TreeMap<>();
+        private String rendered;
+
+        /**
+         * Adds a policy's traffic; the allow-all policy itself is skipped.
+         */
+        public synchronized void add(CloudflarePolicy policy) {
+            if (!policy.isAllowAll()) {
+                apply(policy.getId(), TrafficExpressionCompiler.compiled(policy));
+            }
+        }
+
+        public synchronized String apply(String policyId, TrafficExpression traffic) {
+            TrafficExpression previous = traffic != null
+                    ? contributions.put(policyId, traffic)
+                    : contributions.remove(policyId);
+            if (previous != null) {
+                count(previous, -1);
+            }
+            if (traffic != null) {
+                count(traffic, 1);
+            }
+            return render();
+        }
+
+        /**
+         * The allow-all traffic: {@code not(...)} of everything blocked, or {@code ""} if nothing is.
+         */
+        public synchronized String render() {
+            if (rendered == null) {
+                String blocked = TrafficExpressionCompiler.compile(TrafficExpression.builder()
+                        .categories(ids(categories))
+                        .appTypes(ids(appTypes))
+                        .appIds(ids(appIds))
+                        .domains(domains.keySet().toArray(String[]::new))
+                        .fqdns(fqdns.keySet().toArray(String[]::new))
+                        .domainLists(domainLists.keySet().toArray(String[]::new))
+                        .build());
+                rendered = blocked.isEmpty() ? "" : "not(" + blocked + ")";
+            }
+            return rendered;
+        }
+
+        private void count(TrafficExpression traffic, int delta) {
+            for (int id : traffic.getCategories()) count(categories, id, delta);
+            for (int id : traffic.getAppTypes()) count(appTypes, id, delta);
+            for (int id : traffic.getAppIds()) count(appIds, id, delta);
+            for (String domain : traffic.getDomains()) count(domains, domain, delta);
+            for (String fqdn : traffic.getFqdns()) count(fqdns, fqdn, delta);
+            for (String listId : traffic.getDomainLists()) count(domainLists, listId, delta);
+            rendered = null;
+        }
+
+        private static <K> void count(Map<K, Integer> counts, K key, int delta) {
+            counts.merge(key, delta, (current, d) -> current + d == 0 ? null : current + d);
+        }
+
+        private static int[] ids(TreeMap<Integer, Integer> counts) {
+            return counts.keySet().stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
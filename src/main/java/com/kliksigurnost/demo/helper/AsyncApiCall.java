@@ -0,0 +1,210 @@
+package com.kliksigurnost.demo.helper;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.kliksigurnost.demo.exception.CloudflareApiException;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking counterpart of {@link MakeApiCall}. Calls return immediately with a {@link CompletableFuture}, so
+ * independent Cloudflare requests can be issued concurrently without holding a request thread per call.
+ * <p>
+ * Rate limiting, 429 backoff and the per-account circuit breaker behave like the blocking client, except that a
+ * full bulkhead rejects immediately instead of waiting. The caller's {@link CloudflareRateLimiter}
+ * priority is captured when the call is submitted.
+ */
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class AsyncApiCall {
+
+    private final Environment env;
+
+    private final HttpClient cloudflareHttpClient;
+
+    private final CloudflareRateLimiter rateLimiter;
+
+    private final CloudflareCircuitBreaker circuitBreaker;
+
+    private final CloudflareRequestCoalescer coalescer;
+
+    private final CloudflareMetrics metrics;
+
+    private final CloudflarePayloads payloads;
+
+    @Value("${cloudflare.http.read-timeout:30s}")
+    private Duration readTimeout;
+
+    @Value("${cloudflare.ratelimit.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${cloudflare.ratelimit.base-backoff:1s}")
+    private Duration baseBackoff;
+
+    public <T> CompletableFuture<CloudflareResponse<T>> exchange(String url, HttpMethod method, HttpEntity<?> entity, Class<T> resultType) {
+        return exchange(url, method, entity, MakeApiCall.MAPPER.constructType(resultType));
+    }
+
+    public <T> CompletableFuture<CloudflareResponse<T>> exchange(String url, HttpMethod method, HttpEntity<?> entity, TypeReference<T> resultType) {
+        return exchange(url, method, entity, MakeApiCall.MAPPER.constructType(resultType));
+    }
+
+    private <T> CompletableFuture<CloudflareResponse<T>> exchange(String url, HttpMethod method, HttpEntity<?> entity, JavaType resultType) {
+        JavaType envelopeType = MakeApiCall.MAPPER.getTypeFactory().constructParametricType(CloudflareResponse.class, resultType);
+        HttpRequest request;
+        try {
+            request = buildRequest(url, method, entity);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(
+                    new CloudflareApiException(env.getProperty("cloudflare-api-processing-exception"), e));
+        }
+
+        CallContext context = new CallContext(request, entity.getHeaders().getFirst(HttpHeaders.AUTHORIZATION),
+                MakeApiCall.accountIdOf(url), CloudflareRateLimiter.currentPriority(), envelopeType);
+
+        return coalescer.coalesceAsync(method, url, context.token(), envelopeType, () -> this.<T>executeGuarded(context));
+    }
+
+    private <T> CompletableFuture<CloudflareResponse<T>> executeGuarded(CallContext context) {
+        CloudflareCircuitBreaker.Permit permit;
+        try {
+            permit = circuitBreaker.tryAcquire(context.accountId());
+        } catch (CloudflareApiException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return this.<CloudflareResponse<T>>attempt(context, 0)
+                .whenComplete((response, e) -> permit.complete(e == null ? null : translate(e)))
+                .thenApply(response -> {
+                    if (response.hasErrors()) {
+                        throw new CloudflareApiException(response.firstErrorMessage(), HttpStatus.OK);
+                    }
+                    return response;
+                });
+    }
+
+    private <R> CompletableFuture<R> attempt(CallContext context, int attempt) {
+        return rateLimiter.acquireAsync(context.token(), context.accountId(), context.priority())
+                .thenCompose(permitted -> {
+                    if (!permitted) {
+                        throw new CloudflareApiException(env.getProperty("cloudflare-rate-limited"), HttpStatus.TOO_MANY_REQUESTS);
+                    }
+                    CloudflareMetrics.Call call = metrics.start(context.request().uri().toString(), context.accountId(),
+                            HttpMethod.valueOf(context.request().method()));
+                    return cloudflareHttpClient.sendAsync(context.request(), payloads.bodyHandler(context.request().uri().toString()))
+                            .whenComplete((response, e) -> {
+                                if (response != null) {
+                                    call.received(response.statusCode(), response.body().length);
+                                }
+                                call.complete(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                            });
+                })
+                .thenCompose(response -> {
+                    int status = response.statusCode();
+                    if (status >= 200 && status < 300) {
+                        return CompletableFuture.completedFuture(this.<R>decode(response, context.envelopeType()));
+                    }
+
+                    Duration retryAfter = MakeApiCall.retryAfter(status,
+                            status >= 500 || status == 429 ? response.headers().firstValue(HttpHeaders.RETRY_AFTER).orElse(null) : null);
+                    if (retryAfter != null && attempt < maxRetries) {
+                        Duration backoff = MakeApiCall.withJitter(
+                                retryAfter.isZero() ? baseBackoff.multipliedBy(1L << attempt) : retryAfter);
+                        rateLimiter.onThrottled(context.token(), context.accountId(), backoff);
+                        return attempt(context, attempt + 1);
+                    }
+                    throw new CloudflareApiException(
+                            env.getProperty("cloudflare-api-exception") + status + " - " + errorBody(response),
+                            HttpStatusCode.valueOf(status)
+                    );
+                })
+                .exceptionallyCompose(e -> CompletableFuture.failedFuture(translate(e)));
+    }
+
+    private <R> R decode(HttpResponse<byte[]> response, JavaType envelopeType) {
+        try (InputStream body = open(response)) {
+            R decoded = MakeApiCall.MAPPER.readValue(body, envelopeType);
+            if (decoded == null) {
+                throw new CloudflareApiException(env.getProperty("cloudflare-api-processing-exception"));
+            }
+            return decoded;
+        } catch (CloudflarePayloads.ResponseTooLargeException e) {
+            log.error("Cloudflare response from {} too large", response.uri(), e);
+            throw new CloudflareApiException(env.getProperty("cloudflare-response-too-large"), HttpStatus.PAYLOAD_TOO_LARGE);
+        } catch (IOException e) {
+            log.error("Error parsing Cloudflare response", e);
+            throw new CloudflareApiException(env.getProperty("cloudflare-api-processing-exception"), e);
+        }
+    }
+
+    private String errorBody(HttpResponse<byte[]> response) {
+        try (InputStream body = open(response)) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private InputStream open(HttpResponse<byte[]> response) throws IOException {
+        return payloads.open(response.uri().toString(), new ByteArrayInputStream(response.body()),
+                response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null));
+    }
+
+    private Throwable translate(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof CloudflareApiException) {
+            return cause;
+        }
+        if (cause instanceof CloudflarePayloads.ResponseTooLargeException) {
+            log.error("Cloudflare response too large", cause);
+            return new CloudflareApiException(env.getProperty("cloudflare-response-too-large"), HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        log.error("Error making async call to Cloudflare API", cause);
+        return new CloudflareApiException(env.getProperty("cloudflare-api-exception") + cause.getMessage(), cause);
+    }
+
+    private HttpRequest buildRequest(String url, HttpMethod method, HttpEntity<?> entity) throws JsonProcessingException {
+        HttpRequest.BodyPublisher body = entity.getBody() == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(MakeApiCall.MAPPER.writeValueAsBytes(entity.getBody()));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(readTimeout)
+                .header(HttpHeaders.ACCEPT_ENCODING, CloudflarePayloads.ACCEPT_ENCODING)
+                .method(method.name(), body);
+        entity.getHeaders().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+        return builder.build();
+    }
+
+    private record CallContext(
+            HttpRequest request,
+            String token,
+            String accountId,
+            CloudflareRateLimiter.Priority priority,
+            JavaType envelopeType
+    ) {
+    }
+}
@@ -0,0 +1,270 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.exception.CloudflareApiException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker and concurrency bulkhead per Cloudflare account.
+ * <p>
+ * A revoked token or a slow account only affects the users mapped to that account: once the failure rate over
+ * the last {@code window-size} calls crosses the threshold the circuit opens and calls fail fast. After
+ * {@code open-duration} a few probe calls are let through (half-open) and decide whether it closes again. The
+ * bulkhead caps in-flight calls per account so one tenant can't take every request thread.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CloudflareCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public record Snapshot(
+            String accountId,
+            State state,
+            double failureRate,
+            int recordedCalls,
+            int inFlight,
+            Instant openedAt
+    ) {
+    }
+
+    private final Environment env;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, AccountCircuit> circuits = new ConcurrentHashMap<>();
+
+    @Value("${cloudflare.breaker.window-size:20}")
+    private int windowSize;
+
+    @Value("${cloudflare.breaker.minimum-calls:10}")
+    private int minimumCalls;
+
+    @Value("${cloudflare.breaker.failure-rate-threshold:0.5}")
+    private double failureRateThreshold;
+
+    @Value("${cloudflare.breaker.open-duration:30s}")
+    private Duration openDuration;
+
+    @Value("${cloudflare.breaker.half-open-probes:3}")
+    private int halfOpenProbes;
+
+    @Value("${cloudflare.bulkhead.max-concurrent-calls:10}")
+    private int maxConcurrentCalls;
+
+    @Value("${cloudflare.bulkhead.max-wait:2s}")
+    private Duration bulkheadMaxWait;
+
+    /**
+     * Admits one call for {@code accountId}, blocking up to {@code cloudflare.bulkhead.max-wait} for a bulkhead
+     * slot. The returned permit must be completed with {@link Permit#complete(Throwable)}.
+     *
+     * @throws CloudflareApiException if the circuit is open or the bulkhead is full
+     */
+    public Permit acquire(String accountId) {
+        AccountCircuit circuit = circuitFor(accountId);
+        try {
+            if (!circuit.bulkhead.tryAcquire(bulkheadMaxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw rejected("cloudflare-bulkhead-full", accountId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw rejected("cloudflare-bulkhead-full", accountId);
+        }
+        return admit(circuit, accountId);
+    }
+
+    /**
+     * Non-blocking variant of {@link #acquire} for async calls: rejects immediately if the bulkhead is full.
+     */
+    public Permit tryAcquire(String accountId) {
+        AccountCircuit circuit = circuitFor(accountId);
+        if (!circuit.bulkhead.tryAcquire()) {
+            throw rejected("cloudflare-bulkhead-full", accountId);
+        }
+        return admit(circuit, accountId);
+    }
+
+    private Permit admit(AccountCircuit circuit, String accountId) {
+        if (!circuit.allowCall()) {
+            circuit.bulkhead.release();
+            throw rejected("cloudflare-circuit-open", accountId);
+        }
+        return new Permit(circuit);
+    }
+
+    public List<Snapshot> getSnapshots() {
+        return circuits.entrySet().stream()
+                .map(entry -> entry.getValue().snapshot(entry.getKey()))
+                .sorted(Comparator.comparing(Snapshot::accountId))
+                .toList();
+    }
+
+    public void reset(String accountId) {
+        AccountCircuit circuit = circuits.get(accountId);
+        if (circuit != null) {
+            circuit.reset();
+        }
+    }
+
+    private CloudflareApiException rejected(String messageKey, String accountId) {
+        log.warn("Rejecting Cloudflare call for account {}: {}", accountId, messageKey);
+        return new CloudflareApiException(env.getProperty(messageKey), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private AccountCircuit circuitFor(String accountId) {
+        return circuits.computeIfAbsent(String.valueOf(accountId), id -> {
+            AccountCircuit circuit = new AccountCircuit(id);
+            Gauge.builder("cloudflare.breaker.state", circuit, c -> c.state.ordinal())
+                    .description("Circuit state per Cloudflare account (0 closed, 1 open, 2 half-open)")
+                    .tag("account", id)
+                    .register(meterRegistry);
+            Gauge.builder("cloudflare.bulkhead.in_flight", circuit, c -> maxConcurrentCalls - c.bulkhead.availablePermits())
+                    .description("In-flight Cloudflare calls per account")
+                    .tag("account", id)
+                    .register(meterRegistry);
+            return circuit;
+        });
+    }
+
+    /**
+     * Whether an exception says something about the account's health. Client errors such as 404 or validation
+     * failures don't; auth failures (revoked token), 5xx and I/O errors do.
+     */
+    static boolean isFailure(Throwable error) {
+        if (!(error instanceof CloudflareApiException e)) {
+            return true;
+        }
+        HttpStatusCode status = e.getStatusCode();
+        if (status == null) {
+            return true;
+        }
+        return status.is5xxServerError() || status.value() == 401 || status.value() == 403;
+    }
+
+    public final class Permit {
+        private final AccountCircuit circuit;
+        private boolean completed;
+
+        private Permit(AccountCircuit circuit) {
+            this.circuit = circuit;
+        }
+
+        /**
+         * Records the call outcome ({@code null} for success) and frees the bulkhead slot.
+         */
+        public void complete(Throwable error) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            circuit.bulkhead.release();
+            circuit.record(error == null || !isFailure(error));
+        }
+    }
+
+    private final class AccountCircuit {
+        private final String accountId;
+        private final Semaphore bulkhead = new Semaphore(maxConcurrentCalls);
+        private final boolean[] outcomes = new boolean[windowSize];
+
+        private State state = State.CLOSED;
+        private int recorded;
+        private int next;
+        private int failures;
+        private int probesInFlight;
+        private int probeSuccesses;
+        private Instant openedAt;
+
+        private AccountCircuit(String accountId) {
+            this.accountId = accountId;
+        }
+
+        synchronized boolean allowCall() {
+            if (state == State.OPEN) {
+                if (Instant.now().isBefore(openedAt.plus(openDuration))) {
+                    return false;
+                }
+                log.info("Circuit for Cloudflare account {} half-open, probing", accountId);
+                state = State.HALF_OPEN;
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesInFlight >= halfOpenProbes) {
+                    return false;
+                }
+                probesInFlight++;
+            }
+            return true;
+        }
+
+        synchronized void record(boolean success) {
+            if (state == State.HALF_OPEN) {
+                probesInFlight--;
+                if (!success) {
+                    open();
+                } else if (++probeSuccesses >= halfOpenProbes) {
+                    log.info("Circuit for Cloudflare account {} closed", accountId);
+                    reset();
+                }
+                return;
+            }
+            if (state == State.OPEN) {
+                return;
+            }
+
+            if (recorded == outcomes.length) {
+                if (!outcomes[next]) failures--;
+            } else {
+                recorded++;
+            }
+            outcomes[next] = success;
+            if (!success) failures++;
+            next = (next + 1) % outcomes.length;
+
+            if (recorded >= minimumCalls && failureRate() >= failureRateThreshold) {
+                open();
+            }
+        }
+
+        synchronized void reset() {
+            state = State.CLOSED;
+            recorded = 0;
+            next = 0;
+            failures = 0;
+            openedAt = null;
+        }
+
+        synchronized Snapshot snapshot(String id) {
+            return new Snapshot(id, state, failureRate(), recorded,
+                    maxConcurrentCalls - bulkhead.availablePermits(), openedAt);
+        }
+
+        private void open() {
+            log.warn("Circuit for Cloudflare account {} opened (failure rate {})", accountId, failureRate());
+            state = State.OPEN;
+            openedAt = Instant.now();
+        }
+
+        private double failureRate() {
+            return recorded == 0 ? 0 : (double) failures / recorded;
+        }
+    }
+}
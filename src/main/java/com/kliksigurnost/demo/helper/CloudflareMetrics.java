@@ -0,0 +1,180 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.exception.CloudflareApiException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-attempt metrics for outbound Cloudflare calls, tagged by endpoint template, HTTP method and account:
+ * <ul>
+ *     <li>{@code cloudflare.client.requests} - latency histogram, also tagged with the response status</li>
+ *     <li>{@code cloudflare.client.errors} - failed attempts by status or exception type</li>
+ *     <li>{@code cloudflare.client.response.size} - response body size in bytes as read by the client</li>
+ *     <li>{@code cloudflare.client.in_flight} - attempts currently waiting on Cloudflare</li>
+ * </ul>
+ * Retries are separate attempts, so a throttled call shows up as its 429s plus the final outcome.
+ */
+@Component
+@RequiredArgsConstructor
+public class CloudflareMetrics {
+
+    private static final String NO_ACCOUNT = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Tags, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Starts timing one HTTP attempt. The returned call must be finished with {@link Call#complete(Throwable)}.
+     */
+    public Call start(String url, String accountId, HttpMethod method) {
+        Tags tags = Tags.of(
+                "endpoint", endpointOf(url),
+                "method", method.name(),
+                "account", accountId != null ? accountId : NO_ACCOUNT
+        );
+        AtomicInteger gauge = inFlight.computeIfAbsent(tags, t -> meterRegistry.gauge(
+                "cloudflare.client.in_flight", t, new AtomicInteger()));
+        gauge.incrementAndGet();
+        return new Call(tags, gauge, System.nanoTime());
+    }
+
+    /**
+     * Normalizes a Cloudflare URL to its endpoint template so IDs don't explode tag cardinality, e.g.
+     * {@code .../accounts/abc/gateway/rules/123} becomes {@code gateway/rules}.
+     */
+    static String endpointOf(String url) {
+        int query = url.indexOf('?');
+        String path = query < 0 ? url : url.substring(0, query);
+
+        int accounts = path.indexOf("/accounts/");
+        if (accounts < 0) {
+            return path.endsWith("/graphql") ? "graphql" : "other";
+        }
+        String[] segments = path.substring(accounts + "/accounts/".length()).split("/");
+        // segments[0] is the account ID
+        if (segments.length < 2) {
+            return "accounts";
+        }
+        return switch (segments[1]) {
+            case "gateway", "access" -> segments.length > 2 ? segments[1] + "/" + segments[2] : segments[1];
+            case "devices" -> "devices";
+            default -> segments[1];
+        };
+    }
+
+    public final class Call {
+        private final Tags tags;
+        private final AtomicInteger gauge;
+        private final long startNanos;
+        private String status = "IO_ERROR";
+        private long responseBytes = -1;
+        private boolean completed;
+
+        private Call(Tags tags, AtomicInteger gauge, long startNanos) {
+            this.tags = tags;
+            this.gauge = gauge;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Records the response status and body size once known.
+         */
+        public void received(int statusCode, long bytes) {
+            this.status = String.valueOf(statusCode);
+            this.responseBytes = bytes;
+        }
+
+        /**
+         * Wraps a response body so its size is recorded once it has been read.
+         */
+        public InputStream counting(int statusCode, InputStream body) {
+            this.status = String.valueOf(statusCode);
+            this.responseBytes = 0;
+            return new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) responseBytes++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) responseBytes += n;
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Ends the attempt. {@code error} is {@code null} unless the attempt threw; a received non-2xx status counts
+         * as an error either way.
+         */
+        public void complete(Throwable error) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            gauge.decrementAndGet();
+
+            String reason = error != null ? error.getClass().getSimpleName() : null;
+            if (error == null && !status.startsWith("2")) {
+                // async attempts complete without an exception and are judged by status alone
+                reason = status;
+            }
+            if (error instanceof HttpStatusCodeException e) {
+                received(e.getStatusCode().value(), e.getResponseBodyAsByteArray().length);
+                reason = status;
+            } else if (error instanceof CloudflareApiException e && e.getStatusCode() != null) {
+                if (responseBytes < 0) {
+                    status = String.valueOf(e.getStatusCode().value());
+                }
+                reason = String.valueOf(e.getStatusCode().value());
+            }
+
+            Timer.builder("cloudflare.client.requests")
+                    .description("Latency of Cloudflare API calls per attempt")
+                    .tags(tags)
+                    .tag("status", status)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+
+            if (responseBytes >= 0) {
+                DistributionSummary.builder("cloudflare.client.response.size")
+                        .description("Size of Cloudflare API response bodies")
+                        .baseUnit("bytes")
+                        .tags(tags)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(responseBytes);
+            }
+
+            if (reason != null) {
+                Counter.builder("cloudflare.client.errors")
+                        .description("Failed Cloudflare API attempts")
+                        .tags(tags)
+                        .tag("reason", reason)
+                        .register(meterRegistry)
+                        .increment();
+            }
+        }
+    }
+}
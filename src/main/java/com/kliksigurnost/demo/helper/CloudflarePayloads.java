@@ -0,0 +1,239 @@
+package com.kliksigurnost.demo.helper;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression and size limits for Cloudflare response bodies.
+ * <p>
+ * Requests advertise gzip/deflate and bodies are inflated on the fly while Jackson reads them, so a large listing
+ * is never held in memory as text. Each endpoint template (see {@link CloudflareMetrics#endpointOf}) has a
+ * maximum decoded size, {@code cloudflare.http.max-response-size.<endpoint>} with {@code /} replaced by {@code -},
+ * falling back to {@code cloudflare.http.max-response-size.default}. Bodies over the limit fail with
+ * {@link ResponseTooLargeException} as soon as the limit is crossed.
+ */
+@Component
+public class CloudflarePayloads {
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final Environment env;
+
+    private final DataSize defaultMaxSize;
+
+    private final Map<String, Long> limits = new ConcurrentHashMap<>();
+
+    public CloudflarePayloads(Environment env,
+                              @Value("${cloudflare.http.max-response-size.default:8MB}") DataSize defaultMaxSize) {
+        this.env = env;
+        this.defaultMaxSize = defaultMaxSize;
+    }
+
+    public long maxResponseSize(String url) {
+        return limits.computeIfAbsent(CloudflareMetrics.endpointOf(url), endpoint -> env.getProperty(
+                "cloudflare.http.max-response-size." + endpoint.replace('/', '-'), DataSize.class, defaultMaxSize
+        ).toBytes());
+    }
+
+    /**
+     * Decodes {@code body} according to its {@code Content-Encoding} and caps the decoded size for {@code url}.
+     */
+    public InputStream open(String url, InputStream body, String contentEncoding) throws IOException {
+        return limit(url, decode(body, contentEncoding));
+    }
+
+    public InputStream limit(String url, InputStream body) {
+        return new LimitedInputStream(body, maxResponseSize(url));
+    }
+
+    /**
+     * Body handler for the async client that buffers the (still compressed) body, failing once it exceeds the
+     * endpoint's limit instead of buffering it whole.
+     */
+    public HttpResponse.BodyHandler<byte[]> bodyHandler(String url) {
+        long limit = maxResponseSize(url);
+        return responseInfo -> new LimitedBodySubscriber(HttpResponse.BodySubscribers.ofByteArray(), limit);
+    }
+
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return body;
+        }
+        return switch (contentEncoding.trim().toLowerCase()) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(body, 8192);
+            case "deflate" -> new InflaterInputStream(body);
+            default -> body;
+        };
+    }
+
+    /**
+     * Adds {@code Accept-Encoding} to RestTemplate requests and inflates compressed responses, including the error
+     * bodies read by RestTemplate's error handler. The Apache engine already does this itself and strips
+     * {@code Content-Encoding}, in which case responses pass through unchanged.
+     */
+    public static ClientHttpRequestInterceptor compressionInterceptor() {
+        return (request, body, execution) -> {
+            if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+                request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+            }
+            ClientHttpResponse response = execution.execute(request, body);
+            String encoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            return encoding == null ? response : new DecodedResponse(response, encoding);
+        };
+    }
+
+    public static class ResponseTooLargeException extends IOException {
+        public ResponseTooLargeException(long limit) {
+            super("Cloudflare response exceeded " + limit + " bytes");
+        }
+    }
+
+    private static final class DecodedResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final String encoding;
+        private final HttpHeaders headers;
+        private InputStream body;
+
+        private DecodedResponse(ClientHttpResponse delegate, String encoding) {
+            this.delegate = delegate;
+            this.encoding = encoding;
+            this.headers = new HttpHeaders();
+            this.headers.putAll(delegate.getHeaders());
+            this.headers.remove(HttpHeaders.CONTENT_ENCODING);
+            this.headers.remove(HttpHeaders.CONTENT_LENGTH);
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = decode(delegate.getBody(), encoding);
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long read;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        private void count(int n) throws ResponseTooLargeException {
+            read += n;
+            if (read > limit) {
+                throw new ResponseTooLargeException(limit);
+            }
+        }
+    }
+
+    private static final class LimitedBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+        private final HttpResponse.BodySubscriber<byte[]> delegate;
+        private final long limit;
+        private Flow.Subscription subscription;
+        private long received;
+        private boolean failed;
+
+        private LimitedBodySubscriber(HttpResponse.BodySubscriber<byte[]> delegate, long limit) {
+            this.delegate = delegate;
+            this.limit = limit;
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            if (failed) {
+                return;
+            }
+            for (ByteBuffer buffer : item) {
+                received += buffer.remaining();
+            }
+            if (received > limit) {
+                failed = true;
+                subscription.cancel();
+                delegate.onError(new ResponseTooLargeException(limit));
+                return;
+            }
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!failed) {
+                delegate.onError(throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (!failed) {
+                delegate.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.kliksigurnost.demo.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Client-side token bucket per Cloudflare API token.
+ * <p>
+ * Cloudflare enforces its quota per token, and every user of a shared {@code CloudflareAccount} uses the same
+ * token, so all callers of one account draw from the same bucket. Background work (the notification scheduler,
+ * device cleanup) runs with {@link Priority#LOW} and stops drawing once the bucket drops to the reserve, so
+ * interactive requests keep the remaining budget.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CloudflareRateLimiter {
+
+    public enum Priority { HIGH, LOW }
+
+    private static final ThreadLocal<Priority> CURRENT_PRIORITY = ThreadLocal.withInitial(() -> Priority.HIGH);
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    // Cloudflare allows 1200 requests per 5 minutes per token
+    @Value("${cloudflare.ratelimit.capacity:1200}")
+    private int capacity;
+
+    @Value("${cloudflare.ratelimit.refill-per-second:4}")
+    private double refillPerSecond;
+
+    @Value("${cloudflare.ratelimit.low-priority-reserve:0.2}")
+    private double lowPriorityReserve;
+
+    @Value("${cloudflare.ratelimit.max-wait:10s}")
+    private Duration maxWait;
+
+    /**
+     * Runs {@code work} with low Cloudflare priority on the current thread.
+     */
+    public static <T> T runInBackground(Supplier<T> work) {
+        Priority previous = CURRENT_PRIORITY.get();
+        CURRENT_PRIORITY.set(Priority.LOW);
+        try {
+            return work.get();
+        } finally {
+            CURRENT_PRIORITY.set(previous);
+        }
+    }
+
+    public static void runInBackground(Runnable work) {
+        runInBackground(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public static Priority currentPriority() {
+        return CURRENT_PRIORITY.get();
+    }
+
+    /**
+     * Takes one request permit for {@code token}, waiting at most {@code cloudflare.ratelimit.max-wait}.
+     *
+     * @return {@code false} if no permit became available in time
+     */
+    public boolean acquire(String token, String accountId) {
+        return bucketFor(token, accountId).acquire(CURRENT_PRIORITY.get(), maxWait.toNanos());
+    }
+
+    /**
+     * Non-blocking variant of {@link #acquire}: completes with {@code true} once a permit was taken, or
+     * {@code false} if none became available within {@code cloudflare.ratelimit.max-wait}. Waiting happens on a
+     * timer, not on the caller's thread.
+     */
+    public CompletableFuture<Boolean> acquireAsync(String token, String accountId, Priority priority) {
+        CompletableFuture<Boolean> permit = new CompletableFuture<>();
+        tryAcquireLater(bucketFor(token, accountId), priority, System.nanoTime() + maxWait.toNanos(), permit);
+        return permit;
+    }
+
+    private void tryAcquireLater(TokenBucket bucket, Priority priority, long deadline, CompletableFuture<Boolean> permit) {
+        long wait = bucket.tryAcquire(priority);
+        if (wait == 0) {
+            permit.complete(true);
+        } else if (System.nanoTime() + wait > deadline) {
+            permit.complete(false);
+        } else {
+            CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS)
+                    .execute(() -> tryAcquireLater(bucket, priority, deadline, permit));
+        }
+    }
+
+    /**
+     * Called when Cloudflare answered 429: drain the bucket so every caller of the token backs off.
+     */
+    public void onThrottled(String token, String accountId, Duration retryAfter) {
+        TokenBucket bucket = bucketFor(token, accountId);
+        bucket.throttled.increment();
+        bucket.pause(retryAfter.toNanos());
+        log.warn("Cloudflare throttled account {}, backing off for {} ms", accountId, retryAfter.toMillis());
+    }
+
+    private TokenBucket bucketFor(String token, String accountId) {
+        return buckets.computeIfAbsent(token, t -> {
+            TokenBucket bucket = new TokenBucket(capacity, refillPerSecond, capacity * lowPriorityReserve,
+                    Counter.builder("cloudflare.ratelimit.throttled")
+                            .description("429 responses received from Cloudflare")
+                            .tag("account", String.valueOf(accountId))
+                            .register(meterRegistry));
+            Gauge.builder("cloudflare.ratelimit.fill", bucket, TokenBucket::fillRatio)
+                    .description("Fraction of the client-side Cloudflare request budget still available")
+                    .tag("account", String.valueOf(accountId))
+                    .register(meterRegistry);
+            return bucket;
+        });
+    }
+
+    static final class TokenBucket {
+        private final double capacity;
+        private final double refillPerNano;
+        private final double reserve;
+        private final Counter throttled;
+
+        private double tokens;
+        private long lastRefill;
+        private long pausedUntil;
+        private int highWaiters;
+
+        TokenBucket(double capacity, double refillPerSecond, double reserve, Counter throttled) {
+            this.capacity = capacity;
+            this.refillPerNano = refillPerSecond / 1_000_000_000d;
+            this.reserve = reserve;
+            this.throttled = throttled;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        synchronized boolean acquire(Priority priority, long maxWaitNanos) {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            boolean high = priority == Priority.HIGH;
+            if (high) highWaiters++;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+
+                    // Low priority work only spends above the reserve and never overtakes waiting interactive calls
+                    double floor = high ? 0 : reserve;
+                    boolean blocked = now < pausedUntil || (!high && highWaiters > 0);
+                    if (!blocked && tokens - 1 >= floor) {
+                        tokens--;
+                        return true;
+                    }
+
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    long needed = now < pausedUntil
+                            ? pausedUntil - now
+                            : (long) Math.ceil((floor + 1 - tokens) / refillPerNano);
+                    long sleep = Math.max(Math.min(Math.min(needed, remaining), 1_000_000_000L), 1_000_000L);
+                    wait(sleep / 1_000_000L, (int) (sleep % 1_000_000L));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                if (high) highWaiters--;
+                notifyAll();
+            }
+        }
+
+        /**
+         * @return 0 if a permit was taken, otherwise the suggested wait in nanoseconds before trying again
+         */
+        synchronized long tryAcquire(Priority priority) {
+            long now = System.nanoTime();
+            refill(now);
+            boolean high = priority == Priority.HIGH;
+            double floor = high ? 0 : reserve;
+            if (now < pausedUntil) {
+                return pausedUntil - now;
+            }
+            if (!high && highWaiters > 0) {
+                return 10_000_000L;
+            }
+            if (tokens - 1 >= floor) {
+                tokens--;
+                return 0;
+            }
+            return Math.max((long) Math.ceil((floor + 1 - tokens) / refillPerNano), 1_000_000L);
+        }
+
+        synchronized void pause(long nanos) {
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + nanos);
+            tokens = 0;
+        }
+
+        synchronized double fillRatio() {
+            refill(System.nanoTime());
+            return tokens / capacity;
+        }
+
+        private void refill(long now) {
+            if (now < pausedUntil) {
+                lastRefill = now;
+                return;
+            }
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+            lastRefill = now;
+        }
+    }
+}
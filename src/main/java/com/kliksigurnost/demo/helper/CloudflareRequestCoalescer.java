@@ -0,0 +1,140 @@
+package com.kliksigurnost.demo.helper;
+
+import com.fasterxml.jackson.databind.JavaType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight deduplication of identical Cloudflare GETs.
+ * <p>
+ * Concurrent GETs with the same URL, token and result type share one in-flight call. Inside a
+ * {@link #withReadMemo} scope, completed GETs are also remembered for the rest of the scope, so an operation
+ * that reads the same resource twice (e.g. account setup listing access apps twice) only calls Cloudflare once.
+ * Any write made inside the scope clears the memo.
+ */
+@Component
+public class CloudflareRequestCoalescer {
+
+    private static final ThreadLocal<Map<Key, Object>> READ_MEMO = new ThreadLocal<>();
+
+    private final Map<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter coalesced;
+    private final Counter memoHits;
+
+    public CloudflareRequestCoalescer(MeterRegistry meterRegistry) {
+        this.coalesced = Counter.builder("cloudflare.requests.coalesced")
+                .description("GETs served by joining an identical in-flight call")
+                .register(meterRegistry);
+        this.memoHits = Counter.builder("cloudflare.requests.memo_hits")
+                .description("GETs served from the per-operation read memo")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code operation} with a read memo. Nested scopes share the outermost memo.
+     */
+    public static <T> T withReadMemo(Supplier<T> operation) {
+        if (READ_MEMO.get() != null) {
+            return operation.get();
+        }
+        READ_MEMO.set(new HashMap<>());
+        try {
+            return operation.get();
+        } finally {
+            READ_MEMO.remove();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R> R coalesce(HttpMethod method, String url, String token, JavaType type, Supplier<R> call) {
+        Map<Key, Object> memo = READ_MEMO.get();
+        if (method != HttpMethod.GET) {
+            if (memo != null) {
+                memo.clear();
+            }
+            return call.get();
+        }
+
+        Key key = new Key(url, token, type);
+        if (memo != null && memo.containsKey(key)) {
+            memoHits.increment();
+            return (R) memo.get(key);
+        }
+
+        R result;
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            result = (R) join(leader);
+        } else {
+            try {
+                result = call.get();
+                mine.complete(result);
+            } catch (RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+
+        if (memo != null) {
+            memo.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Async variant of {@link #coalesce}; the read memo does not apply since async calls leave the caller's thread.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<R> coalesceAsync(HttpMethod method, String url, String token, JavaType type,
+                                                  Supplier<CompletableFuture<R>> call) {
+        if (method != HttpMethod.GET) {
+            return call.get();
+        }
+
+        Key key = new Key(url, token, type);
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            return (CompletableFuture<R>) leader;
+        }
+
+        call.get().whenComplete((result, e) -> {
+            inFlight.remove(key, mine);
+            if (e != null) {
+                mine.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                mine.complete(result);
+            }
+        });
+        return (CompletableFuture<R>) mine;
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private record Key(String url, String token, JavaType type) {
+    }
+}
@@ -0,0 +1,91 @@
+package com.kliksigurnost.demo.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Position of a row in a log listing, handed to clients as an opaque string: the next page is everything strictly
+ * past it in the listing's order, {@code (datetime, policyId, queryName, tiebreak)}.
+ * <p>
+ * Rows from the local log store break ties by their row ID. Rows from GraphQL can't be told apart that way, so
+ * their tiebreak is the row's position among the rows of the same second, which the next query skips. A cursor
+ * with trailing {@code null} fields (built from the legacy {@code lastDateTime}/{@code lastPolicyId} parameters)
+ * skips every row sharing the fields it does have.
+ */
+public record LogCursor(Source source, Instant datetime, String policyId, String queryName, Long tiebreak) {
+
+    public enum Source { LOCAL, GRAPHQL }
+
+    private static final String VERSION = "1";
+    private static final String SEPARATOR = "\n";
+
+    public static LogCursor local(Instant datetime, String policyId, String queryName, long id) {
+        return new LogCursor(Source.LOCAL, datetime, policyId, queryName, id);
+    }
+
+    public static LogCursor graphql(Instant datetime, String policyId, String queryName, long ordinalInSecond) {
+        return new LogCursor(Source.GRAPHQL, datetime, policyId, queryName, ordinalInSecond);
+    }
+
+    /**
+     * Cursor for the legacy {@code lastDateTime}/{@code lastPolicyId} parameters, {@code null} unless both are given.
+     *
+     * @throws IllegalArgumentException if {@code lastDateTime} isn't an ISO-8601 instant
+     */
+    public static LogCursor legacy(String lastDateTime, String lastPolicyId) {
+        if (lastDateTime == null || lastPolicyId == null) {
+            return null;
+        }
+        return new LogCursor(null, parseInstant(lastDateTime), lastPolicyId, null, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code cursor} wasn't produced by {@link #encode()}
+     */
+    public static LogCursor decode(String cursor) {
+        String[] fields;
+        try {
+            fields = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed log cursor", e);
+        }
+        if (fields.length != 6 || !VERSION.equals(fields[0])) {
+            throw new IllegalArgumentException("Malformed log cursor");
+        }
+        try {
+            return new LogCursor(Source.valueOf(fields[1]), Instant.ofEpochSecond(Long.parseLong(fields[2])),
+                    fields[3], fields[4], Long.parseLong(fields[5]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed log cursor", e);
+        }
+    }
+
+    public String encode() {
+        String plain = String.join(SEPARATOR, VERSION, source.name(), String.valueOf(datetime.getEpochSecond()),
+                policyId, queryName, String.valueOf(tiebreak));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Whether the tiebreak is a position within the second, as only GraphQL cursors have.
+     */
+    public boolean hasOrdinal() {
+        return source == Source.GRAPHQL && tiebreak != null;
+    }
+
+    /**
+     * The full key for the local store; cursors from elsewhere keep their datetime, policy and query name.
+     */
+    public LogCursor forLocalStore() {
+        return source == Source.LOCAL || source == null ? this : new LogCursor(null, datetime, policyId, queryName, null);
+    }
+
+    private static Instant parseInstant(String value) {
+        try {
+            return Instant.parse(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed timestamp: " + value, e);
+        }
+    }
+}
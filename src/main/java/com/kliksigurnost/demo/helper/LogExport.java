@@ -0,0 +1,153 @@
+package com.kliksigurnost.demo.helper;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.kliksigurnost.demo.model.CloudflareLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams log pages to the client as NDJSON or CSV.
+ * <p>
+ * Each page is written and flushed before the next one is fetched, so memory stays at one page whatever the range,
+ * and a slow client slows the fetching down instead of piling rows up. A client that disconnects ends the export at
+ * the next write; a failure mid-way aborts the response, so a partial download can't pass for a complete one.
+ */
+@Slf4j
+public final class LogExport {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        /**
+         * @throws IllegalArgumentException for anything but {@code ndjson} or {@code csv}
+         */
+        public static Format of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final String[] CSV_COLUMNS = {"datetime", "policyId", "policyName", "queryName", "categoryNames",
+            "matchedApplicationName", "resolverDecision", "count"};
+
+    private LogExport() {
+    }
+
+    public static ResponseEntity<StreamingResponseBody> response(Format format, String fileName,
+                                                                 Iterable<List<CloudflareLog>> pages) {
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            try {
+                if (format == Format.CSV) {
+                    writer.write(String.join(",", CSV_COLUMNS));
+                    writer.write('\n');
+                }
+                for (List<CloudflareLog> page : pages) {
+                    for (CloudflareLog row : page) {
+                        if (format == Format.CSV) {
+                            writeCsv(writer, row);
+                        } else {
+                            writeJson(writer, row);
+                        }
+                    }
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                log.debug("Log export aborted by the client: {}", e.getMessage());
+                return;
+            }
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.contentType))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(fileName + "." + format.extension)
+                        .build()
+                        .toString())
+                .body(body);
+    }
+
+    private static void writeJson(Writer writer, CloudflareLog row) throws IOException {
+        JsonGenerator json = JSON.createGenerator(writer);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        json.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        json.writeStartObject();
+        json.writeStringField("datetime", row.getDatetime());
+        json.writeStringField("policyId", row.getPolicyId());
+        json.writeStringField("policyName", row.getPolicyName());
+        json.writeStringField("queryName", row.getQueryName());
+        json.writeArrayFieldStart("categoryNames");
+        if (row.getCategoryNames() != null) {
+            for (String name : row.getCategoryNames()) {
+                json.writeString(name);
+            }
+        }
+        json.writeEndArray();
+        json.writeStringField("matchedApplicationName", row.getMatchedApplicationName());
+        if (row.getResolverDecision() != null) {
+            json.writeNumberField("resolverDecision", row.getResolverDecision());
+        } else {
+            json.writeNullField("resolverDecision");
+        }
+        if (row.getCount() != null) {
+            json.writeNumberField("count", row.getCount());
+        } else {
+            json.writeNullField("count");
+        }
+        json.writeEndObject();
+        json.close();
+        writer.write('\n');
+    }
+
+    private static void writeCsv(Writer writer, CloudflareLog row) throws IOException {
+        String[] values = {
+                row.getDatetime(),
+                row.getPolicyId(),
+                row.getPolicyName(),
+                row.getQueryName(),
+                row.getCategoryNames() != null ? String.join(";", row.getCategoryNames()) : null,
+                row.getMatchedApplicationName(),
+                row.getResolverDecision() != null ? row.getResolverDecision().toString() : null,
+                row.getCount() != null ? row.getCount().toString() : null
+        };
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(csvField(values[i]));
+        }
+        writer.write('\n');
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -1,77 +1,294 @@
 package com.kliksigurnost.demo.helper;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.kliksigurnost.demo.exception.CloudflareApiException;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import com.kliksigurnost.demo.model.cloudflare.GraphQLResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Log4j2
 @Component
 @RequiredArgsConstructor
 public class MakeApiCall {
 
-    private static final String CLOUDFLARE_BASE_URL = "https://api.cloudflare.com/client/v4/";
     private static final String AUTHORIZATION_HEADER = "Authorization";
     private static final String CONTENT_TYPE_HEADER = "Content-Type";
     private static final String APPLICATION_JSON = "application/json";
 
+    /**
+     * Shared mapper for all Cloudflare payloads. Unknown fields are ignored so the result records only need to
+     * declare what we actually read.
+     */
+    public static final ObjectMapper MAPPER = JsonMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    // Envelope type that reads the body as text instead of decoding it
+    private static final JavaType RAW_BODY = MAPPER.constructType(String.class);
+
     private final Environment env;
 
     private final RestTemplate restTemplate;
 
-    public <T> ResponseEntity<String> makeApiCall(String url, HttpMethod method, HttpEntity<T> entity) {
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(url, method, entity, String.class);
-            JsonNode responseBody = parseResponse(response.getBody());
+    private final CloudflareRateLimiter rateLimiter;
 
-            if (responseBody.path("errors").asBoolean()) {
-                String errorMessage = extractCloudflareErrorMessage(responseBody);
-                throw new CloudflareApiException(errorMessage, response.getStatusCode());
-            }
+    private final CloudflareCircuitBreaker circuitBreaker;
+
+    private final CloudflareRequestCoalescer coalescer;
+
+    private final CloudflareMetrics metrics;
+
+    private final CloudflarePayloads payloads;
+
+    @Value("${cloudflare.api.base-url:https://api.cloudflare.com/client/v4/}")
+    private String baseUrl;
+
+    @Value("${cloudflare.ratelimit.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${cloudflare.ratelimit.base-backoff:1s}")
+    private Duration baseBackoff;
+
+    /**
+     * Calls a Cloudflare v4 endpoint and decodes the response envelope straight from the response stream.
+     */
+    public <T> CloudflareResponse<T> exchange(String url, HttpMethod method, HttpEntity<?> entity, Class<T> resultType) {
+        return exchange(url, method, entity, MAPPER.constructType(resultType));
+    }
+
+    public <T> CloudflareResponse<T> exchange(String url, HttpMethod method, HttpEntity<?> entity, TypeReference<T> resultType) {
+        return exchange(url, method, entity, MAPPER.constructType(resultType));
+    }
+
+    /**
+     * A decoded response envelope together with the body exactly as Cloudflare sent it.
+     */
+    public record RawResponse<T>(CloudflareResponse<T> envelope, String body) {
+    }
 
-            return response;
+    /**
+     * Like {@link #exchange(String, HttpMethod, HttpEntity, Class)}, but also keeps the raw body, for endpoints that
+     * pass Cloudflare's response on to our clients.
+     */
+    public <T> RawResponse<T> exchangeRaw(String url, HttpMethod method, HttpEntity<?> entity, Class<T> resultType) {
+        String body = execute(url, accountIdOf(url), method, entity, RAW_BODY);
+        JavaType envelopeType = MAPPER.getTypeFactory().constructParametricType(CloudflareResponse.class, resultType);
+        CloudflareResponse<T> response;
+        try {
+            response = MAPPER.readValue(body, envelopeType);
         } catch (JsonProcessingException e) {
             log.error("Error parsing Cloudflare response", e);
             throw new CloudflareApiException(env.getProperty("cloudflare-api-processing-exception"), e);
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            // Handle HTTP errors
-            String errorDetails = e.getResponseBodyAsString();
-            throw new CloudflareApiException(
-                    env.getProperty("cloudflare-api-exception") + e.getStatusCode() + " - " + errorDetails,
-                    e.getStatusCode()
-            );
+        }
+
+        if (response.hasErrors()) {
+            throw new CloudflareApiException(response.firstErrorMessage(), HttpStatus.OK);
+        }
+        return new RawResponse<>(response, body);
+    }
+
+    private <T> CloudflareResponse<T> exchange(String url, HttpMethod method, HttpEntity<?> entity, JavaType resultType) {
+        JavaType envelopeType = MAPPER.getTypeFactory().constructParametricType(CloudflareResponse.class, resultType);
+        CloudflareResponse<T> response = execute(url, accountIdOf(url), method, entity, envelopeType);
+
+        if (response.hasErrors()) {
+            throw new CloudflareApiException(response.firstErrorMessage(), HttpStatus.OK);
+        }
+        return response;
+    }
+
+    /**
+     * Posts a query to the Cloudflare GraphQL API and returns the decoded {@code data} section.
+     */
+    public <T> T graphql(String url, String accountId, HttpEntity<?> entity, Class<T> dataType) {
+        JavaType envelopeType = MAPPER.getTypeFactory().constructParametricType(GraphQLResponse.class, dataType);
+        GraphQLResponse<T> response = execute(url, accountId, HttpMethod.POST, entity, envelopeType);
+
+        if (response.hasErrors()) {
+            throw new CloudflareApiException(response.firstErrorMessage(), HttpStatus.OK);
+        }
+        return response.data();
+    }
+
+    private <R> R execute(String url, String accountId, HttpMethod method, HttpEntity<?> entity, JavaType envelopeType) {
+        String token = entity.getHeaders().getFirst(AUTHORIZATION_HEADER);
+        return coalescer.coalesce(method, url, token, envelopeType,
+                () -> executeGuarded(url, accountId, method, entity, envelopeType));
+    }
+
+    private <R> R executeGuarded(String url, String accountId, HttpMethod method, HttpEntity<?> entity, JavaType envelopeType) {
+        CloudflareCircuitBreaker.Permit permit = circuitBreaker.acquire(accountId);
+        try {
+            R result = executeWithRetry(url, accountId, method, entity, envelopeType);
+            permit.complete(null);
+            return result;
+        } catch (RuntimeException e) {
+            permit.complete(e);
+            throw e;
+        }
+    }
+
+    private <R> R executeWithRetry(String url, String accountId, HttpMethod method, HttpEntity<?> entity, JavaType envelopeType) {
+        String token = entity.getHeaders().getFirst(AUTHORIZATION_HEADER);
+        for (int attempt = 0; ; attempt++) {
+            if (!rateLimiter.acquire(token, accountId)) {
+                throw new CloudflareApiException(env.getProperty("cloudflare-rate-limited"), HttpStatus.TOO_MANY_REQUESTS);
+            }
+            try {
+                return send(url, accountId, method, entity, envelopeType);
+            } catch (HttpStatusCodeException e) {
+                Duration retryAfter = retryAfter(e);
+                if (retryAfter == null || attempt >= maxRetries) {
+                    throw toApiException(e);
+                }
+                Duration backoff = withJitter(retryAfter.isZero() ? baseBackoff.multipliedBy(1L << attempt) : retryAfter);
+                rateLimiter.onThrottled(token, accountId, backoff);
+            }
+        }
+    }
+
+    private <R> R send(String url, String accountId, HttpMethod method, HttpEntity<?> entity, JavaType envelopeType) {
+        CloudflareMetrics.Call call = metrics.start(url, accountId, method);
+        try {
+            R body = sendAttempt(url, method, entity, envelopeType, call);
+            call.complete(null);
+            return body;
+        } catch (RuntimeException e) {
+            call.complete(e);
+            throw e;
+        }
+    }
+
+    private <R> R sendAttempt(String url, HttpMethod method, HttpEntity<?> entity, JavaType envelopeType, CloudflareMetrics.Call call) {
+        try {
+            R body = restTemplate.execute(url, method, restTemplate.httpEntityCallback(entity),
+                    // inflated by CloudflarePayloads.compressionInterceptor(), capped per endpoint here
+                    response -> read(
+                            payloads.limit(url, call.counting(response.getStatusCode().value(), response.getBody())),
+                            envelopeType));
+            if (body == null) {
+                throw new CloudflareApiException(env.getProperty("cloudflare-api-processing-exception"));
+            }
+            return body;
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                // let execute() back off and retry
+                throw e;
+            }
+            throw toApiException(e);
+        } catch (HttpServerErrorException e) {
+            // Cloudflare may have applied the request before failing, so only a repeatable one is retried
+            if (isIdempotent(method) && e.getResponseHeaders() != null
+                    && e.getResponseHeaders().containsKey(HttpHeaders.RETRY_AFTER)) {
+                throw e;
+            }
+            throw toApiException(e);
+        } catch (CloudflareApiException e) {
+            throw e;
+        } catch (ResourceAccessException e) {
+            if (e.getCause() instanceof CloudflarePayloads.ResponseTooLargeException) {
+                log.error("Cloudflare response from {} too large", url, e);
+                throw new CloudflareApiException(env.getProperty("cloudflare-response-too-large"), HttpStatus.PAYLOAD_TOO_LARGE);
+            }
+            if (e.getCause() instanceof JsonProcessingException) {
+                log.error("Error parsing Cloudflare response", e);
+                throw new CloudflareApiException(env.getProperty("cloudflare-api-processing-exception"), e);
+            }
+            log.error("Error making REST call to Cloudflare API", e);
+            throw new CloudflareApiException(env.getProperty("cloudflare-api-exception") + e.getMessage());
         } catch (Exception e) {
             log.error("Error making REST call to Cloudflare API", e);
             throw new CloudflareApiException(env.getProperty("cloudflare-api-exception") + e.getMessage());
         }
     }
 
-    private String extractCloudflareErrorMessage(JsonNode responseBody) {
-        JsonNode errors = responseBody.path("errors");
-        if (errors.isArray() && !errors.isEmpty()) {
-            return errors.get(0).path("message").asText("Unknown Cloudflare error");
+    @SuppressWarnings("unchecked")
+    private static <R> R read(InputStream body, JavaType envelopeType) throws IOException {
+        if (envelopeType == RAW_BODY) {
+            return (R) StreamUtils.copyToString(body, StandardCharsets.UTF_8);
+        }
+        return MAPPER.readValue(body, envelopeType);
+    }
+
+    private static boolean isIdempotent(HttpMethod method) {
+        return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.PUT.equals(method)
+                || HttpMethod.DELETE.equals(method);
+    }
+
+    private CloudflareApiException toApiException(HttpStatusCodeException e) {
+        // Handle HTTP errors
+        String errorDetails = e.getResponseBodyAsString();
+        return new CloudflareApiException(
+                env.getProperty("cloudflare-api-exception") + e.getStatusCode() + " - " + errorDetails,
+                e.getStatusCode()
+        );
+    }
+
+    /**
+     * Backoff requested by a throttled response: the Retry-After delay, {@link Duration#ZERO} for a 429 without
+     * one (use exponential backoff), or {@code null} if the response should not be retried.
+     */
+    private Duration retryAfter(HttpStatusCodeException e) {
+        String header = e.getResponseHeaders() != null ? e.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER) : null;
+        return retryAfter(e.getStatusCode().value(), header);
+    }
+
+    static Duration retryAfter(int status, String header) {
+        if (header != null) {
+            try {
+                return Duration.ofSeconds(Long.parseLong(header.trim()));
+            } catch (NumberFormatException ex) {
+                try {
+                    Instant at = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                    return Duration.ofMillis(Math.max(0, at.toEpochMilli() - System.currentTimeMillis()));
+                } catch (DateTimeParseException ignored) {
+                    return Duration.ZERO;
+                }
+            }
         }
-        return responseBody.toString();
+        return status == HttpStatus.TOO_MANY_REQUESTS.value() ? Duration.ZERO : null;
     }
 
-    public JsonNode parseResponse(String responseBody) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readTree(responseBody);
+    static Duration withJitter(Duration backoff) {
+        // full jitter in [backoff/2, backoff * 3/2) so throttled callers don't retry in lockstep
+        long millis = Math.max(backoff.toMillis(), 1);
+        return Duration.ofMillis(millis / 2 + ThreadLocalRandom.current().nextLong(millis));
     }
 
-    public Map<String, Object> parseResponseToMap(String responseBody) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(responseBody, Map.class);
+    static String accountIdOf(String url) {
+        int start = url.indexOf("/accounts/");
+        if (start < 0) {
+            return null;
+        }
+        start += "/accounts/".length();
+        int end = url.indexOf('/', start);
+        return end < 0 ? url.substring(start) : url.substring(start, end);
     }
 
     public HttpHeaders createHeaders(String authToken) {
@@ -82,6 +299,6 @@ public class MakeApiCall {
     }
 
     public String buildUrl(String endpoint, String accountId) {
-        return CLOUDFLARE_BASE_URL + endpoint.replace("{account_id}", accountId);
+        return baseUrl + endpoint.replace("{account_id}", accountId);
     }
 }
@@ -0,0 +1,148 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-user snapshot of the user's stored policies, so the policy list, the policy limit check, the allow-all
+ * index and the policy filter of log queries don't each run {@code findByUser} (which joins the user back in).
+ * <p>
+ * At most {@code cloudflare.policies.snapshot.max-users} snapshots are kept, least recently used first out. Every
+ * write to a user's policies must be followed by {@link #invalidate(User)}, after its transaction committed. A
+ * load that overlaps an invalidation of the same user is returned but not kept, so a snapshot read before a
+ * write can never outlive it. Like the rest of our in-memory state this assumes a single application instance.
+ * <p>
+ * Metrics: {@code policy.snapshot.requests} tagged {@code result=hit|miss}, and {@code policy.snapshot.size}.
+ */
+@Component
+public class PolicySnapshotCache {
+
+    private final CloudflarePolicyRepository policyRepository;
+    private final int maxUsers;
+
+    // Access-ordered, guarded by itself
+    private final LinkedHashMap<Integer, Snapshot> snapshots;
+    // One token per user whose snapshot is being loaded; an invalidation removes it, voiding that load
+    private final Map<Integer, Object> loads = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public PolicySnapshotCache(CloudflarePolicyRepository policyRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${cloudflare.policies.snapshot.max-users:10000}") int maxUsers) {
+        this.policyRepository = policyRepository;
+        this.maxUsers = Math.max(1, maxUsers);
+        this.snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Snapshot> eldest) {
+                return size() > PolicySnapshotCache.this.maxUsers;
+            }
+        };
+        this.hits = Counter.builder("policy.snapshot.requests")
+                .description("Policy snapshot lookups")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("policy.snapshot.requests")
+                .description("Policy snapshot lookups")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("policy.snapshot.size", this, PolicySnapshotCache::size)
+                .description("Users with a cached policy snapshot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The user's policies as copies, free for the caller to modify.
+     */
+    public List<CloudflarePolicy> policies(User user) {
+        List<CloudflarePolicy> stored = snapshotOf(user).policies();
+        List<CloudflarePolicy> copies = new ArrayList<>(stored.size());
+        for (CloudflarePolicy policy : stored) {
+            copies.add(policy.toBuilder().build());
+        }
+        return copies;
+    }
+
+    /**
+     * IDs of the user's policies, including the allow-all rule.
+     */
+    public List<String> policyIds(User user) {
+        return snapshotOf(user).policyIds();
+    }
+
+    public int count(User user) {
+        return snapshotOf(user).policyIds().size();
+    }
+
+    /**
+     * Drops the user's snapshot and voids any load of it in progress.
+     */
+    public void invalidate(User user) {
+        loads.remove(user.getId());
+        synchronized (snapshots) {
+            snapshots.remove(user.getId());
+        }
+    }
+
+    public int size() {
+        synchronized (snapshots) {
+            return snapshots.size();
+        }
+    }
+
+    private Snapshot snapshotOf(User user) {
+        Integer userId = user.getId();
+        synchronized (snapshots) {
+            Snapshot cached = snapshots.get(userId);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+
+        Object token = new Object();
+        loads.put(userId, token);
+        Snapshot loaded;
+        try {
+            loaded = Snapshot.of(policyRepository.findByUser(user));
+        } catch (RuntimeException e) {
+            loads.remove(userId, token);
+            throw e;
+        }
+        synchronized (snapshots) {
+            if (loads.remove(userId, token)) {
+                snapshots.put(userId, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Policies are compiled once when loaded, so the copies handed out share the compiled traffic and schedule.
+     */
+    private record Snapshot(List<CloudflarePolicy> policies, List<String> policyIds) {
+        private static Snapshot of(List<CloudflarePolicy> policies) {
+            List<String> policyIds = new ArrayList<>(policies.size());
+            for (CloudflarePolicy policy : policies) {
+                TrafficExpressionCompiler.compiled(policy);
+                ScheduleCompiler.compiled(policy);
+                policyIds.add(policy.getId());
+            }
+            return new Snapshot(List.copyOf(policies), List.copyOf(policyIds));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.Schedule;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiles a policy {@link Schedule} into a {@link ScheduleIndex}. Each day holds comma-separated
+ * {@code HH:MM-HH:MM} ranges in the schedule's time zone, as Cloudflare expects them:
+ * <pre>
+ * mon: "08:00-12:30,13:30-17:00"   sun: "22:00-24:00"   time_zone: "Europe/Belgrade"
+ * </pre>
+ * As in Cloudflare, a policy without a schedule is always in force, a scheduled policy is off on days without
+ * ranges, and a schedule without a time zone is read as UTC.
+ */
+@Slf4j
+public final class ScheduleCompiler {
+
+    private static final int DAY_SECONDS = 24 * 3600;
+
+    private ScheduleCompiler() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if a range or the time zone can't be read
+     */
+    public static ScheduleIndex compile(Schedule schedule) {
+        if (schedule == null) {
+            return ScheduleIndex.ALWAYS;
+        }
+        String[] days = {schedule.getMon(), schedule.getTue(), schedule.getWed(), schedule.getThu(),
+                schedule.getFri(), schedule.getSat(), schedule.getSun()};
+        List<int[]> intervals = new ArrayList<>();
+        boolean anyDay = false;
+        for (int day = 0; day < days.length; day++) {
+            if (days[day] == null || days[day].isBlank()) {
+                continue;
+            }
+            anyDay = true;
+            for (String range : days[day].split(",")) {
+                intervals.add(parseRange(range.trim(), day * DAY_SECONDS));
+            }
+        }
+        if (!anyDay) {
+            return ScheduleIndex.ALWAYS;
+        }
+        return new ScheduleIndex(zone(schedule.getTimeZone()), merge(intervals));
+    }
+
+    /**
+     * Like {@link #compile} but treats a schedule we can't read as always in force, so one malformed schedule
+     * never breaks the policy list.
+     */
+    public static ScheduleIndex compileOrAlways(Schedule schedule) {
+        try {
+            return compile(schedule);
+        } catch (IllegalArgumentException e) {
+            log.warn("Unreadable policy schedule, treating it as always active: {} ({})", schedule, e.getMessage());
+            return ScheduleIndex.ALWAYS;
+        }
+    }
+
+    /**
+     * The policy's compiled schedule, compiled on first use and cached on the entity.
+     */
+    public static ScheduleIndex compiled(CloudflarePolicy policy) {
+        if (policy.getCompiledSchedule() == null) {
+            policy.setCompiledSchedule(compileOrAlways(policy.getSchedule()));
+        }
+        return policy.getCompiledSchedule();
+    }
+
+    /**
+     * Sorts {@code [start, end)} intervals and merges the ones that overlap or touch.
+     *
+     * @return the result as flat {@code start, end} pairs
+     */
+    static int[] merge(List<int[]> intervals) {
+        intervals.sort(Comparator.comparingInt(interval -> interval[0]));
+        int[] merged = new int[intervals.size() * 2];
+        int count = 0;
+        for (int[] interval : intervals) {
+            if (count > 0 && interval[0] <= merged[count - 1]) {
+                merged[count - 1] = Math.max(merged[count - 1], interval[1]);
+            } else {
+                merged[count++] = interval[0];
+                merged[count++] = interval[1];
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    private static int[] parseRange(String range, int dayStart) {
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            throw new IllegalArgumentException("expected HH:MM-HH:MM but got '" + range + "'");
+        }
+        int start = parseTime(range.substring(0, dash).trim());
+        int end = parseTime(range.substring(dash + 1).trim());
+        if (start >= end) {
+            throw new IllegalArgumentException("range '" + range + "' ends before it starts");
+        }
+        return new int[]{dayStart + start, dayStart + end};
+    }
+
+    private static int parseTime(String time) {
+        int colon = time.indexOf(':');
+        try {
+            int hours = Integer.parseInt(colon < 0 ? time : time.substring(0, colon));
+            int minutes = colon < 0 ? 0 : Integer.parseInt(time.substring(colon + 1));
+            int seconds = hours * 3600 + minutes * 60;
+            if (hours < 0 || minutes < 0 || minutes > 59 || seconds > DAY_SECONDS) {
+                throw new IllegalArgumentException("time '" + time + "' is out of range");
+            }
+            return seconds;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("time '" + time + "' is not HH:MM");
+        }
+    }
+
+    private static ZoneId zone(String timeZone) {
+        if (timeZone == null || timeZone.isBlank()) {
+            return ZoneOffset.UTC;
+        }
+        try {
+            return ZoneId.of(timeZone);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("unknown time zone '" + timeZone + "'");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.kliksigurnost.demo.helper;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of a policy {@link com.kliksigurnost.demo.model.Schedule}: when in the week the policy is in force,
+ * built by {@link ScheduleCompiler}.
+ * <p>
+ * The schedule's local intervals are turned into a weekly index in UTC: the sorted seconds-of-week (Monday 00:00
+ * UTC is 0) at which the policy switches on or off. One index is built per UTC offset the time zone uses, so a
+ * zone with daylight saving time has two. "Active at T" is a binary search in the index for T's offset, and the
+ * next transition is the next entry, unless the zone changes offset first.
+ */
+public final class ScheduleIndex {
+
+    static final int WEEK_SECONDS = 7 * 24 * 3600;
+
+    // 1970-01-01 was a Thursday; shifting by three days puts Monday 00:00 at second 0 of the week
+    private static final long EPOCH_WEEK_SHIFT = 3L * 24 * 3600;
+
+    // How many offset changes nextTransition looks across for a schedule that never changes state
+    private static final int MAX_OFFSET_CHANGES = 8;
+
+    /**
+     * In force the whole week: no schedule, as in Cloudflare.
+     */
+    public static final ScheduleIndex ALWAYS = new ScheduleIndex(ZoneOffset.UTC, new int[]{0, WEEK_SECONDS});
+
+    private final ZoneRules rules;
+
+    /**
+     * Disjoint, sorted {@code [start, end)} pairs in local seconds-of-week.
+     */
+    private final int[] localIntervals;
+
+    private final Map<Integer, UtcIndex> byOffset = new ConcurrentHashMap<>(2);
+
+    ScheduleIndex(ZoneId zone, int[] localIntervals) {
+        this.rules = zone.getRules();
+        this.localIntervals = localIntervals;
+    }
+
+    public boolean isActiveAt(Instant instant) {
+        return indexFor(instant).isActiveAt(secondOfWeek(instant));
+    }
+
+    /**
+     * The first instant after {@code instant} at which the policy switches on or off, or {@code null} if it never
+     * does.
+     */
+    public Instant nextTransition(Instant instant) {
+        if (localIntervals.length == 0 || (localIntervals.length == 2 && localIntervals[1] - localIntervals[0] == WEEK_SECONDS)) {
+            return null;
+        }
+        boolean active = isActiveAt(instant);
+        Instant from = instant;
+        for (int i = 0; i <= MAX_OFFSET_CHANGES; i++) {
+            UtcIndex index = indexFor(from);
+            Instant candidate = index.nextBoundaryAfter(from, secondOfWeek(from));
+            ZoneOffsetTransition offsetChange = rules.nextTransition(from);
+            if (offsetChange == null || (candidate != null && candidate.isBefore(offsetChange.getInstant()))) {
+                return candidate;
+            }
+            // The zone shifts first: the policy flips there if the shift moves it across an interval edge
+            from = offsetChange.getInstant();
+            if (isActiveAt(from) != active) {
+                return from;
+            }
+        }
+        return null;
+    }
+
+    private UtcIndex indexFor(Instant instant) {
+        int offset = rules.getOffset(instant).getTotalSeconds();
+        return byOffset.computeIfAbsent(offset, this::toUtc);
+    }
+
+    private UtcIndex toUtc(int offsetSeconds) {
+        // Shift every local interval to UTC, splitting the ones that now wrap past the end of the week
+        List<int[]> shifted = new ArrayList<>(localIntervals.length / 2 + 1);
+        for (int i = 0; i < localIntervals.length; i += 2) {
+            int start = Math.floorMod(localIntervals[i] - offsetSeconds, WEEK_SECONDS);
+            int length = localIntervals[i + 1] - localIntervals[i];
+            if (start + length <= WEEK_SECONDS) {
+                shifted.add(new int[]{start, start + length});
+            } else {
+                shifted.add(new int[]{start, WEEK_SECONDS});
+                shifted.add(new int[]{0, start + length - WEEK_SECONDS});
+            }
+        }
+        return UtcIndex.of(ScheduleCompiler.merge(shifted));
+    }
+
+    static int secondOfWeek(Instant instant) {
+        return (int) Math.floorMod(instant.getEpochSecond() + EPOCH_WEEK_SHIFT, (long) WEEK_SECONDS);
+    }
+
+    /**
+     * Toggle points of one offset's UTC week: the policy is {@code activeAtWeekStart} at second 0 and flips at each
+     * entry of {@code toggles}.
+     */
+    private record UtcIndex(boolean activeAtWeekStart, int[] toggles) {
+
+        static UtcIndex of(int[] intervals) {
+            int[] toggles = new int[intervals.length];
+            int count = 0;
+            boolean activeAtWeekStart = false;
+            for (int i = 0; i < intervals.length; i++) {
+                int point = intervals[i];
+                boolean isStart = i % 2 == 0;
+                if (isStart && point == 0) {
+                    activeAtWeekStart = true;
+                } else if (!isStart && point == WEEK_SECONDS) {
+                    // runs into next week's second 0, where activeAtWeekStart takes over
+                } else {
+                    toggles[count++] = point;
+                }
+            }
+            return new UtcIndex(activeAtWeekStart, Arrays.copyOf(toggles, count));
+        }
+
+        boolean isActiveAt(int secondOfWeek) {
+            return activeAtWeekStart ^ (togglesUpTo(secondOfWeek) % 2 == 1);
+        }
+
+        Instant nextBoundaryAfter(Instant instant, int secondOfWeek) {
+            if (toggles.length == 0) {
+                return null;
+            }
+            int next = togglesUpTo(secondOfWeek);
+            int boundary = next < toggles.length ? toggles[next] : toggles[0] + WEEK_SECONDS;
+            return Instant.ofEpochSecond(instant.getEpochSecond() + boundary - secondOfWeek);
+        }
+
+        /**
+         * Number of toggles at or before {@code secondOfWeek}.
+         */
+        private int togglesUpTo(int secondOfWeek) {
+            int low = 0;
+            int high = toggles.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (toggles[mid] <= secondOfWeek) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
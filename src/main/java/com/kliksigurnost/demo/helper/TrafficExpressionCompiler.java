@@ -0,0 +1,325 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.TrafficExpression;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Parser and compiler for the subset of the Gateway traffic-expression language our policies use: a disjunction
+ * ({@code or}) of set-membership or equality predicates, optionally wrapped in {@code any(...)}:
+ * <pre>
+ * any(dns.content_category[*] in {2 67 125..133}) or any(app.type.ids[*] in {5})
+ *     or any(app.ids[*] in {1 2}) or any(dns.domains[*] in {"example.com"}) or dns.fqdn == "a.example.com"
+ *     or any(dns.domains[*] in $4a3c5e1d-...)
+ * </pre>
+ * where {@code $<id>} refers to a Cloudflare domain list.
+ * {@code and}, {@code not} and other fields are outside the subset and rejected.
+ */
+@Slf4j
+public final class TrafficExpressionCompiler {
+
+    private static final String CATEGORIES = "dns.content_category";
+    private static final String APP_TYPES = "app.type.ids";
+    private static final String APP_IDS = "app.ids";
+    private static final String DOMAINS = "dns.domains";
+    private static final String FQDN = "dns.fqdn";
+
+    // Cloudflare category and application IDs are small; anything wider is a typo, not a policy
+    private static final int MAX_RANGE = 100_000;
+
+    private TrafficExpressionCompiler() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code traffic} is not in the supported subset
+     */
+    public static TrafficExpression parse(String traffic) {
+        Builder builder = new Builder();
+        if (traffic != null && !traffic.isBlank()) {
+            Parser parser = new Parser(traffic, builder);
+            parser.expression();
+            parser.expectEnd();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Like {@link #parse} but falls back to an empty expression, so a hand-written rule we can't model never
+     * breaks policy handling; it just doesn't contribute to derived rules.
+     */
+    public static TrafficExpression parseOrEmpty(String traffic) {
+        try {
+            return parse(traffic);
+        } catch (IllegalArgumentException e) {
+            log.warn("Traffic expression outside the supported subset, not compiled: {} ({})", traffic, e.getMessage());
+            return TrafficExpression.builder().build();
+        }
+    }
+
+    /**
+     * The policy's compiled traffic, compiling (and caching on the entity) rows stored before it was persisted.
+     */
+    public static TrafficExpression compiled(CloudflarePolicy policy) {
+        if (policy.getCompiledTraffic() == null) {
+            policy.setCompiledTraffic(parseOrEmpty(policy.getTraffic()));
+        }
+        return policy.getCompiledTraffic();
+    }
+
+    /**
+     * Renders {@code expression} as Gateway traffic, with consecutive IDs range-compressed. Empty expressions
+     * compile to {@code ""}.
+     */
+    public static String compile(TrafficExpression expression) {
+        List<String> clauses = new ArrayList<>(5);
+        if (expression.getCategories().length > 0) {
+            clauses.add("any(" + CATEGORIES + "[*] in {" + TrafficExpression.formatIds(expression.getCategories()) + "})");
+        }
+        if (expression.getAppTypes().length > 0) {
+            clauses.add("any(" + APP_TYPES + "[*] in {" + TrafficExpression.formatIds(expression.getAppTypes()) + "})");
+        }
+        if (expression.getAppIds().length > 0) {
+            clauses.add("any(" + APP_IDS + "[*] in {" + TrafficExpression.formatIds(expression.getAppIds()) + "})");
+        }
+        if (expression.getDomains().length > 0) {
+            clauses.add("any(" + DOMAINS + "[*] in {" + quoted(expression.getDomains()) + "})");
+        }
+        if (expression.getFqdns().length > 0) {
+            clauses.add(FQDN + " in {" + quoted(expression.getFqdns()) + "}");
+        }
+        for (String listId : expression.getDomainLists()) {
+            clauses.add("any(" + DOMAINS + "[*] in $" + listId + ")");
+        }
+        return String.join(" or ", clauses);
+    }
+
+    private static String quoted(String[] values) {
+        StringJoiner joiner = new StringJoiner(" ");
+        for (String value : values) {
+            joiner.add('"' + value + '"');
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Accumulates IDs in growable primitive arrays; sorted and de-duplicated once at the end.
+     */
+    static final class Builder {
+        private final IntList categories = new IntList();
+        private final IntList appTypes = new IntList();
+        private final IntList appIds = new IntList();
+        private final Set<String> domains = new TreeSet<>();
+        private final Set<String> fqdns = new TreeSet<>();
+        private final Set<String> domainLists = new TreeSet<>();
+
+        TrafficExpression build() {
+            return TrafficExpression.builder()
+                    .categories(categories.toSortedSet())
+                    .appTypes(appTypes.toSortedSet())
+                    .appIds(appIds.toSortedSet())
+                    .domains(domains.toArray(String[]::new))
+                    .fqdns(fqdns.toArray(String[]::new))
+                    .domainLists(domainLists.toArray(String[]::new))
+                    .build();
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toSortedSet() {
+            int[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) sorted[distinct++] = sorted[i];
+            }
+            return Arrays.copyOf(sorted, distinct);
+        }
+    }
+
+    /**
+     * Recursive-descent parser over the raw string; no separate token list is built.
+     */
+    private static final class Parser {
+        private final String input;
+        private final Builder builder;
+        private int pos;
+
+        private Parser(String input, Builder builder) {
+            this.input = input;
+            this.builder = builder;
+        }
+
+        // expression := term ("or" term)*
+        void expression() {
+            term();
+            while (acceptWord("or") || accept("||")) {
+                term();
+            }
+        }
+
+        // term := "any" "(" predicate ")" | "(" expression ")" | predicate
+        private void term() {
+            skipSpace();
+            if (acceptWord("any")) {
+                expect("(");
+                predicate();
+                expect(")");
+            } else if (accept("(")) {
+                expression();
+                expect(")");
+            } else if (peekWord("not") || peekWord("and")) {
+                throw error("unsupported operator");
+            } else {
+                predicate();
+            }
+        }
+
+        // predicate := field ("in" (set | "$" list-id) | "==" value)
+        private void predicate() {
+            String field = field();
+            if (acceptWord("in")) {
+                if (accept("$")) {
+                    if (!field.equals(DOMAINS)) {
+                        throw error("lists are only supported for " + DOMAINS);
+                    }
+                    builder.domainLists.add(listId());
+                    return;
+                }
+                expect("{");
+                while (!accept("}")) {
+                    value(field);
+                }
+            } else if (accept("==")) {
+                value(field);
+            } else {
+                throw error("expected 'in' or '=='");
+            }
+        }
+
+        private String field() {
+            skipSpace();
+            int start = pos;
+            while (pos < input.length() && (Character.isLetterOrDigit(input.charAt(pos)) || input.charAt(pos) == '.'
+                    || input.charAt(pos) == '_')) {
+                pos++;
+            }
+            String field = input.substring(start, pos);
+            accept("[*]");
+            return switch (field) {
+                case CATEGORIES, APP_TYPES, APP_IDS, DOMAINS, FQDN -> field;
+                default -> throw error("unsupported field '" + field + "'");
+            };
+        }
+
+        private void value(String field) {
+            skipSpace();
+            switch (field) {
+                case DOMAINS -> builder.domains.add(string());
+                case FQDN -> builder.fqdns.add(string());
+                default -> {
+                    IntList target = field.equals(CATEGORIES) ? builder.categories
+                            : field.equals(APP_TYPES) ? builder.appTypes : builder.appIds;
+                    int from = integer();
+                    int to = accept("..") ? integer() : from;
+                    if (to < from || to - from > MAX_RANGE) {
+                        throw error("invalid range " + from + ".." + to);
+                    }
+                    for (int id = from; id <= to; id++) {
+                        target.add(id);
+                    }
+                }
+            }
+        }
+
+        private String listId() {
+            int start = pos;
+            while (pos < input.length() && (Character.isLetterOrDigit(input.charAt(pos)) || input.charAt(pos) == '-')) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("expected a list ID");
+            }
+            return input.substring(start, pos);
+        }
+
+        private int integer() {
+            skipSpace();
+            int start = pos;
+            while (pos < input.length() && Character.isDigit(input.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("expected a number");
+            }
+            return Integer.parseInt(input, start, pos, 10);
+        }
+
+        private String string() {
+            expect("\"");
+            int end = input.indexOf('"', pos);
+            if (end < 0) {
+                throw error("unterminated string");
+            }
+            String value = input.substring(pos, end);
+            pos = end + 1;
+            return value;
+        }
+
+        void expectEnd() {
+            skipSpace();
+            if (pos != input.length()) {
+                throw error("unexpected input");
+            }
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("expected '" + token + "'");
+            }
+        }
+
+        private boolean accept(String token) {
+            skipSpace();
+            if (input.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptWord(String word) {
+            if (peekWord(word)) {
+                pos += word.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean peekWord(String word) {
+            skipSpace();
+            int end = pos + word.length();
+            return input.startsWith(word, pos)
+                    && (end == input.length() || !Character.isLetterOrDigit(input.charAt(end)));
+        }
+
+        private void skipSpace() {
+            while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in: " + input);
+        }
+    }
+}
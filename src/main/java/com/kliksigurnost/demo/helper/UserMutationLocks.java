@@ -0,0 +1,67 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes policy mutations per user, so check-then-act sequences such as "count the user's policies, then
+ * create one" and "call Cloudflare, then record the result" can't interleave between two requests (two browser
+ * tabs, a batch and a single edit) of the same user.
+ * <p>
+ * Users are hashed onto {@code cloudflare.policies.lock-stripes} fair locks rather than given one lock each, so
+ * memory stays fixed however many users there are; two users only wait on each other if they share a stripe.
+ * Locks are reentrant, so a locked operation may call another one for the same user. Like the rest of our
+ * in-memory Cloudflare state this assumes a single application instance.
+ */
+@Component
+public class UserMutationLocks {
+
+    private final ReentrantLock[] stripes;
+
+    public UserMutationLocks(@Value("${cloudflare.policies.lock-stripes:256}") int stripes) {
+        // Round up to a power of two so the stripe is a mask of the hash
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock(true);
+        }
+    }
+
+    public <T> T call(User user, Supplier<T> action) {
+        ReentrantLock lock = stripeOf(user);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void run(User user, Runnable action) {
+        call(user, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Waits until every operation holding a lock when this is called has finished.
+     */
+    public void awaitInProgress() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock stripeOf(User user) {
+        int hash = user.getId().hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x9E3779B9; // spread consecutive IDs across stripes
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+}
@@ -0,0 +1,24 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Blocked queries of one policy, domain or category.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlockCount {
+
+    private String key;
+
+    private long count;
+
+    public BlockCount(String key, Long count) {
+        this(key, count != null ? count : 0);
+    }
+}
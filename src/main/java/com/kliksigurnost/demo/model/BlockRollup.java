@@ -0,0 +1,65 @@
+package com.kliksigurnost.demo.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Blocked queries of one policy within one hour or UTC day, in total or for one domain or category, summed from the
+ * ingested gateway logs so block summaries don't scan them.
+ * <p>
+ * Rows carry the user who owned the policy when the logs were ingested and are looked up by it, so a user's history
+ * outlives policies deleted or re-created since.
+ */
+@Entity
+@Builder
+@Table(name = "block_rollup", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_block_rollup_key",
+                columnNames = {"userId", "policyId", "granularity", "dimension", "bucket", "dimensionValue"})
+}, indexes = {
+        @Index(name = "idx_block_rollup_user", columnList = "userId, granularity, dimension, bucket"),
+        @Index(name = "idx_block_rollup_bucket", columnList = "granularity, bucket")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlockRollup {
+
+    public enum Granularity { HOUR, DAY }
+
+    public enum Dimension { TOTAL, DOMAIN, CATEGORY }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Integer userId;
+
+    @Column(nullable = false)
+    private String policyId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    private Granularity granularity;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    private Dimension dimension;
+
+    /**
+     * Start of the hour or day.
+     */
+    @Column(nullable = false)
+    private Instant bucket;
+
+    /**
+     * The domain or category name; empty for {@link Dimension#TOTAL}.
+     */
+    @Column(nullable = false)
+    private String dimensionValue;
+
+    private long count;
+}
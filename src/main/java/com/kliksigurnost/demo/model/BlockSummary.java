@@ -0,0 +1,33 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A user's blocked queries within {@code [from, to)}, the range widened to whole {@code granularity} buckets.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlockSummary {
+
+    private Instant from;
+
+    private Instant to;
+
+    private BlockRollup.Granularity granularity;
+
+    private long total;
+
+    private List<BlockCount> policies;
+
+    private List<BlockCount> topDomains;
+
+    private List<BlockCount> categories;
+}
@@ -0,0 +1,26 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Blocked queries within the hour or day starting at {@code bucket}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlockTimelinePoint {
+
+    private Instant bucket;
+
+    private long count;
+
+    public BlockTimelinePoint(Instant bucket, Long count) {
+        this(bucket, count != null ? count : 0);
+    }
+}
@@ -17,4 +17,14 @@ public class CloudflareLog {
     String policyName;
     String queryName;
     Integer resolverDecision;
+
+    /**
+     * Number of queries this row stands for.
+     */
+    Long count;
+
+    /**
+     * Opaque position of this row; pass the last row's as {@code cursor} to get the next page.
+     */
+    String cursor;
 }
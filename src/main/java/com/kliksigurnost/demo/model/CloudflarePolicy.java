@@ -1,12 +1,17 @@
 package com.kliksigurnost.demo.model;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.kliksigurnost.demo.helper.ScheduleIndex;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.Instant;
+
 @Data
 @Entity
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 public class CloudflarePolicy {
@@ -17,6 +22,13 @@ public class CloudflarePolicy {
 
     @Column(columnDefinition = "TEXT")
     String traffic;
+
+    /**
+     * {@link #traffic} compiled; {@code null} for rows stored before it existed until the policy is next saved.
+     */
+    @Embedded
+    @JsonIgnore
+    private TrafficExpression compiledTraffic;
     String cloudflareAccId;
 
     @ManyToOne(fetch = FetchType.EAGER)
@@ -26,6 +38,27 @@ public class CloudflarePolicy {
     @Embedded
     private Schedule schedule;
 
+    /**
+     * {@link #schedule} compiled, see {@link com.kliksigurnost.demo.helper.ScheduleCompiler#compiled}.
+     */
+    @Transient
+    @JsonIgnore
+    private ScheduleIndex compiledSchedule;
+
+    /**
+     * Whether the schedule has the policy in force, as of when the policy list was read.
+     */
+    @Transient
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Boolean active;
+
+    /**
+     * When the policy next switches on or off; {@code null} if it never does.
+     */
+    @Transient
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Instant nextTransition;
+
     @Column(nullable = false)
     private boolean isAllowAll = false;
 }
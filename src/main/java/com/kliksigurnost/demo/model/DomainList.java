@@ -0,0 +1,39 @@
+package com.kliksigurnost.demo.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * A Cloudflare domain list backing a domain-list policy, whose traffic refers to it as
+ * {@code any(dns.domains[*] in $<id>)} instead of spelling out every domain.
+ * <p>
+ * {@link #entries} is our copy of the list: normalized, sorted and distinct, persisted space-separated. Changes are
+ * diffed against it so only the added and removed domains are sent to Cloudflare.
+ */
+@Data
+@Entity
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class DomainList {
+
+    /**
+     * Cloudflare's list ID.
+     */
+    @Id
+    private String id;
+
+    private String name;
+
+    private String cloudflareAccId;
+
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JsonIgnore
+    private User user;
+
+    @Builder.Default
+    @Convert(converter = TrafficExpression.StringSetConverter.class)
+    @Column(columnDefinition = "LONGTEXT")
+    private String[] entries = new String[0];
+}
@@ -0,0 +1,23 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Body of {@code PATCH /api/policies/{policyId}/domains}: domains to add to and remove from a domain-list policy.
+ * Adding a domain already listed or removing one that isn't is not an error.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DomainListChange {
+
+    private List<String> add;
+
+    private List<String> remove;
+}
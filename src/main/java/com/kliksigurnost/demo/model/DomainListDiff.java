@@ -0,0 +1,25 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * What a domain list change actually did: the domains sent to Cloudflare as added and removed, and the list's size
+ * afterwards.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DomainListDiff {
+
+    private List<String> added;
+
+    private List<String> removed;
+
+    private int size;
+}
@@ -0,0 +1,25 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Body of {@code POST /api/policies/domain-lists}: a policy blocking {@code domains} (and their subdomains) through a
+ * Cloudflare list. {@code action} defaults to {@code block}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DomainListPolicyRequest {
+
+    private String action;
+
+    private List<String> domains;
+
+    private Schedule schedule;
+}
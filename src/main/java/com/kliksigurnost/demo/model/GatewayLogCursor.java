@@ -0,0 +1,28 @@
+package com.kliksigurnost.demo.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * How much of an account's resolver log the local store holds: every group in {@code [coveredFrom, ingestedUntil)}.
+ */
+@Entity
+@Builder
+@Table(name = "gateway_log_cursor")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class GatewayLogCursor {
+
+    @Id
+    private String accountId;
+
+    private Instant coveredFrom;
+
+    private Instant ingestedUntil;
+}
@@ -0,0 +1,106 @@
+package com.kliksigurnost.demo.model;
+
+import com.kliksigurnost.demo.helper.LogCursor;
+import com.kliksigurnost.demo.model.cloudflare.GatewayResolverQueries;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Objects;
+
+/**
+ * One {@code gatewayResolverQueriesAdaptiveGroups} group ingested from Cloudflare: the DNS queries of one policy for
+ * one name within one second, {@link #count} of them.
+ * <p>
+ * Rows are bucketed by their UTC {@link #day}, so retention drops whole days, and indexed by
+ * {@code (policyId, datetime)} for the per-user log pages.
+ */
+@Entity
+@Builder
+@Table(name = "gateway_log", indexes = {
+        @Index(name = "idx_gateway_log_policy_datetime", columnList = "policyId, datetime"),
+        @Index(name = "idx_gateway_log_day", columnList = "logDay")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class GatewayLogEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String accountId;
+
+    @Column(name = "logDay", nullable = false)
+    private LocalDate day;
+
+    @Column(nullable = false)
+    private Instant datetime;
+
+    private String policyId;
+
+    private String policyName;
+
+    private String queryName;
+
+    @Convert(converter = CategoryNamesConverter.class)
+    @Column(columnDefinition = "TEXT")
+    private String[] categoryNames;
+
+    private String matchedApplicationName;
+
+    private Integer resolverDecision;
+
+    private long count;
+
+    public static GatewayLogEntry of(String accountId, GatewayResolverQueries.Group group) {
+        GatewayResolverQueries.Dimensions dimensions = group.dimensions();
+        Instant datetime = Instant.parse(dimensions.datetime());
+        return GatewayLogEntry.builder()
+                .accountId(accountId)
+                .day(LocalDate.ofInstant(datetime, ZoneOffset.UTC))
+                .datetime(datetime)
+                .policyId(dimensions.policyId())
+                .policyName(dimensions.policyName())
+                .queryName(Objects.toString(dimensions.queryName(), ""))
+                .categoryNames(dimensions.categoryNames())
+                .matchedApplicationName(dimensions.matchedApplicationName())
+                .resolverDecision(dimensions.resolverDecision())
+                .count(group.count())
+                .build();
+    }
+
+    public CloudflareLog toLog() {
+        return CloudflareLog.builder()
+                .categoryNames(categoryNames)
+                .datetime(datetime.toString())
+                .matchedApplicationName(matchedApplicationName)
+                .policyId(policyId)
+                .policyName(policyName)
+                .queryName(queryName)
+                .resolverDecision(resolverDecision)
+                .count(count)
+                .cursor(LogCursor.local(datetime, policyId, queryName, id).encode())
+                .build();
+    }
+
+    /**
+     * Category names contain spaces, so they are kept one per line.
+     */
+    @Converter
+    public static class CategoryNamesConverter implements AttributeConverter<String[], String> {
+        @Override
+        public String convertToDatabaseColumn(String[] names) {
+            return names == null || names.length == 0 ? null : String.join("\n", names);
+        }
+
+        @Override
+        public String[] convertToEntityAttribute(String text) {
+            return text == null || text.isEmpty() ? new String[0] : text.split("\n");
+        }
+    }
+}
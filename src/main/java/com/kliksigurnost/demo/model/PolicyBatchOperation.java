@@ -0,0 +1,25 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One item of {@code POST /api/policies/batch}. {@code policy} is required for creates and updates,
+ * {@code policyId} for updates and deletes.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PolicyBatchOperation {
+
+    public enum Type { CREATE, UPDATE, DELETE }
+
+    private Type type;
+
+    private String policyId;
+
+    private CloudflarePolicy policy;
+}
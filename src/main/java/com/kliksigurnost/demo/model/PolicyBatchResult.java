@@ -0,0 +1,29 @@
+package com.kliksigurnost.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one {@link PolicyBatchOperation}, in request order. {@code status} is the HTTP status the single-item
+ * endpoint would have answered with; in outbox mode an accepted operation carries its {@code outboxEntryId}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PolicyBatchResult {
+
+    private int index;
+
+    private PolicyBatchOperation.Type type;
+
+    private String policyId;
+
+    private int status;
+
+    private String message;
+
+    private Long outboxEntryId;
+}
@@ -0,0 +1,55 @@
+package com.kliksigurnost.demo.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * A policy change accepted locally and waiting to be (or already) applied in Cloudflare. Entries of one user are
+ * applied strictly in {@code id} order.
+ */
+@Entity
+@Builder
+@Table(name = "policy_outbox", indexes = {
+        @Index(name = "idx_policy_outbox_status", columnList = "status, id"),
+        @Index(name = "idx_policy_outbox_user", columnList = "userId, id")
+})
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class PolicyOutboxEntry {
+
+    public enum Operation { CREATE, UPDATE, DELETE }
+
+    public enum Status { PENDING, IN_PROGRESS, SUCCEEDED, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Integer userId;
+
+    @Enumerated(EnumType.STRING)
+    private Operation operation;
+
+    /**
+     * The policy's ID; for creates a provisional ID until Cloudflare has assigned the rule's.
+     */
+    private String policyId;
+
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    private int attempts;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+
+    private Instant nextAttemptAt;
+}
@@ -0,0 +1,143 @@
+package com.kliksigurnost.demo.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Converter;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+
+/**
+ * Compiled form of a policy's Gateway traffic expression: what the policy matches, as sorted, distinct int sets
+ * plus domain predicates. Built by {@link com.kliksigurnost.demo.helper.TrafficExpressionCompiler} and stored next
+ * to the raw {@code traffic} string, so consumers such as the allow-all rule never re-parse text.
+ * <p>
+ * ID sets are persisted range-compressed, e.g. {@code 2 67 125..133}.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Embeddable
+public class TrafficExpression {
+
+    private static final int[] NONE = new int[0];
+
+    @Builder.Default
+    @Convert(converter = IntSetConverter.class)
+    @Column(name = "traffic_categories", columnDefinition = "TEXT")
+    private int[] categories = NONE;
+
+    @Builder.Default
+    @Convert(converter = IntSetConverter.class)
+    @Column(name = "traffic_app_types", columnDefinition = "TEXT")
+    private int[] appTypes = NONE;
+
+    @Builder.Default
+    @Convert(converter = IntSetConverter.class)
+    @Column(name = "traffic_app_ids", columnDefinition = "TEXT")
+    private int[] appIds = NONE;
+
+    /**
+     * Domains matched including subdomains ({@code dns.domains}).
+     */
+    @Builder.Default
+    @Convert(converter = StringSetConverter.class)
+    @Column(name = "traffic_domains", columnDefinition = "TEXT")
+    private String[] domains = new String[0];
+
+    /**
+     * Exact host names ({@code dns.fqdn}).
+     */
+    @Builder.Default
+    @Convert(converter = StringSetConverter.class)
+    @Column(name = "traffic_fqdns", columnDefinition = "TEXT")
+    private String[] fqdns = new String[0];
+
+    /**
+     * IDs of Cloudflare domain lists matched including subdomains ({@code dns.domains[*] in $<list id>}).
+     */
+    @Builder.Default
+    @Convert(converter = StringSetConverter.class)
+    @Column(name = "traffic_domain_lists", columnDefinition = "TEXT")
+    private String[] domainLists = new String[0];
+
+    public boolean isEmpty() {
+        return categories.length == 0 && appTypes.length == 0 && appIds.length == 0
+                && domains.length == 0 && fqdns.length == 0 && domainLists.length == 0;
+    }
+
+    /**
+     * Formats a sorted, distinct set with runs of three or more consecutive IDs written as {@code from..to}.
+     */
+    public static String formatIds(int[] ids) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < ids.length; ) {
+            int j = i;
+            while (j + 1 < ids.length && ids[j + 1] == ids[j] + 1) {
+                j++;
+            }
+            if (!out.isEmpty()) out.append(' ');
+            if (j - i >= 2) {
+                out.append(ids[i]).append("..").append(ids[j]);
+            } else {
+                out.append(ids[i]);
+                if (j > i) out.append(' ').append(ids[j]);
+            }
+            i = j + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Parses the output of {@link #formatIds}; plain space-separated lists are accepted too.
+     */
+    public static int[] parseIds(String text) {
+        if (text == null || text.isBlank()) {
+            return NONE;
+        }
+        int[] ids = new int[16];
+        int size = 0;
+        for (String token : text.trim().split("\\s+")) {
+            int range = token.indexOf("..");
+            int from = Integer.parseInt(range < 0 ? token : token.substring(0, range));
+            int to = range < 0 ? from : Integer.parseInt(token.substring(range + 2));
+            for (int id = from; id <= to; id++) {
+                if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+                ids[size++] = id;
+            }
+        }
+        return Arrays.stream(ids, 0, size).sorted().distinct().toArray();
+    }
+
+    @Converter
+    public static class IntSetConverter implements AttributeConverter<int[], String> {
+        @Override
+        public String convertToDatabaseColumn(int[] ids) {
+            return ids == null || ids.length == 0 ? null : formatIds(ids);
+        }
+
+        @Override
+        public int[] convertToEntityAttribute(String text) {
+            return parseIds(text);
+        }
+    }
+
+    @Converter
+    public static class StringSetConverter implements AttributeConverter<String[], String> {
+        @Override
+        public String convertToDatabaseColumn(String[] values) {
+            return values == null || values.length == 0 ? null : String.join(" ", values);
+        }
+
+        @Override
+        public String[] convertToEntityAttribute(String text) {
+            return text == null || text.isBlank() ? new String[0] : text.trim().split("\\s+");
+        }
+    }
+}
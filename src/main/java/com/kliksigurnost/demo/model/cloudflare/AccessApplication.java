@@ -0,0 +1,6 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+import java.util.List;
+
+public record AccessApplication(String id, String name, String type, List<AccessPolicy> policies) {
+}
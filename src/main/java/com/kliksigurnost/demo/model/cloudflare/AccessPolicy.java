@@ -0,0 +1,15 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+import java.util.List;
+
+public record AccessPolicy(String id, String name, String decision, Integer precedence, List<AccessRule> include) {
+
+    /**
+     * A single include rule. Only e-mail rules are modelled, other rule types deserialize with {@code email == null}.
+     */
+    public record AccessRule(EmailRule email) {
+    }
+
+    public record EmailRule(String email) {
+    }
+}
@@ -0,0 +1,4 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+public record CloudflareError(Integer code, String message) {
+}
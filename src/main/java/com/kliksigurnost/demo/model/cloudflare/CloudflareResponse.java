@@ -0,0 +1,34 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Standard Cloudflare v4 API response envelope, decoded once by {@link com.kliksigurnost.demo.helper.MakeApiCall}.
+ */
+public record CloudflareResponse<T>(
+        boolean success,
+        List<CloudflareError> errors,
+        List<CloudflareError> messages,
+        T result,
+        @JsonProperty("result_info") ResultInfo resultInfo
+) {
+    public boolean hasErrors() {
+        return errors != null && !errors.isEmpty();
+    }
+
+    public String firstErrorMessage() {
+        return hasErrors() ? errors.get(0).message() : null;
+    }
+
+    public record ResultInfo(
+            Integer page,
+            @JsonProperty("per_page") Integer perPage,
+            Integer count,
+            @JsonProperty("total_count") Integer totalCount,
+            @JsonProperty("total_pages") Integer totalPages,
+            String cursor
+    ) {
+    }
+}
@@ -0,0 +1,9 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+public record GatewayList(
+        String id,
+        String name,
+        String type,
+        Integer count
+) {
+}
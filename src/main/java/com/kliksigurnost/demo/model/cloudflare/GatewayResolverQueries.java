@@ -0,0 +1,37 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+import java.util.List;
+
+/**
+ * {@code data} section of the {@code gatewayResolverQueriesAdaptiveGroups} GraphQL query.
+ */
+public record GatewayResolverQueries(Viewer viewer) {
+
+    public List<Group> groups() {
+        if (viewer == null || viewer.accounts() == null || viewer.accounts().isEmpty()) {
+            return List.of();
+        }
+        List<Group> groups = viewer.accounts().get(0).gatewayResolverQueriesAdaptiveGroups();
+        return groups != null ? groups : List.of();
+    }
+
+    public record Viewer(List<Account> accounts) {
+    }
+
+    public record Account(List<Group> gatewayResolverQueriesAdaptiveGroups) {
+    }
+
+    public record Group(long count, Dimensions dimensions) {
+    }
+
+    public record Dimensions(
+            String[] categoryNames,
+            String datetime,
+            String matchedApplicationName,
+            String policyId,
+            String policyName,
+            String queryName,
+            Integer resolverDecision
+    ) {
+    }
+}
@@ -0,0 +1,18 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+import com.kliksigurnost.demo.model.Schedule;
+
+import java.util.List;
+
+public record GatewayRule(
+        String id,
+        String name,
+        String action,
+        Boolean enabled,
+        String identity,
+        String traffic,
+        Integer precedence,
+        List<String> filters,
+        Schedule schedule
+) {
+}
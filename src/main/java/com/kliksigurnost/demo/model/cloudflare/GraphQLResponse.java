@@ -0,0 +1,16 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+import java.util.List;
+
+/**
+ * Response envelope of the Cloudflare GraphQL analytics API ({@code data} + {@code errors}).
+ */
+public record GraphQLResponse<T>(T data, List<CloudflareError> errors) {
+    public boolean hasErrors() {
+        return errors != null && !errors.isEmpty();
+    }
+
+    public String firstErrorMessage() {
+        return hasErrors() ? errors.get(0).message() : null;
+    }
+}
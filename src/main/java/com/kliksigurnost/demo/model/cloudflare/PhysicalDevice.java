@@ -0,0 +1,15 @@
+package com.kliksigurnost.demo.model.cloudflare;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public record PhysicalDevice(
+        String id,
+        String manufacturer,
+        String model,
+        @JsonProperty("last_seen_at") String lastSeenAt,
+        @JsonProperty("serial_number") String serialNumber,
+        @JsonProperty("last_seen_user") LastSeenUser lastSeenUser
+) {
+    public record LastSeenUser(String email) {
+    }
+}
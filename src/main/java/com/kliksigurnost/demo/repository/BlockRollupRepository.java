@@ -0,0 +1,78 @@
+package com.kliksigurnost.demo.repository;
+
+import com.kliksigurnost.demo.model.BlockCount;
+import com.kliksigurnost.demo.model.BlockRollup;
+import com.kliksigurnost.demo.model.BlockTimelinePoint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface BlockRollupRepository extends JpaRepository<BlockRollup, Long> {
+
+    /**
+     * Adds {@code delta} to an existing rollup row.
+     *
+     * @return 0 if there is no such row yet
+     */
+    @Modifying
+    @Query("update BlockRollup r set r.count = r.count + :delta where r.userId = :userId and r.policyId = :policyId"
+            + " and r.granularity = :granularity and r.dimension = :dimension and r.bucket = :bucket"
+            + " and r.dimensionValue = :dimensionValue")
+    int addCount(@Param("userId") Integer userId,
+                 @Param("policyId") String policyId,
+                 @Param("granularity") BlockRollup.Granularity granularity,
+                 @Param("dimension") BlockRollup.Dimension dimension,
+                 @Param("bucket") Instant bucket,
+                 @Param("dimensionValue") String dimensionValue,
+                 @Param("delta") long delta);
+
+    @Query("select coalesce(sum(r.count), 0) from BlockRollup r where r.userId = :userId"
+            + " and r.granularity = :granularity and r.dimension = :dimension and r.bucket >= :from and r.bucket < :to")
+    long sumTotal(@Param("userId") Integer userId,
+                  @Param("granularity") BlockRollup.Granularity granularity,
+                  @Param("dimension") BlockRollup.Dimension dimension,
+                  @Param("from") Instant from,
+                  @Param("to") Instant to);
+
+    @Query("select new com.kliksigurnost.demo.model.BlockCount(r.policyId, sum(r.count)) from BlockRollup r"
+            + " where r.userId = :userId and r.granularity = :granularity and r.dimension = :dimension"
+            + " and r.bucket >= :from and r.bucket < :to group by r.policyId order by sum(r.count) desc")
+    List<BlockCount> sumByPolicy(@Param("userId") Integer userId,
+                                 @Param("granularity") BlockRollup.Granularity granularity,
+                                 @Param("dimension") BlockRollup.Dimension dimension,
+                                 @Param("from") Instant from,
+                                 @Param("to") Instant to);
+
+    /**
+     * Largest domains or categories first; {@code pageable} limits how many.
+     */
+    @Query("select new com.kliksigurnost.demo.model.BlockCount(r.dimensionValue, sum(r.count)) from BlockRollup r"
+            + " where r.userId = :userId and r.granularity = :granularity and r.dimension = :dimension"
+            + " and r.bucket >= :from and r.bucket < :to group by r.dimensionValue order by sum(r.count) desc")
+    List<BlockCount> sumByValue(@Param("userId") Integer userId,
+                                @Param("granularity") BlockRollup.Granularity granularity,
+                                @Param("dimension") BlockRollup.Dimension dimension,
+                                @Param("from") Instant from,
+                                @Param("to") Instant to,
+                                Pageable pageable);
+
+    @Query("select new com.kliksigurnost.demo.model.BlockTimelinePoint(r.bucket, sum(r.count)) from BlockRollup r"
+            + " where r.userId = :userId and r.granularity = :granularity and r.dimension = :dimension"
+            + " and r.bucket >= :from and r.bucket < :to group by r.bucket order by r.bucket")
+    List<BlockTimelinePoint> sumByBucket(@Param("userId") Integer userId,
+                                         @Param("granularity") BlockRollup.Granularity granularity,
+                                         @Param("dimension") BlockRollup.Dimension dimension,
+                                         @Param("from") Instant from,
+                                         @Param("to") Instant to);
+
+    @Transactional
+    @Modifying
+    @Query("delete from BlockRollup r where r.granularity = :granularity and r.bucket < :before")
+    int deleteBefore(@Param("granularity") BlockRollup.Granularity granularity, @Param("before") Instant before);
+}
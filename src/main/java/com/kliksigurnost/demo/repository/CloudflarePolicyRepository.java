@@ -5,8 +5,11 @@ import com.kliksigurnost.demo.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface CloudflarePolicyRepository extends JpaRepository<CloudflarePolicy, String> {
     List<CloudflarePolicy> findByUser(User user);
+    List<CloudflarePolicy> findByCloudflareAccId(String cloudflareAccId);
     long countByUser(User user);
+    Optional<CloudflarePolicy> findFirstByUserAndIsAllowAllTrue(User user);
 }
@@ -0,0 +1,11 @@
+package com.kliksigurnost.demo.repository;
+
+import com.kliksigurnost.demo.model.DomainList;
+import com.kliksigurnost.demo.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface DomainListRepository extends JpaRepository<DomainList, String> {
+    List<DomainList> findByUser(User user);
+}
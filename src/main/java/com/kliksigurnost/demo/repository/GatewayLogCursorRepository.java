@@ -0,0 +1,18 @@
+package com.kliksigurnost.demo.repository;
+
+import com.kliksigurnost.demo.model.GatewayLogCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface GatewayLogCursorRepository extends JpaRepository<GatewayLogCursor, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update GatewayLogCursor c set c.coveredFrom = :from where c.coveredFrom < :from")
+    int raiseCoveredFrom(@Param("from") Instant from);
+}
@@ -0,0 +1,72 @@
+package com.kliksigurnost.demo.repository;
+
+import com.kliksigurnost.demo.model.GatewayLogEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface GatewayLogRepository extends JpaRepository<GatewayLogEntry, Long> {
+
+    /**
+     * Newest-first log page of the given policies within {@code (start, end)}, continuing below the keyset
+     * {@code (datetime, policyId, queryName, id)}; a {@code null} key field skips every row matching the ones
+     * before it. {@code resolverDecision} 0 matches any decision. {@code pageable} must sort by the key, descending.
+     */
+    @Query("select e from GatewayLogEntry e where e.policyId in :policyIds"
+            + " and e.datetime > :start and e.datetime < :end"
+            + " and (:resolverDecision = 0 or e.resolverDecision = :resolverDecision)"
+            + " and e.datetime <= :datetime"
+            + " and (e.datetime < :datetime or (:policyId is not null and (e.policyId < :policyId"
+            + " or (e.policyId = :policyId and :queryName is not null and (e.queryName < :queryName"
+            + " or (e.queryName = :queryName and :id is not null and e.id < :id))))))")
+    List<GatewayLogEntry> findPageBefore(@Param("policyIds") Collection<String> policyIds,
+                                         @Param("start") Instant start,
+                                         @Param("end") Instant end,
+                                         @Param("resolverDecision") int resolverDecision,
+                                         @Param("datetime") Instant datetime,
+                                         @Param("policyId") String policyId,
+                                         @Param("queryName") String queryName,
+                                         @Param("id") Long id,
+                                         Pageable pageable);
+
+    /**
+     * Oldest-first counterpart of {@link #findPageBefore}, continuing above the keyset.
+     */
+    @Query("select e from GatewayLogEntry e where e.policyId in :policyIds"
+            + " and e.datetime > :start and e.datetime < :end"
+            + " and (:resolverDecision = 0 or e.resolverDecision = :resolverDecision)"
+            + " and e.datetime >= :datetime"
+            + " and (e.datetime > :datetime or (:policyId is not null and (e.policyId > :policyId"
+            + " or (e.policyId = :policyId and :queryName is not null and (e.queryName > :queryName"
+            + " or (e.queryName = :queryName and :id is not null and e.id > :id))))))")
+    List<GatewayLogEntry> findPageAfter(@Param("policyIds") Collection<String> policyIds,
+                                        @Param("start") Instant start,
+                                        @Param("end") Instant end,
+                                        @Param("resolverDecision") int resolverDecision,
+                                        @Param("datetime") Instant datetime,
+                                        @Param("policyId") String policyId,
+                                        @Param("queryName") String queryName,
+                                        @Param("id") Long id,
+                                        Pageable pageable);
+
+    List<GatewayLogEntry> findTop1000ByIdGreaterThanAndResolverDecisionOrderByIdAsc(Long id, Integer resolverDecision);
+
+    @Query("select coalesce(max(e.id), 0) from GatewayLogEntry e")
+    long findMaxId();
+
+    @Query("select min(e.day) from GatewayLogEntry e")
+    LocalDate findOldestDay();
+
+    @Transactional
+    @Modifying
+    @Query("delete from GatewayLogEntry e where e.day = :day")
+    int deleteDay(@Param("day") LocalDate day);
+}
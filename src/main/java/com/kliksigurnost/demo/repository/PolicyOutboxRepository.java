@@ -0,0 +1,31 @@
+package com.kliksigurnost.demo.repository;
+
+import com.kliksigurnost.demo.model.PolicyOutboxEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface PolicyOutboxRepository extends JpaRepository<PolicyOutboxEntry, Long> {
+    List<PolicyOutboxEntry> findTop500ByStatusOrderByIdAsc(PolicyOutboxEntry.Status status);
+    List<PolicyOutboxEntry> findTop50ByUserIdOrderByIdDesc(Integer userId);
+    Optional<PolicyOutboxEntry> findByIdAndUserId(Long id, Integer userId);
+
+    @Transactional
+    @Modifying
+    @Query("update PolicyOutboxEntry e set e.policyId = :to where e.policyId = :from and e.status = :status")
+    int remapPolicyId(@Param("from") String from, @Param("to") String to, @Param("status") PolicyOutboxEntry.Status status);
+
+    @Transactional
+    @Modifying
+    @Query("update PolicyOutboxEntry e set e.status = :to where e.status = :from")
+    int updateStatus(@Param("from") PolicyOutboxEntry.Status from, @Param("to") PolicyOutboxEntry.Status to);
+
+    @Transactional
+    long deleteByStatusAndUpdatedAtBefore(PolicyOutboxEntry.Status status, Instant before);
+}
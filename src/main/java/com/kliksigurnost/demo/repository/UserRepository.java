@@ -3,10 +3,12 @@ package com.kliksigurnost.demo.repository;
 import com.kliksigurnost.demo.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Integer> {
 
     Optional<User> findByEmail(String email);
     Boolean existsByEmail(String email);
+    List<User> findByCloudflareAccountAccountId(String accountId);
 }
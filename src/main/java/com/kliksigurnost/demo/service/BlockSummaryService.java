@@ -0,0 +1,24 @@
+package com.kliksigurnost.demo.service;
+
+import com.kliksigurnost.demo.model.BlockSummary;
+import com.kliksigurnost.demo.model.BlockTimelinePoint;
+
+import java.util.List;
+
+public interface BlockSummaryService {
+    /**
+     * The current user's blocked queries within {@code [from, to)}: in total, per policy, and the {@code top}
+     * domains and categories.
+     *
+     * @throws IllegalArgumentException on a malformed or empty range
+     */
+    BlockSummary getSummary(String from, String to, int top);
+
+    /**
+     * The current user's blocked queries per hour or day within {@code [from, to)}; buckets without blocks are left
+     * out. Without a {@code granularity} ({@code hour} or {@code day}) it is chosen from the range.
+     *
+     * @throws IllegalArgumentException on a malformed or empty range, or an unknown granularity
+     */
+    List<BlockTimelinePoint> getTimeline(String from, String to, String granularity);
+}
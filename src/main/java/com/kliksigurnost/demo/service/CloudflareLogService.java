@@ -5,10 +5,17 @@ import com.kliksigurnost.demo.model.CloudflareLog;
 import java.util.List;
 
 public interface CloudflareLogService {
+    /**
+     * A page of the current user's logs, continuing after {@code cursor} (a row's {@link CloudflareLog#getCursor()})
+     * or, for older clients, after {@code lastDateTime}/{@code lastPolicyId}.
+     *
+     * @throws IllegalArgumentException on a malformed cursor or timestamp, or an order other than by datetime
+     */
     List<CloudflareLog> getLogsForUser(
             String startDateTime,
             String endDateTime,
             List<String> orderBy,
+            String cursor,
             String lastDateTime,
             String lastPolicyId,
             int pageSize,
@@ -25,4 +32,18 @@ public interface CloudflareLogService {
             int pageSize,
             int resolverDecision
     );
+
+    /**
+     * The current user's logs within {@code (startDateTime, endDateTime)}, oldest first, as pages that are fetched
+     * one at a time while being iterated.
+     *
+     * @throws IllegalArgumentException on a malformed timestamp
+     */
+    Iterable<List<CloudflareLog>> exportLogsForUser(String startDateTime, String endDateTime, int resolverDecision);
+
+    /**
+     * Like {@link #exportLogsForUser}, for every policy of the account.
+     */
+    Iterable<List<CloudflareLog>> exportLogsForAccount(String accountId, String startDateTime, String endDateTime,
+                                                       int resolverDecision);
 }
@@ -1,6 +1,8 @@
 package com.kliksigurnost.demo.service;
 
 import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.PolicyBatchOperation;
+import com.kliksigurnost.demo.model.PolicyBatchResult;
 import com.kliksigurnost.demo.model.User;
 
 import java.util.List;
@@ -13,10 +15,14 @@ public interface CloudflarePolicyService {
 
     void updatePolicy(String policyId, CloudflarePolicy updatedPolicy);
 
+    List<PolicyBatchResult> applyBatch(List<PolicyBatchOperation> operations);
+
     List<CloudflarePolicy> getPoliciesByUser(Integer userId);
     List<CloudflarePolicy> getPoliciesByUser();
 
     List<CloudflarePolicy> getAllPolicies();
 
     String createDefaultPolicy(User user);
+
+    void flushAllowAllPolicy();
 }
@@ -0,0 +1,18 @@
+package com.kliksigurnost.demo.service;
+
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.DomainListChange;
+import com.kliksigurnost.demo.model.DomainListDiff;
+import com.kliksigurnost.demo.model.DomainListPolicyRequest;
+
+import java.util.List;
+
+public interface DomainListPolicyService {
+    CloudflarePolicy createDomainListPolicy(DomainListPolicyRequest request);
+
+    List<String> getDomains(String policyId);
+
+    DomainListDiff updateDomains(String policyId, DomainListChange change);
+
+    DomainListDiff replaceDomains(String policyId, List<String> domains);
+}
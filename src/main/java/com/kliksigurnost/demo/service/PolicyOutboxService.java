@@ -0,0 +1,20 @@
+package com.kliksigurnost.demo.service;
+
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.PolicyBatchOperation;
+import com.kliksigurnost.demo.model.PolicyBatchResult;
+import com.kliksigurnost.demo.model.PolicyOutboxEntry;
+
+import java.util.List;
+
+public interface PolicyOutboxService {
+    boolean isEnabled();
+
+    PolicyOutboxEntry enqueueCreate(CloudflarePolicy policy);
+    PolicyOutboxEntry enqueueUpdate(String policyId, CloudflarePolicy updatedPolicy);
+    PolicyOutboxEntry enqueueDelete(String policyId);
+    List<PolicyBatchResult> enqueueBatch(List<PolicyBatchOperation> operations);
+
+    PolicyOutboxEntry getEntry(Long entryId);
+    List<PolicyOutboxEntry> getEntries();
+}
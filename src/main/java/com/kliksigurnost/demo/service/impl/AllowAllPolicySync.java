@@ -0,0 +1,287 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.exception.CloudflareApiException;
+import com.kliksigurnost.demo.helper.AllowAllTrafficIndex;
+import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
+import com.kliksigurnost.demo.helper.UserMutationLocks;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import com.kliksigurnost.demo.model.cloudflare.GatewayRule;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes users' allow-all rules to Cloudflare off the request path.
+ * <p>
+ * A policy mutation only marks the user's allow-all rule dirty. The rule is pushed once no further mutation has
+ * arrived for {@code cloudflare.allow-all.sync.debounce}, but never later than
+ * {@code cloudflare.allow-all.sync.max-delay} after it first became dirty, so a burst of edits costs one PUT and
+ * staleness stays bounded. Failed pushes are retried after {@code max-delay}. {@link #flush(User)} pushes
+ * immediately for callers that need Cloudflare up to date, and pending rules are flushed on shutdown. With
+ * {@code cloudflare.allow-all.sync.enabled=false} every mutation pushes inline, as before.
+ */
+@Slf4j
+@Component
+public class AllowAllPolicySync {
+
+    private static final String GATEWAY_RULES_ENDPOINT = "accounts/{account_id}/gateway/rules";
+
+    private final MakeApiCall makeApiCall;
+    private final GatewayRuleMirror gatewayRuleMirror;
+    private final CloudflarePolicyRepository policyRepository;
+    private final AllowAllTrafficIndex allowAllTrafficIndex;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final UserMutationLocks userMutationLocks;
+    private final PlatformTransactionManager transactionManager;
+    private final Environment env;
+
+    private final boolean enabled;
+    private final long debounceNanos;
+    private final long maxDelayNanos;
+
+    private final ScheduledExecutorService scheduler;
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    public AllowAllPolicySync(MakeApiCall makeApiCall,
+                              GatewayRuleMirror gatewayRuleMirror,
+                              CloudflarePolicyRepository policyRepository,
+                              AllowAllTrafficIndex allowAllTrafficIndex,
+                              PolicySnapshotCache policySnapshotCache,
+                              UserMutationLocks userMutationLocks,
+                              PlatformTransactionManager transactionManager,
+                              Environment env,
+                              @Value("${cloudflare.allow-all.sync.enabled:true}") boolean enabled,
+                              @Value("${cloudflare.allow-all.sync.debounce:500ms}") Duration debounce,
+                              @Value("${cloudflare.allow-all.sync.max-delay:5s}") Duration maxDelay,
+                              @Value("${cloudflare.allow-all.sync.threads:2}") int threads) {
+        this.makeApiCall = makeApiCall;
+        this.gatewayRuleMirror = gatewayRuleMirror;
+        this.policyRepository = policyRepository;
+        this.allowAllTrafficIndex = allowAllTrafficIndex;
+        this.policySnapshotCache = policySnapshotCache;
+        this.userMutationLocks = userMutationLocks;
+        this.transactionManager = transactionManager;
+        this.env = env;
+        this.enabled = enabled;
+        this.debounceNanos = debounce.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "allow-all-sync-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules a push of the user's allow-all rule, or pushes it now if syncing in the background is disabled.
+     */
+    public void markDirty(User user) {
+        if (!enabled) {
+            push(user);
+            return;
+        }
+        pending.compute(user.getId(), (id, current) -> {
+            long now = System.nanoTime();
+            long firstDirty = now;
+            if (current != null) {
+                current.task().cancel(false);
+                firstDirty = current.firstDirtyNanos();
+            }
+            long delay = Math.max(0, Math.min(debounceNanos, firstDirty + maxDelayNanos - now));
+            return new Pending(user, firstDirty, scheduler.schedule(() -> flushPending(id), delay, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    /**
+     * Pushes the user's allow-all rule now if it has unsynced changes.
+     *
+     * @throws CloudflareApiException if Cloudflare rejects the update
+     */
+    public void flush(User user) {
+        Pending claimed = pending.remove(user.getId());
+        if (claimed != null) {
+            claimed.task().cancel(false);
+            push(claimed.user());
+        }
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Pushes every pending allow-all rule now and waits for pushes already in progress; failures are logged and
+     * the rule is left for the next change.
+     */
+    public void flushAll() {
+        for (Integer userId : List.copyOf(pending.keySet())) {
+            Pending claimed = pending.remove(userId);
+            if (claimed == null) {
+                continue;
+            }
+            try {
+                push(claimed.user());
+            } catch (RuntimeException e) {
+                log.error("Failed to flush allow-all policy for user {}", userId, e);
+            }
+        }
+        userMutationLocks.awaitInProgress();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushAll();
+    }
+
+    private void flushPending(Integer userId) {
+        Pending claimed = pending.remove(userId);
+        if (claimed == null) {
+            return; // flushed on demand in the meantime
+        }
+        try {
+            push(claimed.user());
+        } catch (RuntimeException e) {
+            log.warn("Failed to sync allow-all policy for user {}, retrying: {}", userId, e.getMessage());
+            pending.computeIfAbsent(userId, id -> new Pending(claimed.user(), claimed.firstDirtyNanos(),
+                    scheduler.schedule(() -> flushPending(id), maxDelayNanos, TimeUnit.NANOSECONDS)));
+        }
+    }
+
+    /**
+     * Brings the allow-all rule to the user's current allow-all traffic. The stored traffic is only saved after
+     * Cloudflare accepted it, so when it already matches there is nothing to save or send. Pushes run under the
+     * user's mutation lock, so an older state can never overwrite a newer one.
+     * <p>
+     * The push takes its database connection before the lock and commits before releasing it. Request threads hold
+     * their connection (open-in-view) while waiting for the lock, so a push holding the lock and waiting for a
+     * connection could wait on them forever.
+     */
+    private void push(User user) {
+        TransactionStatus transaction = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+        try {
+            userMutationLocks.run(user, () -> {
+                boolean changed = pushLocked(user);
+                transactionManager.commit(transaction);
+                if (changed) {
+                    policySnapshotCache.invalidate(user);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (!transaction.isCompleted()) {
+                transactionManager.rollback(transaction);
+            }
+            throw e;
+        }
+    }
+
+    private boolean pushLocked(User user) {
+        CloudflarePolicy allowAllPolicy = ensureAllowAllPolicyExists(user);
+        String allowAllTraffic = allowAllTrafficIndex.allowAllTraffic(user);
+        if (allowAllTraffic.equals(allowAllPolicy.getTraffic())) {
+            log.debug("Allow-all policy {} unchanged, not updating", allowAllPolicy.getId());
+            return false;
+        }
+        allowAllPolicy.setTraffic(allowAllTraffic);
+
+        // Update the "allow-all" policy in Cloudflare API
+        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, user.getCloudflareAccount().getAccountId()) + "/" + allowAllPolicy.getId();
+
+        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        Map<String, Object> requestBody = CloudflarePolicyServiceImpl.buildPolicyRequestBody(allowAllPolicy);
+
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+
+        CloudflareResponse<GatewayRule> response = makeApiCall.exchange(url, HttpMethod.PUT, entity, GatewayRule.class);
+
+        if (!response.success()) {
+            log.error("Failed to update allow-all policy in Cloudflare API: {}", response);
+            throw new CloudflareApiException(env.getProperty("policy-allow-update-fail"));
+        }
+        gatewayRuleMirror.put(allowAllPolicy.getCloudflareAccId(), response.result());
+
+        // Update the "allow-all" policy in the database
+        policyRepository.save(allowAllPolicy);
+        return true;
+    }
+
+    private CloudflarePolicy ensureAllowAllPolicyExists(User user) {
+        // First check if we already have it in our database
+        Optional<CloudflarePolicy> existingDbPolicy = policyRepository.findFirstByUserAndIsAllowAllTrue(user);
+
+        if (existingDbPolicy.isPresent()) {
+            return existingDbPolicy.get();
+        }
+
+        // If not in DB, look for a rule named after the user's email in the account's rules
+        Optional<GatewayRule> existingRule = gatewayRuleMirror.findByName(user.getCloudflareAccount(), user.getEmail());
+        if (existingRule.isPresent()) {
+            GatewayRule rule = existingRule.get();
+            // Found existing policy - create local record
+            CloudflarePolicy existingPolicy = CloudflarePolicy.builder()
+                    .id(rule.id())
+                    .name(rule.name())
+                    .action(rule.action())
+                    .traffic(rule.traffic())
+                    .cloudflareAccId(user.getCloudflareAccount().getAccountId())
+                    .user(user)
+                    .isAllowAll(true)
+                    .build();
+
+            CloudflarePolicy saved = policyRepository.save(existingPolicy);
+            policySnapshotCache.invalidate(user);
+            return saved;
+        }
+
+        // If we get here, no existing policy found - create new one
+        CloudflarePolicy newPolicy = CloudflarePolicy.builder()
+                .name(user.getEmail())
+                .action("allow")
+                .traffic("")
+                .cloudflareAccId(user.getCloudflareAccount().getAccountId())
+                .user(user)
+                .isAllowAll(true)
+                .build();
+
+        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, user.getCloudflareAccount().getAccountId());
+        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        Map<String, Object> requestBody = CloudflarePolicyServiceImpl.buildPolicyRequestBody(newPolicy);
+        HttpEntity<Map<String, Object>> postEntity = new HttpEntity<>(requestBody, headers);
+
+        GatewayRule created = makeApiCall.exchange(url, HttpMethod.POST, postEntity, GatewayRule.class).result();
+        newPolicy.setId(created.id());
+        gatewayRuleMirror.put(newPolicy.getCloudflareAccId(), created);
+
+        CloudflarePolicy saved = policyRepository.save(newPolicy);
+        policySnapshotCache.invalidate(user);
+        return saved;
+    }
+
+    private record Pending(User user, long firstDirtyNanos, ScheduledFuture<?> task) {
+    }
+}
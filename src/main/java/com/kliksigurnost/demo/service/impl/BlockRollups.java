@@ -0,0 +1,141 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.model.BlockRollup;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.GatewayLogEntry;
+import com.kliksigurnost.demo.repository.BlockRollupRepository;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the hourly and daily {@link BlockRollup}s up to date as {@link GatewayLogStore} ingests logs: each window's
+ * blocked queries are summed per policy, in total, per domain and per category, and added to their buckets in the
+ * transaction that stores the window, so a window is counted exactly once.
+ * <p>
+ * Each row is attributed to the user owning the policy at ingestion. Blocks of a policy that is already gone by then
+ * (deleted within the ingestion lag, or never stored locally) belong to nobody and aren't counted.
+ * <p>
+ * Hourly rollups are kept for {@code cloudflare.logs.rollup.hourly-retention-days}, daily ones for
+ * {@code daily-retention-days}, both independent of how long the raw logs are kept.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BlockRollups {
+
+    static final int BLOCKED = 9;
+
+    private record Key(Integer userId, String policyId, BlockRollup.Granularity granularity,
+                       BlockRollup.Dimension dimension, Instant bucket, String value) {
+    }
+
+    private final BlockRollupRepository rollupRepository;
+    private final CloudflarePolicyRepository policyRepository;
+
+    @Value("${cloudflare.logs.rollup.hourly-retention-days:14}")
+    private int hourlyRetentionDays;
+
+    @Value("${cloudflare.logs.rollup.daily-retention-days:400}")
+    private int dailyRetentionDays;
+
+    /**
+     * Adds the blocked queries among {@code entries}. Must run in the transaction that stores them.
+     */
+    public void add(List<GatewayLogEntry> entries) {
+        List<GatewayLogEntry> blocked = entries.stream()
+                .filter(entry -> entry.getResolverDecision() != null && entry.getResolverDecision() == BLOCKED
+                        && entry.getPolicyId() != null)
+                .toList();
+        if (blocked.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> owners = ownersOf(blocked.stream()
+                .map(GatewayLogEntry::getPolicyId)
+                .collect(Collectors.toSet()));
+
+        Map<Key, Long> deltas = new HashMap<>();
+        for (GatewayLogEntry entry : blocked) {
+            Integer userId = owners.get(entry.getPolicyId());
+            if (userId == null) {
+                continue;
+            }
+            for (BlockRollup.Granularity granularity : BlockRollup.Granularity.values()) {
+                Instant bucket = bucketOf(entry.getDatetime(), granularity);
+                deltas.merge(new Key(userId, entry.getPolicyId(), granularity, BlockRollup.Dimension.TOTAL, bucket, ""),
+                        entry.getCount(), Long::sum);
+                if (entry.getQueryName() != null && !entry.getQueryName().isEmpty()) {
+                    deltas.merge(new Key(userId, entry.getPolicyId(), granularity, BlockRollup.Dimension.DOMAIN,
+                            bucket, entry.getQueryName()), entry.getCount(), Long::sum);
+                }
+                if (entry.getCategoryNames() != null) {
+                    for (String category : entry.getCategoryNames()) {
+                        deltas.merge(new Key(userId, entry.getPolicyId(), granularity,
+                                BlockRollup.Dimension.CATEGORY, bucket, category), entry.getCount(), Long::sum);
+                    }
+                }
+            }
+        }
+
+        deltas.forEach((key, delta) -> {
+            int updated = rollupRepository.addCount(key.userId(), key.policyId(), key.granularity(), key.dimension(),
+                    key.bucket(), key.value(), delta);
+            if (updated == 0) {
+                rollupRepository.save(BlockRollup.builder()
+                        .userId(key.userId())
+                        .policyId(key.policyId())
+                        .granularity(key.granularity())
+                        .dimension(key.dimension())
+                        .bucket(key.bucket())
+                        .dimensionValue(key.value())
+                        .count(delta)
+                        .build());
+            }
+        });
+    }
+
+    private Map<String, Integer> ownersOf(Set<String> policyIds) {
+        Map<String, Integer> owners = new HashMap<>();
+        for (CloudflarePolicy policy : policyRepository.findAllById(policyIds)) {
+            if (policy.getUser() != null) {
+                owners.put(policy.getId(), policy.getUser().getId());
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * Drops the rollups that fell out of retention.
+     *
+     * @return number of rows dropped
+     */
+    public int purgeExpired() {
+        Instant now = Instant.now();
+        int dropped = rollupRepository.deleteBefore(BlockRollup.Granularity.HOUR,
+                bucketOf(now, BlockRollup.Granularity.DAY).minus(hourlyRetentionDays, ChronoUnit.DAYS));
+        dropped += rollupRepository.deleteBefore(BlockRollup.Granularity.DAY,
+                bucketOf(now, BlockRollup.Granularity.DAY).minus(dailyRetentionDays, ChronoUnit.DAYS));
+        if (dropped > 0) {
+            log.info("Dropped {} expired block rollups", dropped);
+        }
+        return dropped;
+    }
+
+    public int hourlyRetentionDays() {
+        return hourlyRetentionDays;
+    }
+
+    static Instant bucketOf(Instant instant, BlockRollup.Granularity granularity) {
+        return instant.truncatedTo(granularity == BlockRollup.Granularity.HOUR ? ChronoUnit.HOURS : ChronoUnit.DAYS);
+    }
+}
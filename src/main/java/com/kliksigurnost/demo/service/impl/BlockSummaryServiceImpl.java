@@ -0,0 +1,95 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.model.BlockRollup;
+import com.kliksigurnost.demo.model.BlockSummary;
+import com.kliksigurnost.demo.model.BlockTimelinePoint;
+import com.kliksigurnost.demo.repository.BlockRollupRepository;
+import com.kliksigurnost.demo.service.BlockSummaryService;
+import com.kliksigurnost.demo.service.UserService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Block summaries answered from {@link BlockRollup}s, never from the raw logs. Ranges are widened to whole buckets:
+ * hours for ranges of up to {@link #HOURLY_MAX_RANGE} still within the hourly rollups' retention, UTC days
+ * otherwise. Blocks within the log ingestion lag aren't counted yet.
+ */
+@Service
+@RequiredArgsConstructor
+public class BlockSummaryServiceImpl implements BlockSummaryService {
+
+    private static final Duration HOURLY_MAX_RANGE = Duration.ofDays(2);
+    private static final int MAX_TOP = 100;
+
+    private final BlockRollupRepository rollupRepository;
+    private final BlockRollups blockRollups;
+    private final UserService userService;
+
+    @Override
+    public BlockSummary getSummary(String from, String to, int top) {
+        Instant start = parseInstant(from);
+        Instant end = parseInstant(to);
+        BlockRollup.Granularity granularity = granularityFor(start, end);
+        start = BlockRollups.bucketOf(start, granularity);
+        end = ceil(end, granularity);
+
+        Integer userId = userService.getCurrentUser().getId();
+        PageRequest limit = PageRequest.of(0, Math.max(1, Math.min(top, MAX_TOP)));
+        return BlockSummary.builder()
+                .from(start)
+                .to(end)
+                .granularity(granularity)
+                .total(rollupRepository.sumTotal(userId, granularity, BlockRollup.Dimension.TOTAL, start, end))
+                .policies(rollupRepository.sumByPolicy(userId, granularity, BlockRollup.Dimension.TOTAL, start, end))
+                .topDomains(rollupRepository.sumByValue(userId, granularity, BlockRollup.Dimension.DOMAIN, start, end,
+                        limit))
+                .categories(rollupRepository.sumByValue(userId, granularity, BlockRollup.Dimension.CATEGORY, start,
+                        end, limit))
+                .build();
+    }
+
+    @Override
+    public List<BlockTimelinePoint> getTimeline(String from, String to, String granularity) {
+        Instant start = parseInstant(from);
+        Instant end = parseInstant(to);
+        BlockRollup.Granularity bucket = granularity != null
+                ? BlockRollup.Granularity.valueOf(granularity.toUpperCase(Locale.ROOT))
+                : granularityFor(start, end);
+
+        return rollupRepository.sumByBucket(userService.getCurrentUser().getId(), bucket, BlockRollup.Dimension.TOTAL,
+                BlockRollups.bucketOf(start, bucket), ceil(end, bucket));
+    }
+
+    private BlockRollup.Granularity granularityFor(Instant start, Instant end) {
+        if (!start.isBefore(end)) {
+            throw new IllegalArgumentException("Empty range: " + start + " - " + end);
+        }
+        Instant hourlyHorizon = BlockRollups.bucketOf(Instant.now(), BlockRollup.Granularity.DAY)
+                .minus(blockRollups.hourlyRetentionDays(), ChronoUnit.DAYS);
+        return Duration.between(start, end).compareTo(HOURLY_MAX_RANGE) <= 0 && !start.isBefore(hourlyHorizon)
+                ? BlockRollup.Granularity.HOUR
+                : BlockRollup.Granularity.DAY;
+    }
+
+    private static Instant ceil(Instant instant, BlockRollup.Granularity granularity) {
+        Instant floor = BlockRollups.bucketOf(instant, granularity);
+        return floor.equals(instant)
+                ? floor
+                : floor.plus(1, granularity == BlockRollup.Granularity.HOUR ? ChronoUnit.HOURS : ChronoUnit.DAYS);
+    }
+
+    private static Instant parseInstant(String value) {
+        try {
+            return Instant.parse(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed timestamp: " + value, e);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.kliksigurnost.demo.service.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.kliksigurnost.demo.exception.CloudflareApiException;
+import com.kliksigurnost.demo.helper.CloudflareRequestCoalescer;
 import com.kliksigurnost.demo.helper.MakeApiCall;
 import com.kliksigurnost.demo.model.CloudflareAccount;
+import com.kliksigurnost.demo.model.cloudflare.AccessApplication;
+import com.kliksigurnost.demo.model.cloudflare.AccessPolicy;
 import com.kliksigurnost.demo.repository.CloudflareAccountRepository;
 import com.kliksigurnost.demo.service.CloudflareAccountService;
 import lombok.RequiredArgsConstructor;
@@ -24,7 +26,8 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
     private final MakeApiCall makeApiCall;
     private final CloudflareAccountRepository repository;
     private final Environment env;
-    private static final String BASE_URL = "https://api.cloudflare.com/client/v4/accounts/";
+    private static final String ACCESS_APPS_ENDPOINT = "accounts/{account_id}/access/apps";
+    private static final TypeReference<List<AccessApplication>> APPLICATION_LIST = new TypeReference<>() {};
 
     @Override
     public String createAccount(CloudflareAccount account) {
@@ -39,17 +42,20 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
     }
 
     private CloudflareAccount createNewAccount(CloudflareAccount account) {
-        String appId = getOrCreateEnrollmentApplication(account);
-        account.setEnrollmentApplicationId(appId);
-
-        String policyId = getOrCreateEnrollmentPolicy(account);
-        account.setEnrollmentPolicyId(policyId);
-        account.setUserNum(0);
-        return repository.save(account);
+        // Both lookups read the account's access apps; the memo makes that a single GET
+        return CloudflareRequestCoalescer.withReadMemo(() -> {
+            String appId = getOrCreateEnrollmentApplication(account);
+            account.setEnrollmentApplicationId(appId);
+
+            String policyId = getOrCreateEnrollmentPolicy(account);
+            account.setEnrollmentPolicyId(policyId);
+            account.setUserNum(0);
+            return repository.save(account);
+        });
     }
 
     public String createEnrollmentApplication(CloudflareAccount account) {
-        String url = BASE_URL + account.getAccountId() + "/access/apps";
+        String url = makeApiCall.buildUrl(ACCESS_APPS_ENDPOINT, account.getAccountId());
         HttpHeaders headers = createHeaders(account.getAuthorizationToken());
 
         Map<String, Object> requestBody = new HashMap<>();
@@ -60,24 +66,20 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
         try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.POST, entity);
-            JsonNode responseBody = new ObjectMapper().readTree(response.getBody());
-            return responseBody.path("result").path("id").asText();
+            return makeApiCall.exchange(url, HttpMethod.POST, entity, AccessApplication.class).result().id();
         } catch (RestClientException e) {
             log.error("Error creating enrollment application", e);
             throw new RuntimeException(env.getProperty("cloudflare-api-exception"), e);
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
         }
     }
 
-    public ResponseEntity<String> getApplications(CloudflareAccount account) {
-        String url = BASE_URL + account.getAccountId() + "/access/apps";
+    public List<AccessApplication> getApplications(CloudflareAccount account) {
+        String url = makeApiCall.buildUrl(ACCESS_APPS_ENDPOINT, account.getAccountId());
         HttpEntity<String> entity = new HttpEntity<>(createHeaders(account.getAuthorizationToken()));
 
         try {
-            return makeApiCall.makeApiCall(url, HttpMethod.GET, entity);
+            List<AccessApplication> applications = makeApiCall.exchange(url, HttpMethod.GET, entity, APPLICATION_LIST).result();
+            return applications != null ? applications : List.of();
         } catch (RestClientException e) {
             log.error("Error fetching applications from Cloudflare API", e);
             throw new RuntimeException(env.getProperty("cloudflare-api-exception"), e);
@@ -85,7 +87,7 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
     }
 
     public String createEnrollmentPolicy(CloudflareAccount account) {
-        String url = BASE_URL + account.getAccountId() + "/access/apps/" + account.getEnrollmentApplicationId() + "/policies";
+        String url = makeApiCall.buildUrl(ACCESS_APPS_ENDPOINT, account.getAccountId()) + "/" + account.getEnrollmentApplicationId() + "/policies";
         HttpHeaders headers = createHeaders(account.getAuthorizationToken());
 
         Map<String, Object> requestBody = buildPolicyRequestBody(account.getEmail());
@@ -93,15 +95,10 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
         try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.POST, entity);
-            JsonNode responseBody = new ObjectMapper().readTree(response.getBody());
-            return responseBody.path("result").path("id").asText();
+            return makeApiCall.exchange(url, HttpMethod.POST, entity, AccessPolicy.class).result().id();
         } catch (RestClientException e) {
             log.error("Error creating enrollment policy", e);
             throw new RuntimeException(env.getProperty("cloudflare-api-exception"), e);
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
         }
     }
 
@@ -114,13 +111,12 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
     }
 
     private String updatePolicyWithEmail(CloudflareAccount account, String email) {
-        String url = BASE_URL + account.getAccountId() + "/access/apps/" +
+        String url = makeApiCall.buildUrl(ACCESS_APPS_ENDPOINT, account.getAccountId()) + "/" +
                 account.getEnrollmentApplicationId() + "/policies/" +
                 account.getEnrollmentPolicyId();
 
         // Get current policy to preserve existing emails
-        JsonNode currentPolicy = getCurrentPolicy(account);
-        JsonNode currentIncludes = currentPolicy.path("result").path("include");
+        AccessPolicy currentPolicy = getCurrentPolicy(account);
 
         HttpHeaders headers = createHeaders(account.getAuthorizationToken());
 
@@ -132,11 +128,11 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
         List<Map<String, Object>> includeList = new ArrayList<>();
 
         // Add existing email conditions
-        if (currentIncludes.isArray()) {
-            for (JsonNode include : currentIncludes) {
-                if (include.has("email")) {
+        if (currentPolicy.include() != null) {
+            for (AccessPolicy.AccessRule include : currentPolicy.include()) {
+                if (include.email() != null) {
                     includeList.add(new HashMap<>(Map.of(
-                            "email", Map.of("email", include.path("email").path("email").asText())
+                            "email", Map.of("email", include.email().email())
                     )));
                 }
             }
@@ -150,8 +146,7 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
         try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.PUT, entity);
-            return response.getBody();
+            return makeApiCall.exchange(url, HttpMethod.PUT, entity, AccessPolicy.class).result().id();
         } catch (RestClientException e) {
             log.error("Error updating Cloudflare policy", e);
             throw new RuntimeException(env.getProperty("cloudflare-update-policy-exception"), e);
@@ -169,47 +164,23 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
     }
 
     private String getWarpApplicationId(CloudflareAccount account) {
-        try {
-            ResponseEntity<String> response = getApplications(account);
-            if (response.getStatusCode() == HttpStatus.OK) {
-                JsonNode responseBody = new ObjectMapper().readTree(response.getBody());
-                for (JsonNode app : responseBody.path("result")) {
-                    if ("warp".equals(app.path("type").asText())) {
-                        return app.path("id").asText();
-                    }
-                }
+        for (AccessApplication app : getApplications(account)) {
+            if ("warp".equals(app.type())) {
+                return app.id();
             }
-        } catch (RestClientException e) {
-            log.error("Error fetching applications from Cloudflare API", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-exception"), e);
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
         }
         return null;
     }
 
     private String getEnrollmentPolicyId(CloudflareAccount account) {
-        try {
-            ResponseEntity<String> response = getApplications(account);
-            if (response.getStatusCode() == HttpStatus.OK) {
-                JsonNode responseBody = new ObjectMapper().readTree(response.getBody());
-                for (JsonNode app : responseBody.path("result")) {
-                    if ("warp".equals(app.path("type").asText())) {
-                        for (JsonNode policy : app.path("policies")) {
-                            if (policy.path("precedence").asInt() == 1) {
-                                return policy.path("id").asText();
-                            }
-                        }
+        for (AccessApplication app : getApplications(account)) {
+            if ("warp".equals(app.type()) && app.policies() != null) {
+                for (AccessPolicy policy : app.policies()) {
+                    if (policy.precedence() != null && policy.precedence() == 1) {
+                        return policy.id();
                     }
                 }
             }
-        } catch (RestClientException e) {
-            log.error("Error fetching applications from Cloudflare API", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-exception"), e);
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
         }
         return null;
     }
@@ -235,17 +206,16 @@ public class CloudflareAccountServiceImpl implements CloudflareAccountService {
         return headers;
     }
 
-    private JsonNode getCurrentPolicy(CloudflareAccount account) {
-        String url = BASE_URL + account.getAccountId() + "/access/apps/" +
+    private AccessPolicy getCurrentPolicy(CloudflareAccount account) {
+        String url = makeApiCall.buildUrl(ACCESS_APPS_ENDPOINT, account.getAccountId()) + "/" +
                 account.getEnrollmentApplicationId() + "/policies/" +
                 account.getEnrollmentPolicyId();
 
         HttpEntity<String> entity = new HttpEntity<>(createHeaders(account.getAuthorizationToken()));
 
         try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.GET, entity);
-            return new ObjectMapper().readTree(response.getBody());
-        } catch (RestClientException | JsonProcessingException e) {
+            return makeApiCall.exchange(url, HttpMethod.GET, entity, AccessPolicy.class).result();
+        } catch (RestClientException | CloudflareApiException e) {
             log.error("Error fetching current policy", e);
             throw new RuntimeException("Failed to fetch current policy", e);
         }
@@ -1,19 +1,21 @@
 package com.kliksigurnost.demo.service.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.kliksigurnost.demo.helper.AsyncApiCall;
+import com.kliksigurnost.demo.helper.CloudflareRateLimiter;
 import com.kliksigurnost.demo.helper.MakeApiCall;
 import com.kliksigurnost.demo.model.CloudflareDevice;
 import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.model.cloudflare.PhysicalDevice;
 import com.kliksigurnost.demo.service.CloudflareDeviceService;
 import com.kliksigurnost.demo.service.CloudflareNotificationService;
 import com.kliksigurnost.demo.service.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.env.Environment;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -28,11 +30,12 @@ public class CloudflareDeviceServiceImpl implements CloudflareDeviceService {
 
     private static final String PHYSICAL_DEVICES_ENDPOINT = "accounts/{account_id}/devices/physical-devices";
     private static final String DELETE_DEVICE_ENDPOINT = "accounts/{account_id}/devices/physical-devices/";
+    private static final TypeReference<List<PhysicalDevice>> PHYSICAL_DEVICE_LIST = new TypeReference<>() {};
 
     private final MakeApiCall makeApiCall;
+    private final AsyncApiCall asyncApiCall;
     private final UserService userService;
     private final CloudflareNotificationService notificationService;
-    private final Environment env;
 
     @Override
     public List<CloudflareDevice> getDevicesByUser() {
@@ -45,38 +48,30 @@ public class CloudflareDeviceServiceImpl implements CloudflareDeviceService {
         HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.GET, entity);
-            Map<String, Object> responseMap = makeApiCall.parseResponseToMap(response.getBody());
-
-            List<Map<String, Object>> devices = (List<Map<String, Object>>) responseMap.get("result");
-            log.info(devices.toString());
+        List<PhysicalDevice> devices = makeApiCall.exchange(url, HttpMethod.GET, entity, PHYSICAL_DEVICE_LIST).result();
+        log.info("Fetched {} devices", devices != null ? devices.size() : 0);
 
-            // Process devices and handle duplicates
-            List<CloudflareDevice> devicesList = processDevices(devices, user);
+        // Process devices and handle duplicates
+        List<CloudflareDevice> devicesList = processDevices(devices, user);
 
-            if (!user.getIsSetUp() && !user.getPolicies().isEmpty() && !devicesList.isEmpty()) {
-                user.setIsSetUp(true);
-                userService.updateUser(user);
-            }
+        if (!user.getIsSetUp() && !user.getPolicies().isEmpty() && !devicesList.isEmpty()) {
+            user.setIsSetUp(true);
+            userService.updateUser(user);
+        }
 
-            notificationService.createNotificationForDevices(devicesList, user);
+        notificationService.createNotificationForDevices(devicesList, user);
 
-            return devicesList;
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
-        }
+        return devicesList;
     }
 
-    private List<CloudflareDevice> processDevices(List<Map<String, Object>> devices, User user) {
+    private List<CloudflareDevice> processDevices(List<PhysicalDevice> devices, User user) {
         if (devices == null || devices.isEmpty()) {
             return Collections.emptyList();
         }
 
         Map<String, CloudflareDevice> uniqueDevices = new HashMap<>();
 
-        for (Map<String, Object> device : devices) {
+        for (PhysicalDevice device : devices) {
             try {
                 CloudflareDevice cfDevice = mapToCloudflareDevice(device);
 
@@ -122,35 +117,38 @@ public class CloudflareDeviceServiceImpl implements CloudflareDeviceService {
         return ZonedDateTime.parse(lastSeen, DateTimeFormatter.ISO_DATE_TIME).toInstant();
     }
 
+    /**
+     * Deletes run concurrently and off the request path; the device list returned to the user doesn't depend
+     * on them.
+     */
     private void deleteDevice(String deviceId, User user) {
-        try {
-            String url = makeApiCall.buildUrl(DELETE_DEVICE_ENDPOINT,
-                    user.getCloudflareAccount().getAccountId()) + deviceId;
-
-            HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
-            HttpEntity<String> entity = new HttpEntity<>(headers);
+        String url = makeApiCall.buildUrl(DELETE_DEVICE_ENDPOINT,
+                user.getCloudflareAccount().getAccountId()) + deviceId;
 
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.DELETE, entity);
+        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        HttpEntity<String> entity = new HttpEntity<>(headers);
 
-            if (response.getStatusCode().is2xxSuccessful()) {
-                log.info("Successfully deleted duplicate/older device: {}", deviceId);
-            } else {
-                log.warn("Failed to delete device: {}. Status: {}", deviceId, response.getStatusCode());
-            }
-        } catch (Exception e) {
-            log.error("Error deleting device: {}", deviceId, e);
-        }
+        // Duplicate cleanup is housekeeping, don't let it compete with interactive calls for the budget
+        CloudflareRateLimiter.runInBackground(() -> asyncApiCall.exchange(url, HttpMethod.DELETE, entity, JsonNode.class))
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        log.error("Error deleting device: {}", deviceId, e);
+                    } else if (response.success()) {
+                        log.info("Successfully deleted duplicate/older device: {}", deviceId);
+                    } else {
+                        log.warn("Failed to delete device: {}. Errors: {}", deviceId, response.errors());
+                    }
+                });
     }
 
-    private CloudflareDevice mapToCloudflareDevice(Map<String, Object> device) {
-        Map<String, Object> userInfo = (Map<String, Object>) device.get("last_seen_user");
+    private CloudflareDevice mapToCloudflareDevice(PhysicalDevice device) {
         return CloudflareDevice.builder()
-                .id((String) device.get("id"))
-                .manufacturer((String) device.get("manufacturer"))
-                .model((String) device.get("model"))
-                .lastSeenTime((String) device.get("last_seen_at"))
-                .serialNumber((String) device.get("serial_number"))
-                .email(userInfo != null ? (String) userInfo.get("email") : null)
+                .id(device.id())
+                .manufacturer(device.manufacturer())
+                .model(device.model())
+                .lastSeenTime(device.lastSeenAt())
+                .serialNumber(device.serialNumber())
+                .email(device.lastSeenUser() != null ? device.lastSeenUser().email() : null)
                 .build();
     }
 }
\ No newline at end of file
@@ -1,29 +1,25 @@
 package com.kliksigurnost.demo.service.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.kliksigurnost.demo.exception.CloudflareApiException;
+import com.kliksigurnost.demo.helper.CloudflareRateLimiter;
+import com.kliksigurnost.demo.helper.LogCursor;
 import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
 import com.kliksigurnost.demo.model.CloudflareAccount;
 import com.kliksigurnost.demo.model.CloudflareLog;
-import com.kliksigurnost.demo.model.CloudflarePolicy;
 import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.model.cloudflare.GatewayResolverQueries;
 import com.kliksigurnost.demo.repository.CloudflareAccountRepository;
-import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
 import com.kliksigurnost.demo.service.CloudflareLogService;
 import com.kliksigurnost.demo.service.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.env.Environment;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 @Slf4j
 @Service
@@ -31,36 +27,109 @@ import java.util.stream.Collectors;
 public class CloudflareLogServiceImpl implements CloudflareLogService {
     private static final String GRAPHQL_ENDPOINT = "graphql";
 
+    static final String GRAPHQL_QUERY = """
+        query GetRecentQueries(
+          $accountId: string!,
+          $datetime_gt: Time!,
+          $datetime_lt: Time,
+          $limit: uint64!,
+          $policyIdsIn: [string],
+          $orderBy: [string!],
+          $datetime_geq: Time,
+          $datetime_leq: Time,
+          $resolverDecision: uint64
+        ) {
+          viewer {
+            accounts(filter: {accountTag: $accountId}) {
+              gatewayResolverQueriesAdaptiveGroups(
+                filter: {
+                  datetime_gt: $datetime_gt,
+                  datetime_lt: $datetime_lt,
+                  policyId_in: $policyIdsIn,
+                  datetime_geq: $datetime_geq,
+                  datetime_leq: $datetime_leq,
+                  resolverDecision: $resolverDecision
+                }
+                limit: $limit
+                orderBy: $orderBy
+              ) {
+                count
+                dimensions {
+                  categoryNames
+                  datetime
+                  matchedApplicationName
+                  policyId
+                  policyName
+                  queryName
+                  resolverDecision
+                }
+              }
+            }
+          }
+        }""";
+
     private final MakeApiCall makeApiCall;
 
-    private final CloudflarePolicyRepository policyRepository;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final GatewayLogStore gatewayLogStore;
+    private final LogPagePrefetcher logPagePrefetcher;
+    private final LogQueryCache logQueryCache;
     private final UserService userService;
     private final CloudflareAccountRepository accountRepository;
-    private final Environment env;
+
+    @Value("${cloudflare.logs.export.page-size:1000}")
+    private int exportPageSize;
 
     @Override
     public List<CloudflareLog> getLogsForUser(
             String startDateTime,
             String endDateTime,
             List<String> orderBy,
+            String cursor,
             String lastDateTime,
             String lastPolicyId,
             int pageSize,
             int resolverDecision
     ) {
+        boolean ascending = isAscending(orderBy);
+        Instant start = parseInstant(startDateTime);
+        Instant end = parseInstant(endDateTime);
+        LogCursor after = cursor != null ? LogCursor.decode(cursor) : LogCursor.legacy(lastDateTime, lastPolicyId);
+
         User user = userService.getCurrentUser();
-        List<String> policyIds = policyRepository.findByUser(user).stream()
-                .map(CloudflarePolicy::getId)
-                .collect(Collectors.toList());
-
-        String url = makeApiCall.buildUrl(GRAPHQL_ENDPOINT, user.getCloudflareAccount().getAccountId());
-        String query = buildGraphQLQuery();
-        Map<String, Object> variables = buildGraphQLVariables(
-                user.getCloudflareAccount().getAccountId(), startDateTime, endDateTime, policyIds,
-                orderBy, lastDateTime, lastPolicyId, pageSize, resolverDecision
-        );
-        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
-        return getCloudflareLogs(url, query, variables, headers);
+        CloudflareAccount account = user.getCloudflareAccount();
+        List<String> policyIds = policySnapshotCache.policyIds(user);
+        LogPagePrefetcher.PageKey key = new LogPagePrefetcher.PageKey(user.getId(), policyIds, startDateTime,
+                endDateTime, ascending, pageSize, resolverDecision, after);
+
+        List<CloudflareLog> page = logPagePrefetcher.take(key).orElseGet(() -> fetchPage(account, policyIds, start,
+                end, ascending, after, pageSize, resolverDecision));
+
+        // A full page likely has a next one, which the user will probably ask for
+        if (!page.isEmpty() && page.size() == pageSize) {
+            LogCursor next = LogCursor.decode(page.get(page.size() - 1).getCursor());
+            logPagePrefetcher.prefetch(new LogPagePrefetcher.PageKey(user.getId(), policyIds, startDateTime,
+                            endDateTime, ascending, pageSize, resolverDecision, next),
+                    () -> fetchPage(account, policyIds, start, end, ascending, next, pageSize, resolverDecision));
+        }
+        return page;
+    }
+
+    private List<CloudflareLog> fetchPage(CloudflareAccount account, List<String> policyIds, Instant start,
+                                          Instant end, boolean ascending, LogCursor after, int pageSize,
+                                          int resolverDecision) {
+        // Served from the ingested copy when it covers the window; GraphQL only for windows it doesn't hold yet
+        Optional<List<CloudflareLog>> stored = gatewayLogStore.findPage(account.getAccountId(), policyIds, start,
+                end, ascending, after, pageSize, resolverDecision);
+        if (stored.isPresent()) {
+            return stored.get();
+        }
+        if (policyIds.isEmpty()) {
+            // Without a policy filter GraphQL would return the whole account's logs
+            return List.of();
+        }
+        return queryPage(account.getAccountId(), account.getAuthorizationToken(), policyIds, start, end, ascending,
+                after, pageSize, resolverDecision, true);
     }
 
     @Override
@@ -74,121 +143,197 @@ public class CloudflareLogServiceImpl implements CloudflareLogService {
             int pageSize,
             int resolverDecision
     ) {
-        String url = makeApiCall.buildUrl(GRAPHQL_ENDPOINT, accountId);
-        String query = buildGraphQLQuery();
-        Map<String, Object> variables = buildGraphQLVariables(
-                accountId, startDateTime, endDateTime,
-                Collections.emptyList(), orderBy, lastDateTime, lastPolicyId, pageSize, resolverDecision
-        );
-
         CloudflareAccount acc = accountRepository.findById(accountId).orElseThrow();
-        HttpHeaders headers = makeApiCall.createHeaders(acc.getAuthorizationToken());
-        return getCloudflareLogs(url, query, variables, headers);
+        return queryPage(accountId, acc.getAuthorizationToken(), List.of(), parseInstant(startDateTime),
+                parseInstant(endDateTime), isAscending(orderBy), LogCursor.legacy(lastDateTime, lastPolicyId),
+                pageSize, resolverDecision, true);
     }
 
-    private List<CloudflareLog> getCloudflareLogs(String url, String query, Map<String, Object> variables, HttpHeaders headers) {
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(Map.of("query", query, "variables", variables), headers);
+    @Override
+    public Iterable<List<CloudflareLog>> exportLogsForUser(String startDateTime, String endDateTime,
+                                                           int resolverDecision) {
+        Instant start = parseInstant(startDateTime);
+        Instant end = parseInstant(endDateTime);
+        User user = userService.getCurrentUser();
+        CloudflareAccount account = user.getCloudflareAccount();
+        List<String> policyIds = policySnapshotCache.policyIds(user);
 
-        try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.POST, entity);
-            JsonNode responseBody = makeApiCall.parseResponse(response.getBody());
+        return pages(after -> {
+            Optional<List<CloudflareLog>> stored = gatewayLogStore.findPage(account.getAccountId(), policyIds, start,
+                    end, true, after, exportPageSize, resolverDecision);
+            if (stored.isPresent() || policyIds.isEmpty()) {
+                return stored.orElse(List.of());
+            }
+            return queryPage(account.getAccountId(), account.getAuthorizationToken(), policyIds, start, end, true,
+                    after, exportPageSize, resolverDecision, false);
+        });
+    }
+
+    @Override
+    public Iterable<List<CloudflareLog>> exportLogsForAccount(String accountId, String startDateTime,
+                                                              String endDateTime, int resolverDecision) {
+        Instant start = parseInstant(startDateTime);
+        Instant end = parseInstant(endDateTime);
+        CloudflareAccount account = accountRepository.findById(accountId).orElseThrow();
+
+        // The local store is indexed by policy, so account-wide exports read GraphQL
+        return pages(after -> queryPage(accountId, account.getAuthorizationToken(), List.of(), start, end, true,
+                after, exportPageSize, resolverDecision, false));
+    }
+
+    /**
+     * Pages of {@code exportPageSize} rows, each fetched by {@code fetch} from the previous page's last cursor
+     * when the iteration reaches it, at background priority so exports yield to interactive calls.
+     */
+    private Iterable<List<CloudflareLog>> pages(Function<LogCursor, List<CloudflareLog>> fetch) {
+        return () -> new Iterator<>() {
+            private LogCursor after;
+            private List<CloudflareLog> next;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !exhausted) {
+                    List<CloudflareLog> page = CloudflareRateLimiter.runInBackground(() -> fetch.apply(after));
+                    // A short page is the last one
+                    exhausted = page.size() < exportPageSize;
+                    if (!page.isEmpty()) {
+                        after = LogCursor.decode(page.get(page.size() - 1).getCursor());
+                        next = page;
+                    }
+                }
+                return next != null;
+            }
 
-            JsonNode logs = responseBody.path("data").path("viewer").path("accounts").get(0)
-                    .path("gatewayResolverQueriesAdaptiveGroups");
+            @Override
+            public List<CloudflareLog> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<CloudflareLog> page = next;
+                next = null;
+                return page;
+            }
+        };
+    }
 
-            return mapLogsToCloudflareLogs(logs);
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
+    /**
+     * One GraphQL page past {@code after}, ordered by {@code (datetime, policyId, queryName)}. GraphQL rows have no
+     * ID, so a cursor names its row's position within its second; the next query starts at that second and skips
+     * up to it. A cursor without one (legacy or from the local store) continues at the next second. Unless
+     * {@code cached}, the query bypasses {@link LogQueryCache}, as exports would only flush it.
+     */
+    private List<CloudflareLog> queryPage(String accountId, String token, List<String> policyIds, Instant start,
+                                          Instant end, boolean ascending, LogCursor after, int pageSize,
+                                          int resolverDecision, boolean cached) {
+        Instant geq = null;
+        Instant leq = null;
+        long skip = 0;
+        if (after != null && after.hasOrdinal()) {
+            geq = ascending ? after.datetime() : null;
+            leq = ascending ? null : after.datetime();
+            skip = after.tiebreak() + 1;
+        } else if (after != null && ascending) {
+            start = after.datetime().isAfter(start) ? after.datetime() : start;
+        } else if (after != null) {
+            end = after.datetime().isBefore(end) ? after.datetime() : end;
         }
+
+        LogQueryCache.Query query = new LogQueryCache.Query(accountId, start, end, geq, leq, policyIds,
+                resolverDecision, ascending, pageSize + skip);
+        List<GatewayResolverQueries.Group> groups = cached
+                ? logQueryCache.groups(query, q -> runQuery(token, q))
+                : runQuery(token, query);
+        return mapLogsToCloudflareLogs(groups, after, pageSize);
     }
 
-    private List<CloudflareLog> mapLogsToCloudflareLogs(JsonNode logs) {
-        ObjectMapper objectMapper = new ObjectMapper();
-        List<CloudflareLog> cloudflareLogs = new ArrayList<>();
+    private List<GatewayResolverQueries.Group> runQuery(String token, LogQueryCache.Query query) {
+        String direction = query.ascending() ? "_ASC" : "_DESC";
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("accountId", query.accountId());
+        variables.put("datetime_gt", query.start().toString());
+        variables.put("datetime_lt", query.end().toString());
+        if (query.geq() != null) {
+            variables.put("datetime_geq", query.geq().toString());
+        }
+        if (query.leq() != null) {
+            variables.put("datetime_leq", query.leq().toString());
+        }
+        if (!query.policyIds().isEmpty()) {
+            variables.put("policyIdsIn", query.policyIds());
+        }
+        variables.put("orderBy", List.of("datetime" + direction, "policyId" + direction, "queryName" + direction));
+        if (query.resolverDecision() != 0) {
+            variables.put("resolverDecision", query.resolverDecision());
+        }
+        variables.put("limit", query.limit());
+
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(Map.of("query", GRAPHQL_QUERY, "variables", variables),
+                makeApiCall.createHeaders(token));
+        GatewayResolverQueries data = makeApiCall.graphql(makeApiCall.buildUrl(GRAPHQL_ENDPOINT, query.accountId()),
+                query.accountId(), entity, GatewayResolverQueries.class);
+        return data != null ? data.groups() : List.of();
+    }
+
+    /**
+     * Maps up to {@code pageSize} groups, dropping those at or before an ordinal cursor's position.
+     */
+    static List<CloudflareLog> mapLogsToCloudflareLogs(List<GatewayResolverQueries.Group> logs, LogCursor after,
+                                                       int pageSize) {
+        List<CloudflareLog> cloudflareLogs = new ArrayList<>(Math.min(logs.size(), pageSize));
+        Instant second = null;
+        long ordinal = 0;
 
-        logs.forEach(logNode -> {
+        for (GatewayResolverQueries.Group group : logs) {
+            GatewayResolverQueries.Dimensions dimensions = group.dimensions();
+            Instant datetime = Instant.parse(dimensions.datetime());
+            ordinal = datetime.equals(second) ? ordinal + 1 : 0;
+            second = datetime;
+            if (after != null && after.hasOrdinal() && datetime.equals(after.datetime())
+                    && ordinal <= after.tiebreak()) {
+                continue;
+            }
             CloudflareLog cloudflareLog = CloudflareLog.builder()
-                    .categoryNames(objectMapper.convertValue(logNode.path("dimensions").path("categoryNames"), String[].class))
-                    .datetime(logNode.path("dimensions").path("datetime").asText())
-                    .matchedApplicationName(logNode.path("dimensions").path("matchedApplicationName").asText())
-                    .policyId(logNode.path("dimensions").path("policyId").asText())
-                    .policyName(logNode.path("dimensions").path("policyName").asText())
-                    .queryName(logNode.path("dimensions").path("queryName").asText())
-                    .resolverDecision(logNode.path("dimensions").path("resolverDecision").asInt())
+                    .categoryNames(dimensions.categoryNames())
+                    .datetime(dimensions.datetime())
+                    .matchedApplicationName(dimensions.matchedApplicationName())
+                    .policyId(dimensions.policyId())
+                    .policyName(dimensions.policyName())
+                    .queryName(dimensions.queryName())
+                    .resolverDecision(dimensions.resolverDecision())
+                    .count(group.count())
+                    .cursor(LogCursor.graphql(datetime, dimensions.policyId(),
+                            Objects.toString(dimensions.queryName(), ""), ordinal).encode())
                     .build();
 
             cloudflareLogs.add(cloudflareLog);
-        });
+            if (cloudflareLogs.size() == pageSize) {
+                break;
+            }
+        }
 
         return cloudflareLogs;
     }
 
-    private String buildGraphQLQuery() {
-        return """
-            query GetRecentQueries(
-              $accountId: string!,
-              $datetime_gt: Time!,
-              $datetime_lt: Time,
-              $limit: uint64!,
-              $policyIdsIn: [string],
-              $orderBy: [string!],
-              $datetime_geq: Time,
-              $resolverDecision: uint64
-            ) {
-              viewer {
-                accounts(filter: {accountTag: $accountId}) {
-                  gatewayResolverQueriesAdaptiveGroups(
-                    filter: {
-                      datetime_gt: $datetime_gt,
-                      datetime_lt: $datetime_lt,
-                      policyId_in: $policyIdsIn,
-                      datetime_geq: $datetime_geq,
-                      resolverDecision: $resolverDecision
-                    }
-                    limit: $limit
-                    orderBy: $orderBy
-                  ) {
-                    count
-                    dimensions {
-                      categoryNames
-                      datetime
-                      matchedApplicationName
-                      policyId
-                      policyName
-                      queryName
-                      resolverDecision
-                    }
-                  }
-                }
-              }
-            }""";
-    }
-
-    private Map<String, Object> buildGraphQLVariables(
-            String accountId, String start, String end,
-            List<String> policyIds, List<String> orderBy,
-            String lastDateTime, String lastPolicyId,
-            int limit, int resolverDecision
-    ) {
-        Map<String, Object> variables = new HashMap<>();
-        variables.put("accountId", accountId);
-        variables.put("datetime_gt", start);
-        variables.put("datetime_lt", end);
-        variables.put("limit", limit);
-        if (!policyIds.isEmpty()) {
-            variables.put("policyIdsIn", policyIds);
-        }
-        variables.put("orderBy", orderBy);
-        if (resolverDecision != 0) {
-            variables.put("resolverDecision", resolverDecision);
+    /**
+     * @throws IllegalArgumentException unless {@code orderBy} is {@code datetime_ASC} or {@code datetime_DESC},
+     *                                  the only orders a cursor can continue
+     */
+    private static boolean isAscending(List<String> orderBy) {
+        if (orderBy.size() == 1 && orderBy.get(0).equals("datetime_ASC")) {
+            return true;
         }
-        // Handle pagination based on direction
-        if (lastDateTime != null && lastPolicyId != null) {
-            // Fetch logs after the last log of the current page
-            variables.put("datetime_lt", lastDateTime);
+        if (orderBy.size() == 1 && orderBy.get(0).equals("datetime_DESC")) {
+            return false;
         }
+        throw new IllegalArgumentException("Unsupported log order: " + orderBy);
+    }
 
-        return variables;
+    private static Instant parseInstant(String value) {
+        try {
+            return Instant.parse(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed timestamp: " + value, e);
+        }
     }
 }
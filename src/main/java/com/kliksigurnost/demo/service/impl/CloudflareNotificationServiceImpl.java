@@ -1,7 +1,9 @@
 package com.kliksigurnost.demo.service.impl;
 
+import com.kliksigurnost.demo.exception.CloudflareApiException;
 import com.kliksigurnost.demo.exception.NotificationNotFoundException;
 import com.kliksigurnost.demo.exception.UnauthorizedAccessException;
+import com.kliksigurnost.demo.helper.CloudflareRateLimiter;
 import com.kliksigurnost.demo.model.*;
 import com.kliksigurnost.demo.repository.CloudflareAccountRepository;
 import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
@@ -31,13 +33,21 @@ public class CloudflareNotificationServiceImpl implements CloudflareNotification
     private final CloudflarePolicyRepository policyRepository;
     private final NotificationRepository notificationRepository;
     private final CloudflareAccountRepository accRepository;
+    private final GatewayLogStore gatewayLogStore;
 
     private final Environment env;
 
+    // Last gateway log row checked for blocked content, -1 until the first check
+    private long lastNotifiedLogId = -1;
+
     @Override
     @Scheduled(fixedRate = 300000)
     public void checkBlockedContent() {
         log.info("Checking for blocked content...");
+        if (gatewayLogStore.isEnabled()) {
+            checkIngestedBlockedContent();
+            return;
+        }
 
         Instant endTime = Instant.now();
         Instant startTime = endTime.minus(5, ChronoUnit.MINUTES);
@@ -47,42 +57,70 @@ public class CloudflareNotificationServiceImpl implements CloudflareNotification
         for (String accountId : accountIds) {
             log.info("Fetching logs for account: {}", accountId);
 
-            List<CloudflareLog> logs = cloudflareLogService.getLogsForAccount(
-                    accountId,
-                    startTime.toString(),
-                    endTime.toString(),
-                    List.of("datetime_DESC"),
-                    accountId,
-                    null,
-                    1000,
-                    9
-            );
-
-            logs.forEach(clog -> {
-                if (clog.getResolverDecision() == 9) {
-                    CloudflarePolicy policy = policyRepository.findById(clog.getPolicyId())
-                            .orElse(null);
-
-                    if (policy != null) {
-                        User user = policy.getUser();
-                        String notificationMessage = String.format(
-                                "Pokušaj pristupa zabranjenom sadržaju (pravilo: %s: %s)",
-                                policy.getName(),
-                                clog.getQueryName()
-                        );
-
-                        Notification notification = Notification.builder()
-                                .isSeen(false)
-                                .message(notificationMessage)
-                                .user(user)
-                                .type(NotificationType.LOG)
-                                .timestamp(Instant.parse(clog.getDatetime())).build();
-
-                        log.info("Saving notification: {}", notificationMessage);
-                        notificationRepository.save(notification);
-                    }
-                }
-            });
+            List<CloudflareLog> logs;
+            try {
+                // Scheduler traffic yields to interactive requests when the account's Cloudflare budget runs low
+                logs = CloudflareRateLimiter.runInBackground(() -> cloudflareLogService.getLogsForAccount(
+                        accountId,
+                        startTime.toString(),
+                        endTime.toString(),
+                        List.of("datetime_DESC"),
+                        accountId,
+                        null,
+                        1000,
+                        9
+                ));
+            } catch (CloudflareApiException e) {
+                // One unhealthy account must not stop the check for the others
+                log.warn("Skipping blocked content check for account {}: {}", accountId, e.getMessage());
+                continue;
+            }
+
+            logs.forEach(this::notifyBlocked);
+        }
+    }
+
+    /**
+     * Notifies about the blocked queries ingested since the previous check, so each is notified exactly once. The
+     * first check after startup starts after what is already stored.
+     */
+    private void checkIngestedBlockedContent() {
+        if (lastNotifiedLogId < 0) {
+            lastNotifiedLogId = gatewayLogStore.lastId();
+        }
+        List<GatewayLogEntry> blocked;
+        do {
+            blocked = gatewayLogStore.blockedAfter(lastNotifiedLogId);
+            for (GatewayLogEntry entry : blocked) {
+                notifyBlocked(entry.toLog());
+                lastNotifiedLogId = entry.getId();
+            }
+        } while (blocked.size() == 1000);
+    }
+
+    private void notifyBlocked(CloudflareLog clog) {
+        if (clog.getResolverDecision() == 9) {
+            CloudflarePolicy policy = policyRepository.findById(clog.getPolicyId())
+                    .orElse(null);
+
+            if (policy != null) {
+                User user = policy.getUser();
+                String notificationMessage = String.format(
+                        "Pokušaj pristupa zabranjenom sadržaju (pravilo: %s: %s)",
+                        policy.getName(),
+                        clog.getQueryName()
+                );
+
+                Notification notification = Notification.builder()
+                        .isSeen(false)
+                        .message(notificationMessage)
+                        .user(user)
+                        .type(NotificationType.LOG)
+                        .timestamp(Instant.parse(clog.getDatetime())).build();
+
+                log.info("Saving notification: {}", notificationMessage);
+                notificationRepository.save(notification);
+            }
         }
     }
 
@@ -1,28 +1,41 @@
 package com.kliksigurnost.demo.service.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.kliksigurnost.demo.exception.CloudflareApiException;
 import com.kliksigurnost.demo.exception.LimitReached;
 import com.kliksigurnost.demo.exception.NotFoundException;
 import com.kliksigurnost.demo.exception.UnauthorizedAccessException;
+import com.kliksigurnost.demo.helper.AllowAllTrafficIndex;
+import com.kliksigurnost.demo.helper.AsyncApiCall;
 import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
+import com.kliksigurnost.demo.helper.ScheduleCompiler;
+import com.kliksigurnost.demo.helper.ScheduleIndex;
+import com.kliksigurnost.demo.helper.TrafficExpressionCompiler;
+import com.kliksigurnost.demo.helper.UserMutationLocks;
 import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.PolicyBatchOperation;
+import com.kliksigurnost.demo.model.PolicyBatchResult;
 import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import com.kliksigurnost.demo.model.cloudflare.GatewayRule;
 import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
 import com.kliksigurnost.demo.service.CloudflarePolicyService;
 import com.kliksigurnost.demo.service.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
 
 @Slf4j
 @Service
@@ -31,30 +44,44 @@ public class CloudflarePolicyServiceImpl implements CloudflarePolicyService {
     private static final String GATEWAY_RULES_ENDPOINT = "accounts/{account_id}/gateway/rules";
 
     private final MakeApiCall makeApiCall;
+    private final AsyncApiCall asyncApiCall;
 
     private final CloudflarePolicyRepository policyRepository;
     private final UserService userService;
+    private final AllowAllTrafficIndex allowAllTrafficIndex;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final AllowAllPolicySync allowAllPolicySync;
+    private final GatewayRuleMirror gatewayRuleMirror;
+    private final GatewayDomainLists gatewayDomainLists;
+    private final UserMutationLocks userMutationLocks;
 
     private final Environment env;
 
+    @Value("${cloudflare.policies.batch.max-size:20}")
+    private int maxBatchSize;
+
+    @Value("${cloudflare.policies.batch.parallelism:4}")
+    private int batchParallelism;
+
     @Override
     public String createPolicy(CloudflarePolicy policy) {
         User currentUser = userService.getCurrentUser();
-        if (policyRepository.countByUser(currentUser) >= 10) {
-            throw new LimitReached(env.getProperty("policy-limit-exceeded"));
-        }
-        return createPolicy(policy, currentUser);
+        return userMutationLocks.call(currentUser, () -> {
+            if (policySnapshotCache.count(currentUser) >= 10) {
+                throw new LimitReached(env.getProperty("policy-limit-exceeded"));
+            }
+            return createPolicy(policy, currentUser);
+        });
     }
 
     @Override
     public String createPolicy(CloudflarePolicy policy, User user) {
-        policy.setUser(user);
+        return userMutationLocks.call(user, () -> createLocked(policy, user));
+    }
 
+    private String createLocked(CloudflarePolicy policy, User user) {
+        prepareNewPolicy(policy, user);
         var account = user.getCloudflareAccount();
-        policy.setCloudflareAccId(account.getAccountId());
-
-        String policyName = generatePolicyName(user);
-        policy.setName(policyName);
 
         String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, account.getAccountId());
 
@@ -63,26 +90,22 @@ public class CloudflarePolicyServiceImpl implements CloudflarePolicyService {
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
-        try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.POST, entity);
-            JsonNode responseBody = makeApiCall.parseResponse(response.getBody());
+        MakeApiCall.RawResponse<GatewayRule> response = makeApiCall.exchangeRaw(url, HttpMethod.POST, entity,
+                GatewayRule.class);
 
-            String policyId = responseBody.path("result").path("id").asText();
-            policy.setId(policyId);
-            policyRepository.save(policy);
+        recordCreated(policy, user, response.envelope().result());
+        allowAllPolicySync.markDirty(user);
 
-            updateAllowAllPolicy(user);
-
-            return response.getBody();
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
-        }
+        return response.body();
     }
 
     @Override
     public void deletePolicy(String policyId) {
         User user = userService.getCurrentUser();
+        userMutationLocks.run(user, () -> deleteLocked(policyId, user));
+    }
+
+    private void deleteLocked(String policyId, User user) {
         CloudflarePolicy policy = policyRepository.findById(policyId)
                 .orElseThrow(() -> new NotFoundException(env.getProperty("policy-not-found")));
 
@@ -96,28 +119,26 @@ public class CloudflarePolicyServiceImpl implements CloudflarePolicyService {
         HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.DELETE, entity);
-            JsonNode responseBody = makeApiCall.parseResponse(response.getBody());
+        CloudflareResponse<GatewayRule> response = makeApiCall.exchange(url, HttpMethod.DELETE, entity, GatewayRule.class);
 
-            if (responseBody.path("success").asBoolean()) {
-                policyRepository.delete(policy);
+        if (response.success()) {
+            recordDeleted(policy, user);
 
-                // Update the "allow-all" policy
-                updateAllowAllPolicy(user);
-            } else {
-                log.error("Failed to delete policy from Cloudflare API: {}", responseBody);
-                throw new CloudflareApiException(env.getProperty("policy-delete-fail"));
-            }
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
+            // Update the "allow-all" policy
+            allowAllPolicySync.markDirty(user);
+        } else {
+            log.error("Failed to delete policy from Cloudflare API: {}", response);
+            throw new CloudflareApiException(env.getProperty("policy-delete-fail"));
         }
     }
 
     @Override
     public void updatePolicy(String policyId, CloudflarePolicy updatedPolicy) {
         User user = userService.getCurrentUser();
+        userMutationLocks.run(user, () -> updateLocked(policyId, updatedPolicy, user));
+    }
+
+    private void updateLocked(String policyId, CloudflarePolicy updatedPolicy, User user) {
         CloudflarePolicy existingPolicy = policyRepository.findById(policyId)
                 .orElseThrow(() -> new NotFoundException(env.getProperty("policy-not-found")));
 
@@ -129,48 +150,220 @@ public class CloudflarePolicyServiceImpl implements CloudflarePolicyService {
         String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, accountId) + "/" + policyId;
 
         HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        // The user is never part of the request body (@JsonBackReference), but the rule's identity needs it
+        updatedPolicy.setUser(user);
         Map<String, Object> requestBody = buildPolicyRequestBody(updatedPolicy);
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
-        try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.PUT, entity);
-            JsonNode responseBody = makeApiCall.parseResponse(response.getBody());
+        CloudflareResponse<GatewayRule> response = makeApiCall.exchange(url, HttpMethod.PUT, entity, GatewayRule.class);
+
+        if (response.success()) {
+            recordUpdated(existingPolicy, updatedPolicy, user, response.result());
+
+            // Update the "allow-all" policy
+            allowAllPolicySync.markDirty(user);
+        } else {
+            log.error("Failed to update policy in Cloudflare API: {}", response);
+            throw new CloudflareApiException(env.getProperty("policy-update-fail"));
+        }
+    }
 
-            if (responseBody.path("success").asBoolean()) {
-                existingPolicy.setAction(updatedPolicy.getAction());
-                existingPolicy.setName(updatedPolicy.getName());
-                existingPolicy.setTraffic(updatedPolicy.getTraffic());
-                existingPolicy.setSchedule(updatedPolicy.getSchedule());
+    /**
+     * Validates the whole batch first: unknown or foreign policies and malformed items fail individually, while
+     * the policy limit applies to the batch as a unit. The Cloudflare calls then run concurrently, at most
+     * {@code cloudflare.policies.batch.parallelism} at a time, and the allow-all rule is marked dirty once.
+     */
+    @Override
+    public List<PolicyBatchResult> applyBatch(List<PolicyBatchOperation> operations) {
+        if (operations == null || operations.isEmpty() || operations.size() > maxBatchSize) {
+            throw new IllegalArgumentException(env.getProperty("policy-batch-size"));
+        }
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user, () -> applyBatchLocked(operations, user));
+    }
 
-                policyRepository.save(existingPolicy);
+    private List<PolicyBatchResult> applyBatchLocked(List<PolicyBatchOperation> operations, User user) {
+        Map<String, CloudflarePolicy> ownPolicies = new HashMap<>();
+        for (CloudflarePolicy policy : policySnapshotCache.policies(user)) {
+            ownPolicies.put(policy.getId(), policy);
+        }
 
-                // Update the "allow-all" policy
-                updateAllowAllPolicy(user);
+        PolicyBatchResult[] results = new PolicyBatchResult[operations.size()];
+        Set<String> targeted = new HashSet<>();
+        int creates = 0;
+        int deletes = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            PolicyBatchOperation operation = operations.get(i);
+            PolicyBatchOperation.Type type = operation.getType();
+            String policyId = operation.getPolicyId();
+            if (type == null || type != PolicyBatchOperation.Type.DELETE && operation.getPolicy() == null) {
+                results[i] = batchResult(i, operation, policyId, HttpStatus.BAD_REQUEST, "policy-batch-invalid");
+            } else if (type != PolicyBatchOperation.Type.CREATE) {
+                CloudflarePolicy existing = policyId != null ? ownPolicies.get(policyId) : null;
+                if (existing == null && (policyId == null || !policyRepository.existsById(policyId))) {
+                    results[i] = batchResult(i, operation, policyId, HttpStatus.NOT_FOUND, "policy-not-found");
+                } else if (existing == null || existing.isAllowAll()) {
+                    results[i] = batchResult(i, operation, policyId, HttpStatus.FORBIDDEN,
+                            type == PolicyBatchOperation.Type.DELETE ? "policy-unauthorized-delete" : "policy-unauthorized-update");
+                } else if (!targeted.add(policyId)) {
+                    results[i] = batchResult(i, operation, policyId, HttpStatus.BAD_REQUEST, "policy-batch-invalid");
+                } else if (type == PolicyBatchOperation.Type.DELETE) {
+                    deletes++;
+                }
             } else {
-                log.error("Failed to update policy in Cloudflare API: {}", responseBody);
-                throw new CloudflareApiException(env.getProperty("policy-update-fail"));
+                creates++;
             }
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
+        }
+        if (ownPolicies.size() + creates - deletes > 10) {
+            throw new LimitReached(env.getProperty("policy-limit-exceeded"));
+        }
+
+        String accountId = user.getCloudflareAccount().getAccountId();
+        String rulesUrl = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, accountId);
+        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        Semaphore slots = new Semaphore(batchParallelism);
+        List<CompletableFuture<CloudflareResponse<GatewayRule>>> calls = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            if (results[i] != null) {
+                calls.add(null);
+                continue;
+            }
+            PolicyBatchOperation operation = operations.get(i);
+            HttpEntity<?> entity;
+            String url = rulesUrl;
+            HttpMethod method;
+            switch (operation.getType()) {
+                case CREATE -> {
+                    prepareNewPolicy(operation.getPolicy(), user);
+                    entity = new HttpEntity<>(buildPolicyRequestBody(operation.getPolicy()), headers);
+                    method = HttpMethod.POST;
+                }
+                case UPDATE -> {
+                    operation.getPolicy().setUser(user);
+                    entity = new HttpEntity<>(buildPolicyRequestBody(operation.getPolicy()), headers);
+                    url += "/" + operation.getPolicyId();
+                    method = HttpMethod.PUT;
+                }
+                default -> {
+                    entity = new HttpEntity<>(headers);
+                    url += "/" + operation.getPolicyId();
+                    method = HttpMethod.DELETE;
+                }
+            }
+            slots.acquireUninterruptibly();
+            CompletableFuture<CloudflareResponse<GatewayRule>> call;
+            try {
+                call = asyncApiCall.exchange(url, method, entity, GatewayRule.class);
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            calls.add(call.whenComplete((response, e) -> slots.release()));
+        }
+
+        // Local writes stay on the request thread, in request order
+        boolean changed = false;
+        for (int i = 0; i < operations.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            PolicyBatchOperation operation = operations.get(i);
+            try {
+                CloudflareResponse<GatewayRule> response = join(calls.get(i));
+                if (!response.success()) {
+                    log.error("Batch {} of policy {} failed in Cloudflare API: {}", operation.getType(), operation.getPolicyId(), response);
+                    results[i] = batchResult(i, operation, operation.getPolicyId(), HttpStatus.INTERNAL_SERVER_ERROR,
+                            switch (operation.getType()) {
+                                case CREATE -> "policy-create-fail";
+                                case UPDATE -> "policy-update-fail";
+                                case DELETE -> "policy-delete-fail";
+                            });
+                    continue;
+                }
+                String policyId = operation.getPolicyId();
+                switch (operation.getType()) {
+                    case CREATE -> {
+                        recordCreated(operation.getPolicy(), user, response.result());
+                        policyId = operation.getPolicy().getId();
+                    }
+                    case UPDATE -> recordUpdated(ownPolicies.get(policyId), operation.getPolicy(), user, response.result());
+                    case DELETE -> recordDeleted(ownPolicies.get(policyId), user);
+                }
+                changed = true;
+                results[i] = PolicyBatchResult.builder()
+                        .index(i)
+                        .type(operation.getType())
+                        .policyId(policyId)
+                        .status(HttpStatus.OK.value())
+                        .build();
+            } catch (RuntimeException e) {
+                log.error("Batch {} of policy {} failed: {}", operation.getType(), operation.getPolicyId(), e.getMessage());
+                results[i] = PolicyBatchResult.builder()
+                        .index(i)
+                        .type(operation.getType())
+                        .policyId(operation.getPolicyId())
+                        .status(HttpStatus.INTERNAL_SERVER_ERROR.value())
+                        .message(e.getMessage())
+                        .build();
+            }
+        }
+
+        if (changed) {
+            allowAllPolicySync.markDirty(user);
+        }
+        return List.of(results);
+    }
+
+    private PolicyBatchResult batchResult(int index, PolicyBatchOperation operation, String policyId,
+                                          HttpStatus status, String messageKey) {
+        return PolicyBatchResult.builder()
+                .index(index)
+                .type(operation.getType())
+                .policyId(policyId)
+                .status(status.value())
+                .message(env.getProperty(messageKey))
+                .build();
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
         }
     }
 
     @Override
     public List<CloudflarePolicy> getPoliciesByUser(Integer userId) {
         User user = userService.getById(userId);
-        return policyRepository.findByUser(user);
+        return withScheduleState(policySnapshotCache.policies(user));
     }
 
     @Override
     public List<CloudflarePolicy> getPoliciesByUser() {
-        return policyRepository.findByUser(userService.getCurrentUser());
+        return withScheduleState(policySnapshotCache.policies(userService.getCurrentUser()));
     }
 
     @Override
     public List<CloudflarePolicy> getAllPolicies() {
-        return policyRepository.findAll();
+        return withScheduleState(policyRepository.findAll());
+    }
+
+    /**
+     * Fills in whether each policy's schedule has it in force right now and when that next changes, all as of
+     * the same instant.
+     */
+    private static List<CloudflarePolicy> withScheduleState(List<CloudflarePolicy> policies) {
+        Instant now = Instant.now();
+        for (CloudflarePolicy policy : policies) {
+            ScheduleIndex schedule = ScheduleCompiler.compiled(policy);
+            policy.setActive(schedule.isActiveAt(now));
+            policy.setNextTransition(schedule.nextTransition(now));
+        }
+        return policies;
     }
 
     @Override
@@ -185,14 +378,60 @@ public class CloudflarePolicyServiceImpl implements CloudflarePolicyService {
         return createPolicy(policy, user);
     }
 
+    @Override
+    public void flushAllowAllPolicy() {
+        allowAllPolicySync.flush(userService.getCurrentUser());
+    }
+
     // Helper Methods
-    private String generatePolicyName(User user) {
+    private void prepareNewPolicy(CloudflarePolicy policy, User user) {
+        policy.setUser(user);
+        policy.setCloudflareAccId(user.getCloudflareAccount().getAccountId());
+        policy.setName(generatePolicyName(user));
+    }
+
+    /**
+     * Local bookkeeping once Cloudflare created the rule; the allow-all rule still has to be marked dirty.
+     */
+    private void recordCreated(CloudflarePolicy policy, User user, GatewayRule rule) {
+        policy.setId(rule.id());
+        policy.setCompiledTraffic(TrafficExpressionCompiler.parseOrEmpty(policy.getTraffic()));
+        policyRepository.save(policy);
+        policySnapshotCache.invalidate(user);
+        gatewayRuleMirror.put(policy.getCloudflareAccId(), rule);
+        allowAllTrafficIndex.apply(user, policy.getId(), policy.getCompiledTraffic());
+    }
+
+    private void recordUpdated(CloudflarePolicy existingPolicy, CloudflarePolicy updatedPolicy, User user, GatewayRule rule) {
+        existingPolicy.setAction(updatedPolicy.getAction());
+        existingPolicy.setName(updatedPolicy.getName());
+        existingPolicy.setTraffic(updatedPolicy.getTraffic());
+        existingPolicy.setCompiledTraffic(TrafficExpressionCompiler.parseOrEmpty(updatedPolicy.getTraffic()));
+        existingPolicy.setSchedule(updatedPolicy.getSchedule());
+        existingPolicy.setCompiledSchedule(null);
+
+        policyRepository.save(existingPolicy);
+        policySnapshotCache.invalidate(user);
+        gatewayRuleMirror.put(user.getCloudflareAccount().getAccountId(), rule);
+        allowAllTrafficIndex.apply(user, existingPolicy.getId(), existingPolicy.getCompiledTraffic());
+        gatewayDomainLists.deleteUnreferenced(user);
+    }
+
+    private void recordDeleted(CloudflarePolicy policy, User user) {
+        policyRepository.delete(policy);
+        policySnapshotCache.invalidate(user);
+        gatewayDomainLists.deleteUnreferenced(user);
+        gatewayRuleMirror.remove(user.getCloudflareAccount().getAccountId(), policy.getId());
+        allowAllTrafficIndex.apply(user, policy.getId(), null);
+    }
+
+    static String generatePolicyName(User user) {
         String email = user.getEmail();
         String uniqueId = UUID.randomUUID().toString().substring(0, 8); // Short UUID
         return email + "-" + uniqueId;
     }
 
-    private Map<String, Object> buildPolicyRequestBody(CloudflarePolicy policy) {
+    static Map<String, Object> buildPolicyRequestBody(CloudflarePolicy policy) {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("action", policy.getAction());
         requestBody.put("name", policy.getName());
@@ -209,190 +448,14 @@ public class CloudflarePolicyServiceImpl implements CloudflarePolicyService {
     }
 
 
-    private CloudflarePolicy ensureAllowAllPolicyExists(User user) {
-        // First check if we already have it in our database
-        Optional<CloudflarePolicy> existingDbPolicy = policyRepository.findByUser(user).stream()
-                .filter(CloudflarePolicy::isAllowAll)
-                .findFirst();
-
-        if (existingDbPolicy.isPresent()) {
-            return existingDbPolicy.get();
-        }
-
-        // If not in DB, check Cloudflare API for existing policy
-        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, user.getCloudflareAccount().getAccountId());
-        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
-        try {
-            // Get all policies from Cloudflare
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.GET, entity);
-            JsonNode responseBody = makeApiCall.parseResponse(response.getBody());
-
-            // Look for policy with user's email as name
-            for (JsonNode policyNode : responseBody.path("result")) {
-                String policyName = policyNode.path("name").asText();
-                if (policyName.equals(user.getEmail())) {
-                    // Found existing policy - create local record
-                    CloudflarePolicy existingPolicy = CloudflarePolicy.builder()
-                            .id(policyNode.path("id").asText())
-                            .name(policyName)
-                            .action(policyNode.path("action").asText())
-                            .traffic(policyNode.path("traffic").asText())
-                            .cloudflareAccId(user.getCloudflareAccount().getAccountId())
-                            .user(user)
-                            .isAllowAll(true)
-                            .build();
-
-                    return policyRepository.save(existingPolicy);
-                }
-            }
-
-            // If we get here, no existing policy found - create new one
-            CloudflarePolicy newPolicy = CloudflarePolicy.builder()
-                    .name(user.getEmail())
-                    .action("allow")
-                    .traffic("")
-                    .cloudflareAccId(user.getCloudflareAccount().getAccountId())
-                    .user(user)
-                    .isAllowAll(true)
-                    .build();
-
-            Map<String, Object> requestBody = buildPolicyRequestBody(newPolicy);
-            HttpEntity<Map<String, Object>> postEntity = new HttpEntity<>(requestBody, headers);
-
-            ResponseEntity<String> createResponse = makeApiCall.makeApiCall(url, HttpMethod.POST, postEntity);
-            JsonNode createResponseBody = makeApiCall.parseResponse(createResponse.getBody());
-
-            String policyId = createResponseBody.path("result").path("id").asText();
-            newPolicy.setId(policyId);
-
-            return policyRepository.save(newPolicy);
-
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
-        }
-    }
-
-    private void updateAllowAllPolicy(User user) {
-        List<CloudflarePolicy> userPolicies = policyRepository.findByUser(user);
-        CloudflarePolicy allowAllPolicy = ensureAllowAllPolicyExists(user);
-
-        // Build the "allow-all" traffic string
-        String allowAllTraffic = buildAllowAllTrafficString(userPolicies);
-        allowAllPolicy.setTraffic(allowAllTraffic);
-
-        // Update the "allow-all" policy in the database
-        policyRepository.save(allowAllPolicy);
-
-        // Update the "allow-all" policy in Cloudflare API
-        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, user.getCloudflareAccount().getAccountId()) + "/" + allowAllPolicy.getId();
-
-        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
-        Map<String, Object> requestBody = buildPolicyRequestBody(allowAllPolicy);
-
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-        try {
-            ResponseEntity<String> response = makeApiCall.makeApiCall(url, HttpMethod.PUT, entity);
-            JsonNode responseBody = makeApiCall.parseResponse(response.getBody());
-
-            if (!responseBody.path("success").asBoolean()) {
-                log.error("Failed to update allow-all policy in Cloudflare API: {}", responseBody);
-                throw new CloudflareApiException(env.getProperty("policy-allow-update-fail"));
-            }
-        } catch (JsonProcessingException e) {
-            log.error("Error parsing Cloudflare API response", e);
-            throw new RuntimeException(env.getProperty("cloudflare-api-processing-exception"), e);
-        }
-    }
-
-    private String buildAllowAllTrafficString(List<CloudflarePolicy> userPolicies) {
-        Set<Integer> blockedCategories = new HashSet<>();
-        Set<Integer> blockedAppTypes = new HashSet<>();
-        Set<Integer> blockedAppIds = new HashSet<>();
-
-        // Extract blocked categories, app types, and app IDs from user policies
-        for (CloudflarePolicy policy : userPolicies) {
-            if (!policy.isAllowAll()) { // Skip the "allow-all" policy itself
-                log.debug("Processing policy traffic: {}", policy.getTraffic());
-                extractBlockedCategories(policy.getTraffic(), blockedCategories);
-                extractBlockedAppTypes(policy.getTraffic(), blockedAppTypes);
-                extractBlockedAppIds(policy.getTraffic(), blockedAppIds);
-            }
-        }
-
-        log.debug("Blocked categories: {}", blockedCategories);
-        log.debug("Blocked app types: {}", blockedAppTypes);
-        log.debug("Blocked app IDs: {}", blockedAppIds);
-
-        // Build the "allow-all" traffic string
-        StringBuilder trafficBuilder = new StringBuilder();
-        if (!blockedCategories.isEmpty()) {
-            trafficBuilder.append("any(dns.content_category[*] in {")
-                    .append(blockedCategories.stream().map(String::valueOf).collect(Collectors.joining(" ")))
-                    .append("})");
-        }
-        if (!blockedAppTypes.isEmpty()) {
-            if (!trafficBuilder.isEmpty()) trafficBuilder.append(" or ");
-            trafficBuilder.append("any(app.type.ids[*] in {")
-                    .append(blockedAppTypes.stream().map(String::valueOf).collect(Collectors.joining(" ")))
-                    .append("})");
-        }
-        if (!blockedAppIds.isEmpty()) {
-            if (!trafficBuilder.isEmpty()) trafficBuilder.append(" or ");
-            trafficBuilder.append("any(app.ids[*] in {")
-                    .append(blockedAppIds.stream().map(String::valueOf).collect(Collectors.joining(" ")))
-                    .append("})");
-        }
-
-        String trafficString = trafficBuilder.toString();
+    /**
+     * Full rebuild of the allow-all traffic; mutations go through {@link AllowAllTrafficIndex} instead.
+     */
+    static String buildAllowAllTrafficString(List<CloudflarePolicy> userPolicies) {
+        AllowAllTrafficIndex.BlockedTraffic blocked = new AllowAllTrafficIndex.BlockedTraffic();
+        userPolicies.forEach(blocked::add);
+        String trafficString = blocked.render();
         log.debug("Generated allow-all traffic string: {}", trafficString);
-
-        if (trafficString.isEmpty()) return "";
-        return "not(" + trafficString + ")";
-    }
-
-    private void extractBlockedCategories(String traffic, Set<Integer> blockedCategories) {
-        String categoryPattern = "dns\\.content_category\\[\\*] in \\{([^}]+)}";
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(categoryPattern);
-        java.util.regex.Matcher matcher = pattern.matcher(traffic);
-        if (matcher.find()) {
-            String[] categories = matcher.group(1).split(" ");
-            for (String category : categories) {
-                blockedCategories.add(Integer.parseInt(category));
-            }
-        } else {
-            log.debug("No categories found in traffic: {}", traffic);
-        }
-    }
-
-    private void extractBlockedAppTypes(String traffic, Set<Integer> blockedAppTypes) {
-        String appTypePattern = "app\\.type\\.ids\\[\\*] in \\{([^}]+)}";
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(appTypePattern);
-        java.util.regex.Matcher matcher = pattern.matcher(traffic);
-        if (matcher.find()) {
-            String[] appTypes = matcher.group(1).split(" ");
-            for (String appType : appTypes) {
-                blockedAppTypes.add(Integer.parseInt(appType));
-            }
-        } else {
-            log.debug("No app types found in traffic: {}", traffic);
-        }
-    }
-
-    private void extractBlockedAppIds(String traffic, Set<Integer> blockedAppIds) {
-        String appIdPattern = "app\\.ids\\[\\*] in \\{([^}]+)}";
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(appIdPattern);
-        java.util.regex.Matcher matcher = pattern.matcher(traffic);
-        if (matcher.find()) {
-            String[] appIds = matcher.group(1).split(" ");
-            for (String appId : appIds) {
-                blockedAppIds.add(Integer.parseInt(appId));
-            }
-        } else {
-            log.debug("No app IDs found in traffic: {}", traffic);
-        }
+        return trafficString;
     }
-}
\ No newline at end of file
+}
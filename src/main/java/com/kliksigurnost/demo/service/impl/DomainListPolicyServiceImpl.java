@@ -0,0 +1,105 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.exception.LimitReached;
+import com.kliksigurnost.demo.exception.NotFoundException;
+import com.kliksigurnost.demo.exception.UnauthorizedAccessException;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
+import com.kliksigurnost.demo.helper.TrafficExpressionCompiler;
+import com.kliksigurnost.demo.helper.UserMutationLocks;
+import com.kliksigurnost.demo.model.*;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import com.kliksigurnost.demo.service.CloudflarePolicyService;
+import com.kliksigurnost.demo.service.DomainListPolicyService;
+import com.kliksigurnost.demo.service.UserService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Domain-list policies: the blocked domains live in a Cloudflare list ({@link GatewayDomainLists}) and the rule only
+ * refers to it, so neither the rule nor the user's allow-all exclusion grows with the number of domains. The rule
+ * itself is an ordinary policy created through {@link CloudflarePolicyService}; deleting it removes the list too.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DomainListPolicyServiceImpl implements DomainListPolicyService {
+
+    private final CloudflarePolicyService cloudflarePolicyService;
+    private final CloudflarePolicyRepository policyRepository;
+    private final GatewayDomainLists gatewayDomainLists;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final UserService userService;
+    private final UserMutationLocks userMutationLocks;
+
+    private final Environment env;
+
+    @Override
+    public CloudflarePolicy createDomainListPolicy(DomainListPolicyRequest request) {
+        if (request.getDomains() == null || request.getDomains().isEmpty()) {
+            throw new IllegalArgumentException(env.getProperty("domain-list-empty"));
+        }
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user, () -> {
+            // Checked before the list is created, so a user at the limit costs no Cloudflare calls
+            if (policySnapshotCache.count(user) >= 10) {
+                throw new LimitReached(env.getProperty("policy-limit-exceeded"));
+            }
+            DomainList list = gatewayDomainLists.create(user, request.getDomains());
+
+            CloudflarePolicy policy = CloudflarePolicy.builder()
+                    .action(request.getAction() != null ? request.getAction() : "block")
+                    .traffic(TrafficExpressionCompiler.compile(TrafficExpression.builder()
+                            .domainLists(new String[]{list.getId()})
+                            .build()))
+                    .schedule(request.getSchedule())
+                    .build();
+            try {
+                cloudflarePolicyService.createPolicy(policy, user);
+            } catch (RuntimeException e) {
+                gatewayDomainLists.delete(list);
+                throw e;
+            }
+            log.debug("Created domain-list policy {} over list {}", policy.getId(), list.getId());
+            return policy;
+        });
+    }
+
+    @Override
+    public List<String> getDomains(String policyId) {
+        return Arrays.asList(listOf(policyId, userService.getCurrentUser()).getEntries());
+    }
+
+    @Override
+    public DomainListDiff updateDomains(String policyId, DomainListChange change) {
+        if (change == null) {
+            throw new IllegalArgumentException(env.getProperty("domain-list-empty"));
+        }
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user,
+                () -> gatewayDomainLists.update(listOf(policyId, user), change.getAdd(), change.getRemove()));
+    }
+
+    @Override
+    public DomainListDiff replaceDomains(String policyId, List<String> domains) {
+        if (domains == null || domains.isEmpty()) {
+            throw new IllegalArgumentException(env.getProperty("domain-list-empty"));
+        }
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user, () -> gatewayDomainLists.replace(listOf(policyId, user), domains));
+    }
+
+    private DomainList listOf(String policyId, User user) {
+        CloudflarePolicy policy = policyRepository.findById(policyId)
+                .orElseThrow(() -> new NotFoundException(env.getProperty("policy-not-found")));
+        if (!policy.getUser().equals(user)) {
+            throw new UnauthorizedAccessException(env.getProperty("policy-unauthorized-update"));
+        }
+        return gatewayDomainLists.findFor(policy)
+                .orElseThrow(() -> new NotFoundException(env.getProperty("domain-list-not-found")));
+    }
+}
@@ -0,0 +1,256 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.exception.CloudflareApiException;
+import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
+import com.kliksigurnost.demo.helper.TrafficExpressionCompiler;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.DomainList;
+import com.kliksigurnost.demo.model.DomainListDiff;
+import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import com.kliksigurnost.demo.model.cloudflare.GatewayList;
+import com.kliksigurnost.demo.repository.DomainListRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Cloudflare domain lists ({@code accounts/{account_id}/gateway/lists}) behind domain-list policies, and our copy
+ * of their entries.
+ * <p>
+ * Entries are kept as a sorted, distinct array, so a change is diffed against it with binary searches and a single
+ * merge, and only the domains actually added or removed are sent, in one {@code PATCH}. Callers hold the owner's
+ * {@link com.kliksigurnost.demo.helper.UserMutationLocks} stripe.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GatewayDomainLists {
+
+    private static final String GATEWAY_LISTS_ENDPOINT = "accounts/{account_id}/gateway/lists";
+
+    // Lower-case host names: labels of letters, digits and inner hyphens, at most 253 characters overall
+    private static final Pattern DOMAIN = Pattern.compile(
+            "(?=.{1,253}$)([a-z0-9]([a-z0-9-]{0,61}[a-z0-9])?\\.)*[a-z0-9]([a-z0-9-]{0,61}[a-z0-9])?");
+
+    private final MakeApiCall makeApiCall;
+    private final DomainListRepository domainListRepository;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final Environment env;
+
+    @Value("${cloudflare.lists.max-entries:1000}")
+    private int maxEntries;
+
+    /**
+     * Creates a Cloudflare list holding {@code domains} and records it.
+     *
+     * @throws IllegalArgumentException if a domain is malformed or there are too many
+     */
+    public DomainList create(User user, Collection<String> domains) {
+        String[] entries = normalize(domains);
+        if (entries.length > maxEntries) {
+            throw new IllegalArgumentException(env.getProperty("domain-list-too-large"));
+        }
+        String name = CloudflarePolicyServiceImpl.generatePolicyName(user);
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("name", name);
+        requestBody.put("type", "DOMAIN");
+        requestBody.put("description", "Blocked domains of " + user.getEmail());
+        requestBody.put("items", items(Arrays.asList(entries)));
+
+        GatewayList created = makeApiCall.exchange(listsUrl(user), HttpMethod.POST,
+                new HttpEntity<>(requestBody, headers(user)), GatewayList.class).result();
+        if (created == null || created.id() == null) {
+            throw new CloudflareApiException(env.getProperty("domain-list-create-fail"));
+        }
+        log.debug("Created domain list {} with {} entries for {}", created.id(), entries.length, user.getEmail());
+        return domainListRepository.save(DomainList.builder()
+                .id(created.id())
+                .name(name)
+                .cloudflareAccId(user.getCloudflareAccount().getAccountId())
+                .user(user)
+                .entries(entries)
+                .build());
+    }
+
+    /**
+     * Adds and removes domains, sending Cloudflare only the difference to what the list already holds.
+     *
+     * @throws IllegalArgumentException if a domain is malformed, both added and removed, or the list would grow
+     *                                  too large
+     */
+    public DomainListDiff update(DomainList list, Collection<String> add, Collection<String> remove) {
+        String[] toAdd = normalize(add);
+        String[] toRemove = normalize(remove);
+        String[] current = list.getEntries();
+
+        List<String> added = new ArrayList<>();
+        for (String domain : toAdd) {
+            if (Arrays.binarySearch(toRemove, domain) >= 0) {
+                throw new IllegalArgumentException(env.getProperty("domain-list-conflict") + ": " + domain);
+            }
+            if (Arrays.binarySearch(current, domain) < 0) {
+                added.add(domain);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String domain : toRemove) {
+            if (Arrays.binarySearch(current, domain) >= 0) {
+                removed.add(domain);
+            }
+        }
+        int size = current.length + added.size() - removed.size();
+        if (added.isEmpty() && removed.isEmpty()) {
+            return DomainListDiff.builder().added(added).removed(removed).size(size).build();
+        }
+        if (size > maxEntries) {
+            throw new IllegalArgumentException(env.getProperty("domain-list-too-large"));
+        }
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("append", items(added));
+        requestBody.put("remove", removed);
+        User user = list.getUser();
+        makeApiCall.exchange(listsUrl(user) + "/" + list.getId(), HttpMethod.PATCH,
+                new HttpEntity<>(requestBody, headers(user)), GatewayList.class);
+
+        list.setEntries(merge(current, added, removed));
+        domainListRepository.save(list);
+        log.debug("Domain list {}: +{} -{} -> {} entries", list.getId(), added.size(), removed.size(), size);
+        return DomainListDiff.builder().added(added).removed(removed).size(size).build();
+    }
+
+    /**
+     * Replaces the list's contents with {@code domains}, still as a diff.
+     */
+    public DomainListDiff replace(DomainList list, Collection<String> domains) {
+        String[] wanted = normalize(domains);
+        List<String> remove = new ArrayList<>();
+        for (String domain : list.getEntries()) {
+            if (Arrays.binarySearch(wanted, domain) < 0) {
+                remove.add(domain);
+            }
+        }
+        return update(list, Arrays.asList(wanted), remove);
+    }
+
+    /**
+     * The user's list referenced by {@code policy}'s traffic, if it is a domain-list policy.
+     */
+    public Optional<DomainList> findFor(CloudflarePolicy policy) {
+        for (String listId : TrafficExpressionCompiler.compiled(policy).getDomainLists()) {
+            Optional<DomainList> list = domainListRepository.findById(listId)
+                    .filter(candidate -> candidate.getUser().equals(policy.getUser()));
+            if (list.isPresent()) {
+                return list;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Deletes the user's lists no remaining policy refers to, e.g. after a domain-list policy was deleted. Lists
+     * Cloudflare won't delete are kept and retried on the next call.
+     */
+    public void deleteUnreferenced(User user) {
+        List<DomainList> lists = domainListRepository.findByUser(user);
+        if (lists.isEmpty()) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>();
+        for (CloudflarePolicy policy : policySnapshotCache.policies(user)) {
+            referenced.addAll(Arrays.asList(TrafficExpressionCompiler.compiled(policy).getDomainLists()));
+        }
+        for (DomainList list : lists) {
+            if (!referenced.contains(list.getId())) {
+                delete(list);
+            }
+        }
+    }
+
+    /**
+     * Deletes the list in Cloudflare and locally; failures are logged and the list is kept.
+     */
+    public void delete(DomainList list) {
+        try {
+            makeApiCall.exchange(listsUrl(list.getUser()) + "/" + list.getId(), HttpMethod.DELETE,
+                    new HttpEntity<>(headers(list.getUser())), GatewayList.class);
+        } catch (CloudflareApiException e) {
+            if (e.getStatusCode() == null || e.getStatusCode().value() != HttpStatus.NOT_FOUND.value()) {
+                log.warn("Failed to delete domain list {}, keeping it: {}", list.getId(), e.getMessage());
+                return;
+            }
+        }
+        domainListRepository.delete(list);
+        log.debug("Deleted domain list {}", list.getId());
+    }
+
+    /**
+     * Lower-cases, trims and validates domains ({@code *.} prefixes and trailing dots are dropped, as
+     * {@code dns.domains} already matches subdomains).
+     *
+     * @return the domains sorted and distinct
+     * @throws IllegalArgumentException naming the first malformed domain
+     */
+    String[] normalize(Collection<String> domains) {
+        if (domains == null || domains.isEmpty()) {
+            return new String[0];
+        }
+        TreeSet<String> normalized = new TreeSet<>();
+        for (String raw : domains) {
+            String domain = raw == null ? "" : raw.trim().toLowerCase(Locale.ROOT);
+            if (domain.startsWith("*.")) domain = domain.substring(2);
+            if (domain.endsWith(".")) domain = domain.substring(0, domain.length() - 1);
+            if (!DOMAIN.matcher(domain).matches()) {
+                throw new IllegalArgumentException(env.getProperty("domain-list-invalid") + ": " + raw);
+            }
+            normalized.add(domain);
+        }
+        return normalized.toArray(String[]::new);
+    }
+
+    /**
+     * {@code current} with {@code added} merged in and {@code removed} left out; all three sorted.
+     */
+    private static String[] merge(String[] current, List<String> added, List<String> removed) {
+        String[] merged = new String[current.length + added.size() - removed.size()];
+        int i = 0, a = 0, r = 0, out = 0;
+        while (i < current.length || a < added.size()) {
+            if (a < added.size() && (i == current.length || added.get(a).compareTo(current[i]) < 0)) {
+                merged[out++] = added.get(a++);
+            } else if (r < removed.size() && removed.get(r).equals(current[i])) {
+                r++;
+                i++;
+            } else {
+                merged[out++] = current[i++];
+            }
+        }
+        return merged;
+    }
+
+    private static List<Map<String, String>> items(List<String> domains) {
+        List<Map<String, String>> items = new ArrayList<>(domains.size());
+        for (String domain : domains) {
+            items.add(Map.of("value", domain));
+        }
+        return items;
+    }
+
+    private String listsUrl(User user) {
+        return makeApiCall.buildUrl(GATEWAY_LISTS_ENDPOINT, user.getCloudflareAccount().getAccountId());
+    }
+
+    private HttpHeaders headers(User user) {
+        return makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+    }
+}
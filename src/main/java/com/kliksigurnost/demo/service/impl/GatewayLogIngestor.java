@@ -0,0 +1,166 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.helper.CloudflareRateLimiter;
+import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.model.CloudflareAccount;
+import com.kliksigurnost.demo.model.GatewayLogCursor;
+import com.kliksigurnost.demo.model.GatewayLogEntry;
+import com.kliksigurnost.demo.model.cloudflare.GatewayResolverQueries;
+import com.kliksigurnost.demo.repository.CloudflareAccountRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pulls each account's resolver logs into {@link GatewayLogStore}.
+ * <p>
+ * Every {@code cloudflare.logs.ingest.interval-ms} an account's log is read from where its cursor stopped up to
+ * {@code lag} ago, since Cloudflare's analytics trail real time, in windows of {@code slice}. A window that fills a
+ * whole GraphQL page is split in half until each half fits, so nothing is lost to the page limit and no window
+ * overlaps another. A new account is backfilled from {@code initial-lookback} ago, at most
+ * {@code max-slices-per-run} windows per run so a backlog can't monopolize the rate budget.
+ */
+@Slf4j
+@Component
+public class GatewayLogIngestor {
+
+    private static final String GRAPHQL_ENDPOINT = "graphql";
+
+    private final MakeApiCall makeApiCall;
+    private final CloudflareAccountRepository accountRepository;
+    private final GatewayLogStore gatewayLogStore;
+    private final BlockRollups blockRollups;
+
+    private final Duration lag;
+    private final Duration slice;
+    private final Duration initialLookback;
+    private final int pageSize;
+    private final int maxSlicesPerRun;
+
+    public GatewayLogIngestor(MakeApiCall makeApiCall,
+                              CloudflareAccountRepository accountRepository,
+                              GatewayLogStore gatewayLogStore,
+                              BlockRollups blockRollups,
+                              @Value("${cloudflare.logs.ingest.lag:2m}") Duration lag,
+                              @Value("${cloudflare.logs.ingest.slice:10m}") Duration slice,
+                              @Value("${cloudflare.logs.ingest.initial-lookback:24h}") Duration initialLookback,
+                              @Value("${cloudflare.logs.ingest.page-size:10000}") int pageSize,
+                              @Value("${cloudflare.logs.ingest.max-slices-per-run:50}") int maxSlicesPerRun) {
+        this.makeApiCall = makeApiCall;
+        this.accountRepository = accountRepository;
+        this.gatewayLogStore = gatewayLogStore;
+        this.blockRollups = blockRollups;
+        this.lag = lag;
+        this.slice = slice;
+        this.initialLookback = initialLookback;
+        this.pageSize = pageSize;
+        this.maxSlicesPerRun = maxSlicesPerRun;
+    }
+
+    @Scheduled(initialDelayString = "${cloudflare.logs.ingest.interval-ms:60000}",
+            fixedDelayString = "${cloudflare.logs.ingest.interval-ms:60000}")
+    public void scheduledIngest() {
+        if (gatewayLogStore.isEnabled()) {
+            // Housekeeping: don't let it compete with interactive calls for the rate budget
+            CloudflareRateLimiter.runInBackground(this::ingestAll);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cloudflare.logs.store.purge-interval-ms:3600000}")
+    public void scheduledPurge() {
+        if (gatewayLogStore.isEnabled()) {
+            gatewayLogStore.purgeExpired();
+            blockRollups.purgeExpired();
+        }
+    }
+
+    /**
+     * Ingests every account up to the lag horizon, or up to the per-run window budget.
+     *
+     * @return rows stored per account
+     */
+    public synchronized Map<String, Integer> ingestAll() {
+        Map<String, Integer> ingested = new HashMap<>();
+        for (CloudflareAccount account : accountRepository.findAll()) {
+            try {
+                ingested.put(account.getAccountId(), ingest(account));
+            } catch (RuntimeException e) {
+                // The cursor stays put, so the window is retried on the next run
+                log.warn("Failed to ingest gateway logs of account {}: {}", account.getAccountId(), e.getMessage());
+            }
+        }
+        return ingested;
+    }
+
+    private int ingest(CloudflareAccount account) {
+        String accountId = account.getAccountId();
+        Instant horizon = Instant.now().minus(lag).truncatedTo(ChronoUnit.SECONDS);
+        Instant from = gatewayLogStore.cursorOf(accountId)
+                .map(GatewayLogCursor::getIngestedUntil)
+                .orElseGet(() -> horizon.minus(initialLookback));
+
+        int rows = 0;
+        for (int slices = 0; from.isBefore(horizon) && slices < maxSlicesPerRun; slices++) {
+            Instant until = from.plus(slice).isBefore(horizon) ? from.plus(slice) : horizon;
+            List<GatewayLogEntry> entries = new ArrayList<>();
+            fetch(account, from, until, entries);
+            gatewayLogStore.append(accountId, from, until, entries);
+            rows += entries.size();
+            from = until;
+        }
+        if (rows > 0) {
+            log.debug("Ingested {} gateway log rows of account {} up to {}", rows, accountId, from);
+        }
+        return rows;
+    }
+
+    /**
+     * Adds the groups of {@code [from, until)} to {@code into}, halving the window while it fills a page.
+     */
+    private void fetch(CloudflareAccount account, Instant from, Instant until, List<GatewayLogEntry> into) {
+        List<GatewayResolverQueries.Group> groups = query(account, from, until);
+        long seconds = Duration.between(from, until).toSeconds();
+        if (groups.size() >= pageSize && seconds > 1) {
+            Instant middle = from.plusSeconds(seconds / 2);
+            fetch(account, from, middle, into);
+            fetch(account, middle, until, into);
+            return;
+        }
+        if (groups.size() >= pageSize) {
+            log.warn("More than {} log groups in account {} at {}, keeping the first page", pageSize,
+                    account.getAccountId(), from);
+        }
+        for (GatewayResolverQueries.Group group : groups) {
+            into.add(GatewayLogEntry.of(account.getAccountId(), group));
+        }
+    }
+
+    private List<GatewayResolverQueries.Group> query(CloudflareAccount account, Instant from, Instant until) {
+        String accountId = account.getAccountId();
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("accountId", accountId);
+        // Timestamps are whole seconds, so (from - 1s, until) is [from, until)
+        variables.put("datetime_gt", from.minusSeconds(1).toString());
+        variables.put("datetime_geq", from.toString());
+        variables.put("datetime_lt", until.toString());
+        variables.put("limit", pageSize);
+        variables.put("orderBy", List.of("datetime_ASC"));
+
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(
+                Map.of("query", CloudflareLogServiceImpl.GRAPHQL_QUERY, "variables", variables),
+                makeApiCall.createHeaders(account.getAuthorizationToken()));
+        GatewayResolverQueries data = makeApiCall.graphql(makeApiCall.buildUrl(GRAPHQL_ENDPOINT, accountId), accountId,
+                entity, GatewayResolverQueries.class);
+        return data != null ? data.groups() : List.of();
+    }
+}
@@ -0,0 +1,167 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.helper.LogCursor;
+import com.kliksigurnost.demo.model.CloudflareLog;
+import com.kliksigurnost.demo.model.GatewayLogCursor;
+import com.kliksigurnost.demo.model.GatewayLogEntry;
+import com.kliksigurnost.demo.repository.GatewayLogCursorRepository;
+import com.kliksigurnost.demo.repository.GatewayLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local copy of the accounts' gateway resolver logs, filled by {@link GatewayLogIngestor}.
+ * <p>
+ * Rows are bucketed by UTC day and kept for {@code cloudflare.logs.store.retention-days}; expiring a day is one
+ * indexed delete. Each account's {@link GatewayLogCursor} says which window the store holds, so a log page is only
+ * served locally when its window starts inside it. Its newest end trails Cloudflare by the ingestion lag and
+ * interval, which the log pages accept in exchange for costing no Cloudflare quota. Pages are keyset-paginated on
+ * {@code (datetime, policyId, queryName, id)}, so rows sharing a timestamp are neither skipped nor repeated.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GatewayLogStore {
+
+    private final GatewayLogRepository logRepository;
+    private final GatewayLogCursorRepository cursorRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockRollups blockRollups;
+
+    // Mirrors the cursor rows, which only this class writes
+    private final Map<String, GatewayLogCursor> cursors = new ConcurrentHashMap<>();
+
+    @Value("${cloudflare.logs.store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cloudflare.logs.store.retention-days:30}")
+    private int retentionDays;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * A page of the given policies' logs within {@code (start, end)} past {@code after}, or empty if the store doesn't
+     * cover the page and GraphQL has to answer. Each row carries its {@link LogCursor}.
+     * <p>
+     * Only rows before the account's {@code ingestedUntil} are stored. A newest-first page is answered when it starts
+     * below that, an oldest-first page when it fills up before reaching it; pages reaching into the not yet
+     * ingested tail are left to GraphQL.
+     */
+    public Optional<List<CloudflareLog>> findPage(String accountId, List<String> policyIds, Instant start, Instant end,
+                                                  boolean ascending, LogCursor after, int pageSize,
+                                                  int resolverDecision) {
+        GatewayLogCursor cursor = enabled ? cursorOf(accountId).orElse(null) : null;
+        if (cursor == null || start.isBefore(cursor.getCoveredFrom())) {
+            return Optional.empty();
+        }
+        Instant ingestedUntil = cursor.getIngestedUntil();
+        boolean tailMissing = end.isAfter(ingestedUntil);
+        if (!ascending && tailMissing && (after == null || !after.datetime().isBefore(ingestedUntil))) {
+            return Optional.empty();
+        }
+        if (policyIds.isEmpty()) {
+            return Optional.of(List.of());
+        }
+        LogCursor key = after != null ? after.forLocalStore() : null;
+        PageRequest page = PageRequest.of(0, pageSize,
+                Sort.by(ascending ? Sort.Direction.ASC : Sort.Direction.DESC, "datetime", "policyId", "queryName", "id"));
+        List<GatewayLogEntry> entries = ascending
+                ? logRepository.findPageAfter(policyIds, start, tailMissing ? ingestedUntil : end, resolverDecision,
+                        key != null ? key.datetime() : start,
+                        key != null ? key.policyId() : null,
+                        key != null ? key.queryName() : null,
+                        key != null ? key.tiebreak() : null, page)
+                : logRepository.findPageBefore(policyIds, start, end, resolverDecision,
+                        key != null ? key.datetime() : end,
+                        key != null ? key.policyId() : null,
+                        key != null ? key.queryName() : null,
+                        key != null ? key.tiebreak() : null, page);
+        if (ascending && tailMissing && entries.size() < pageSize) {
+            // The rest of the page lies in the tail
+            return Optional.empty();
+        }
+        return Optional.of(entries.stream().map(GatewayLogEntry::toLog).toList());
+    }
+
+    public Optional<GatewayLogCursor> cursorOf(String accountId) {
+        GatewayLogCursor cursor = cursors.get(accountId);
+        if (cursor == null) {
+            cursor = cursorRepository.findById(accountId).orElse(null);
+            if (cursor != null) {
+                cursors.putIfAbsent(accountId, cursor);
+            }
+        }
+        return Optional.ofNullable(cursor);
+    }
+
+    /**
+     * Stores one ingested window, adds it to the block rollups and advances the account's cursor to {@code until},
+     * atomically, so a window is never stored or counted twice.
+     */
+    public void append(String accountId, Instant from, Instant until, List<GatewayLogEntry> entries) {
+        GatewayLogCursor cursor = cursorOf(accountId)
+                .map(current -> GatewayLogCursor.builder()
+                        .accountId(accountId)
+                        .coveredFrom(current.getCoveredFrom())
+                        .ingestedUntil(until)
+                        .build())
+                .orElseGet(() -> GatewayLogCursor.builder()
+                        .accountId(accountId)
+                        .coveredFrom(from)
+                        .ingestedUntil(until)
+                        .build());
+        transactionTemplate.executeWithoutResult(status -> {
+            logRepository.saveAll(entries);
+            blockRollups.add(entries);
+            cursorRepository.save(cursor);
+        });
+        cursors.put(accountId, cursor);
+    }
+
+    /**
+     * Blocked-query rows ingested after row {@code afterId}, oldest first.
+     */
+    public List<GatewayLogEntry> blockedAfter(long afterId) {
+        return logRepository.findTop1000ByIdGreaterThanAndResolverDecisionOrderByIdAsc(afterId, BlockRollups.BLOCKED);
+    }
+
+    public long lastId() {
+        return logRepository.findMaxId();
+    }
+
+    /**
+     * Drops the days that fell out of retention, one day per statement, and shrinks the coverage to match.
+     *
+     * @return number of days dropped
+     */
+    public int purgeExpired() {
+        LocalDate cutoff = LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays);
+        int dropped = 0;
+        for (LocalDate day = logRepository.findOldestDay(); day != null && day.isBefore(cutoff); day = day.plusDays(1)) {
+            int rows = logRepository.deleteDay(day);
+            log.debug("Dropped {} gateway log rows of {}", rows, day);
+            dropped++;
+        }
+        if (dropped > 0) {
+            cursorRepository.raiseCoveredFrom(cutoff.atStartOfDay(ZoneOffset.UTC).toInstant());
+            cursors.clear();
+            log.info("Dropped {} day(s) of gateway logs before {}", dropped, cutoff);
+        }
+        return dropped;
+    }
+}
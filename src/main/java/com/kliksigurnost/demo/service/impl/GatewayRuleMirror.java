@@ -0,0 +1,134 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.model.CloudflareAccount;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import com.kliksigurnost.demo.model.cloudflare.GatewayRule;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local copy of each account's gateway rules, indexed by rule ID and by name.
+ * <p>
+ * An account's rules are listed, {@code cloudflare.rules.page-size} per page, on first use and then kept current
+ * by our own writes, so lookups such as finding a user's allow-all rule by name are local reads instead of a
+ * listing of the whole shared account. Changes made outside this application are picked up when
+ * {@link GatewayRuleReconciler} refreshes the account.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GatewayRuleMirror {
+
+    private static final String GATEWAY_RULES_ENDPOINT = "accounts/{account_id}/gateway/rules";
+    private static final TypeReference<List<GatewayRule>> GATEWAY_RULE_LIST = new TypeReference<>() {};
+
+    private final MakeApiCall makeApiCall;
+
+    private final Map<String, AccountRules> accounts = new ConcurrentHashMap<>();
+
+    @Value("${cloudflare.rules.page-size:100}")
+    private int pageSize;
+
+    public Optional<GatewayRule> findById(CloudflareAccount account, String ruleId) {
+        return Optional.ofNullable(rulesOf(account).byId.get(ruleId));
+    }
+
+    public Optional<GatewayRule> findByName(CloudflareAccount account, String name) {
+        return Optional.ofNullable(rulesOf(account).byName.get(name));
+    }
+
+    /**
+     * Records a rule we just created or updated; ignored until the account's rules have been loaded.
+     */
+    public void put(String accountId, GatewayRule rule) {
+        AccountRules rules = accounts.get(accountId);
+        if (rules != null && rule != null && rule.id() != null) {
+            rules.put(rule);
+        }
+    }
+
+    public void remove(String accountId, String ruleId) {
+        AccountRules rules = accounts.get(accountId);
+        if (rules != null) {
+            rules.remove(ruleId);
+        }
+    }
+
+    /**
+     * Re-lists the account's rules from Cloudflare and replaces its mirror.
+     *
+     * @return the rules by ID
+     */
+    public Map<String, GatewayRule> refresh(CloudflareAccount account) {
+        AccountRules rules = new AccountRules(listRules(account));
+        accounts.put(account.getAccountId(), rules);
+        return Collections.unmodifiableMap(rules.byId);
+    }
+
+    private AccountRules rulesOf(CloudflareAccount account) {
+        return accounts.computeIfAbsent(account.getAccountId(), id -> new AccountRules(listRules(account)));
+    }
+
+    /**
+     * Lists every gateway rule in the account, {@code cloudflare.rules.page-size} at a time.
+     */
+    private List<GatewayRule> listRules(CloudflareAccount account) {
+        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, account.getAccountId());
+        HttpEntity<String> entity = new HttpEntity<>(makeApiCall.createHeaders(account.getAuthorizationToken()));
+
+        Map<String, GatewayRule> rules = new LinkedHashMap<>();
+        for (int page = 1; ; page++) {
+            CloudflareResponse<List<GatewayRule>> response = makeApiCall.exchange(
+                    url + "?page=" + page + "&per_page=" + pageSize, HttpMethod.GET, entity, GATEWAY_RULE_LIST);
+            List<GatewayRule> result = response.result() != null ? response.result() : List.of();
+            int before = rules.size();
+            result.forEach(rule -> rules.put(rule.id(), rule));
+
+            CloudflareResponse.ResultInfo info = response.resultInfo();
+            boolean lastPage = info != null && info.totalPages() != null
+                    ? page >= info.totalPages()
+                    : result.size() < pageSize;
+            // A page with nothing new means the endpoint ignored paging and returned everything
+            if (lastPage || rules.size() == before) {
+                break;
+            }
+        }
+        log.debug("Loaded {} gateway rules for account {}", rules.size(), account.getAccountId());
+        return List.copyOf(rules.values());
+    }
+
+    private static final class AccountRules {
+        private final Map<String, GatewayRule> byId = new ConcurrentHashMap<>();
+        private final Map<String, GatewayRule> byName = new ConcurrentHashMap<>();
+
+        private AccountRules(List<GatewayRule> rules) {
+            rules.forEach(this::put);
+        }
+
+        private synchronized void put(GatewayRule rule) {
+            GatewayRule previous = byId.put(rule.id(), rule);
+            if (previous != null && previous.name() != null) {
+                byName.remove(previous.name(), previous);
+            }
+            if (rule.name() != null) {
+                byName.put(rule.name(), rule);
+            }
+        }
+
+        private synchronized void remove(String ruleId) {
+            GatewayRule previous = byId.remove(ruleId);
+            if (previous != null && previous.name() != null) {
+                byName.remove(previous.name(), previous);
+            }
+        }
+    }
+}
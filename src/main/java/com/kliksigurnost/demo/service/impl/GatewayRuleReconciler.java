@@ -0,0 +1,281 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.helper.AllowAllTrafficIndex;
+import com.kliksigurnost.demo.helper.CloudflareRateLimiter;
+import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
+import com.kliksigurnost.demo.helper.TrafficExpressionCompiler;
+import com.kliksigurnost.demo.helper.UserMutationLocks;
+import com.kliksigurnost.demo.model.CloudflareAccount;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import com.kliksigurnost.demo.model.cloudflare.GatewayRule;
+import com.kliksigurnost.demo.repository.CloudflareAccountRepository;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import com.kliksigurnost.demo.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Periodic comparison of every account's gateway rules with {@link CloudflarePolicyRepository}. Each run re-lists
+ * the account (refreshing {@link GatewayRuleMirror}) and reports:
+ * <ul>
+ *     <li>missing - stored policies whose rule no longer exists in Cloudflare</li>
+ *     <li>orphaned - rules named after one of the account's users that we have no record of</li>
+ *     <li>drifted - rules whose action or traffic differs from what we stored</li>
+ * </ul>
+ * Findings are always logged. With {@code cloudflare.rules.reconcile.repair=true}, or on demand from the admin API,
+ * missing rules are recreated, orphans deleted and drifted rules overwritten with the stored state. Each repair
+ * holds the owning user's {@link UserMutationLocks} stripe and re-reads the policy, so it never acts on a change
+ * the user is still making.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GatewayRuleReconciler {
+
+    private static final String GATEWAY_RULES_ENDPOINT = "accounts/{account_id}/gateway/rules";
+
+    public record ReconcileReport(
+            String accountId,
+            int rules,
+            List<String> missing,
+            List<String> orphaned,
+            List<String> drifted,
+            int repaired
+    ) {
+    }
+
+    private final MakeApiCall makeApiCall;
+    private final GatewayRuleMirror gatewayRuleMirror;
+    private final CloudflareAccountRepository accountRepository;
+    private final CloudflarePolicyRepository policyRepository;
+    private final UserRepository userRepository;
+    private final AllowAllTrafficIndex allowAllTrafficIndex;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final AllowAllPolicySync allowAllPolicySync;
+    private final UserMutationLocks userMutationLocks;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${cloudflare.rules.reconcile.enabled:true}")
+    private boolean reconcileEnabled;
+
+    @Value("${cloudflare.rules.reconcile.repair:false}")
+    private boolean repairOnSchedule;
+
+    @Scheduled(initialDelayString = "${cloudflare.rules.reconcile.interval-ms:900000}",
+            fixedDelayString = "${cloudflare.rules.reconcile.interval-ms:900000}")
+    public void scheduledReconcile() {
+        if (reconcileEnabled) {
+            // Housekeeping: don't let it compete with interactive calls for the rate budget
+            CloudflareRateLimiter.runInBackground(() -> reconcileAll(repairOnSchedule));
+        }
+    }
+
+    public List<ReconcileReport> reconcileAll(boolean repair) {
+        List<ReconcileReport> reports = new ArrayList<>();
+        for (CloudflareAccount account : accountRepository.findAll()) {
+            try {
+                reports.add(reconcile(account, repair));
+            } catch (RuntimeException e) {
+                log.error("Failed to reconcile gateway rules for account {}", account.getAccountId(), e);
+            }
+        }
+        return reports;
+    }
+
+    public ReconcileReport reconcile(CloudflareAccount account, boolean repair) {
+        String accountId = account.getAccountId();
+        // Snapshot our side first: anything written after it is re-checked before being repaired
+        List<CloudflarePolicy> policies = policyRepository.findByCloudflareAccId(accountId);
+        Map<String, GatewayRule> rules = gatewayRuleMirror.refresh(account);
+
+        Map<String, CloudflarePolicy> policiesById = new HashMap<>();
+        Set<Integer> usersWithAllowAll = new HashSet<>();
+        for (CloudflarePolicy policy : policies) {
+            policiesById.put(policy.getId(), policy);
+            if (policy.isAllowAll()) usersWithAllowAll.add(policy.getUser().getId());
+        }
+
+        List<CloudflarePolicy> missing = new ArrayList<>();
+        List<CloudflarePolicy> drifted = new ArrayList<>();
+        for (CloudflarePolicy policy : policies) {
+            if (PolicyOutboxServiceImpl.isProvisional(policy.getId())) {
+                continue; // still queued in the outbox, there is no rule yet
+            }
+            GatewayRule rule = rules.get(policy.getId());
+            if (rule == null) {
+                missing.add(policy);
+            } else if (!Objects.equals(rule.action(), policy.getAction())
+                    || !Objects.equals(Objects.toString(rule.traffic(), ""), Objects.toString(policy.getTraffic(), ""))) {
+                drifted.add(policy);
+            }
+        }
+
+        List<GatewayRule> orphaned = new ArrayList<>();
+        Map<String, User> orphanOwners = new HashMap<>();
+        for (User user : userRepository.findByCloudflareAccountAccountId(accountId)) {
+            for (GatewayRule rule : rules.values()) {
+                if (!policiesById.containsKey(rule.id()) && isOwnedBy(rule, user)
+                        // an untracked allow-all rule is adopted by the allow-all sync, not deleted
+                        && !(user.getEmail().equals(rule.name()) && !usersWithAllowAll.contains(user.getId()))) {
+                    orphaned.add(rule);
+                    orphanOwners.put(rule.id(), user);
+                }
+            }
+        }
+
+        if (!missing.isEmpty() || !orphaned.isEmpty() || !drifted.isEmpty()) {
+            log.warn("Gateway rule drift in account {}: {} missing, {} orphaned, {} drifted",
+                    accountId, missing.size(), orphaned.size(), drifted.size());
+        }
+
+        int repaired = 0;
+        if (repair) {
+            HttpHeaders headers = makeApiCall.createHeaders(account.getAuthorizationToken());
+            String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, accountId);
+            for (CloudflarePolicy policy : missing) {
+                repaired += repairLocked(policy.getUser(), () -> repairMissing(policy.getId(), url, headers)) ? 1 : 0;
+            }
+            for (GatewayRule rule : orphaned) {
+                repaired += repairLocked(orphanOwners.get(rule.id()), () -> repairOrphan(accountId, rule, url, headers)) ? 1 : 0;
+            }
+            for (CloudflarePolicy policy : drifted) {
+                GatewayRule rule = rules.get(policy.getId());
+                repaired += repairLocked(policy.getUser(), () -> repairDrift(policy.getId(), rule, url, headers)) ? 1 : 0;
+            }
+            log.info("Repaired {} gateway rule(s) in account {}", repaired, accountId);
+        }
+
+        return new ReconcileReport(accountId, rules.size(),
+                missing.stream().map(CloudflarePolicy::getId).toList(),
+                orphaned.stream().map(GatewayRule::id).toList(),
+                drifted.stream().map(CloudflarePolicy::getId).toList(),
+                repaired);
+    }
+
+    /**
+     * Runs a repair under the user's lock in a transaction that takes its connection before the lock and commits
+     * before releasing it, as {@link AllowAllPolicySync} does: request threads hold their connection (open-in-view)
+     * while waiting for the lock. The user's policy snapshot is dropped after the commit.
+     */
+    private boolean repairLocked(User user, Supplier<Boolean> repair) {
+        TransactionStatus transaction = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+        try {
+            return userMutationLocks.call(user, () -> {
+                boolean repaired = repair.get();
+                transactionManager.commit(transaction);
+                if (repaired) {
+                    policySnapshotCache.invalidate(user);
+                }
+                return repaired;
+            });
+        } catch (RuntimeException e) {
+            if (!transaction.isCompleted()) {
+                transactionManager.rollback(transaction);
+            }
+            throw e;
+        }
+    }
+
+    private boolean repairMissing(String policyId, String url, HttpHeaders headers) {
+        CloudflarePolicy policy = policyRepository.findById(policyId).orElse(null);
+        if (policy == null) {
+            return false; // deleted since the snapshot
+        }
+        try {
+            if (policy.isAllowAll()) {
+                // Let the allow-all sync find or recreate it
+                policyRepository.delete(policy);
+                allowAllPolicySync.markDirty(policy.getUser());
+                return true;
+            }
+            Map<String, Object> requestBody = CloudflarePolicyServiceImpl.buildPolicyRequestBody(policy);
+            GatewayRule created = makeApiCall.exchange(url, HttpMethod.POST, new HttpEntity<>(requestBody, headers),
+                    GatewayRule.class).result();
+            gatewayRuleMirror.put(policy.getCloudflareAccId(), created);
+
+            String oldId = policy.getId();
+            policyRepository.delete(policy);
+            policyRepository.flush();
+            policy.setId(created.id());
+            policyRepository.save(policy);
+            allowAllTrafficIndex.apply(policy.getUser(), oldId, null);
+            allowAllTrafficIndex.apply(policy.getUser(), created.id(), TrafficExpressionCompiler.compiled(policy));
+            log.info("Recreated missing gateway rule {} as {}", oldId, created.id());
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Failed to recreate missing gateway rule {}", policy.getId(), e);
+            return false;
+        }
+    }
+
+    private boolean repairOrphan(String accountId, GatewayRule rule, String url, HttpHeaders headers) {
+        if (policyRepository.existsById(rule.id())) {
+            return false; // created since the snapshot
+        }
+        try {
+            CloudflareResponse<GatewayRule> response = makeApiCall.exchange(url + "/" + rule.id(), HttpMethod.DELETE,
+                    new HttpEntity<>(headers), GatewayRule.class);
+            if (response.success()) {
+                gatewayRuleMirror.remove(accountId, rule.id());
+                log.info("Deleted orphaned gateway rule {} ({})", rule.id(), rule.name());
+            }
+            return response.success();
+        } catch (RuntimeException e) {
+            log.error("Failed to delete orphaned gateway rule {}", rule.id(), e);
+            return false;
+        }
+    }
+
+    private boolean repairDrift(String policyId, GatewayRule rule, String url, HttpHeaders headers) {
+        CloudflarePolicy policy = policyRepository.findById(policyId).orElse(null);
+        if (policy == null) {
+            return false; // deleted since the snapshot
+        }
+        try {
+            if (policy.isAllowAll()) {
+                // The stored allow-all traffic mirrors Cloudflare; resyncing pushes the computed one again
+                policy.setTraffic(rule.traffic());
+                policyRepository.save(policy);
+                allowAllPolicySync.markDirty(policy.getUser());
+                return true;
+            }
+            Map<String, Object> requestBody = CloudflarePolicyServiceImpl.buildPolicyRequestBody(policy);
+            CloudflareResponse<GatewayRule> response = makeApiCall.exchange(url + "/" + policy.getId(), HttpMethod.PUT,
+                    new HttpEntity<>(requestBody, headers), GatewayRule.class);
+            gatewayRuleMirror.put(policy.getCloudflareAccId(), response.result());
+            return response.success();
+        } catch (RuntimeException e) {
+            log.error("Failed to overwrite drifted gateway rule {}", policy.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Rules we create are named {@code <email>} (allow-all) or {@code <email>-<8 hex chars>}.
+     */
+    private static boolean isOwnedBy(GatewayRule rule, User user) {
+        String name = rule.name();
+        String email = user.getEmail();
+        if (name == null || !name.startsWith(email)) {
+            return false;
+        }
+        return name.length() == email.length()
+                || name.length() == email.length() + 9 && name.charAt(email.length()) == '-'
+                && name.substring(email.length() + 1).chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+}
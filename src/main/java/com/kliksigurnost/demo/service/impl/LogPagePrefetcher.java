@@ -0,0 +1,132 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.helper.CloudflareRateLimiter;
+import com.kliksigurnost.demo.helper.LogCursor;
+import com.kliksigurnost.demo.model.CloudflareLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Loads the page after the one a user just got while they are still reading it, so following the cursor is
+ * answered from memory.
+ * <p>
+ * A prefetched page is handed out once and dropped after {@code cloudflare.logs.prefetch.ttl}; at most
+ * {@code max-entries} are held. Prefetches run on their own threads at background priority, so they yield to
+ * interactive calls when an account's Cloudflare budget runs low. A failed prefetch is simply a miss.
+ * <p>
+ * Metrics: {@code log.prefetch.requests} tagged {@code result=hit|miss}.
+ */
+@Slf4j
+@Component
+public class LogPagePrefetcher {
+
+    /**
+     * Everything a log page depends on, including the user's policy IDs, so a policy change misses.
+     */
+    public record PageKey(int userId, List<String> policyIds, String startDateTime, String endDateTime,
+                          boolean ascending, int pageSize, int resolverDecision, LogCursor after) {
+    }
+
+    private record Prefetch(CompletableFuture<List<CloudflareLog>> page, long expiresAt) {
+    }
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final Map<PageKey, Prefetch> prefetches = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public LogPagePrefetcher(MeterRegistry meterRegistry,
+                             @Value("${cloudflare.logs.prefetch.enabled:true}") boolean enabled,
+                             @Value("${cloudflare.logs.prefetch.ttl:30s}") Duration ttl,
+                             @Value("${cloudflare.logs.prefetch.max-entries:1000}") int maxEntries,
+                             @Value("${cloudflare.logs.prefetch.threads:2}") int threads) {
+        this.enabled = enabled;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "log-prefetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hits = Counter.builder("log.prefetch.requests")
+                .description("Log pages looked up among the prefetched ones")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("log.prefetch.requests")
+                .description("Log pages looked up among the prefetched ones")
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Takes the prefetched page for {@code key}, waiting for it if it's still loading.
+     */
+    public Optional<List<CloudflareLog>> take(PageKey key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Prefetch prefetch = prefetches.remove(key);
+        if (prefetch == null || prefetch.expiresAt() - System.nanoTime() < 0) {
+            misses.increment();
+            return Optional.empty();
+        }
+        try {
+            List<CloudflareLog> page = prefetch.page().get();
+            hits.increment();
+            return Optional.of(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.debug("Prefetch of a log page failed: {}", e.getCause().getMessage());
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Starts loading the page for {@code key} unless it is already loading or too many pages are held.
+     */
+    public void prefetch(PageKey key, Supplier<List<CloudflareLog>> loader) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (prefetches.size() >= maxEntries) {
+            prefetches.values().removeIf(prefetch -> prefetch.expiresAt() - now < 0);
+            if (prefetches.size() >= maxEntries) {
+                return;
+            }
+        }
+        prefetches.computeIfAbsent(key, k -> new Prefetch(
+                CompletableFuture.supplyAsync(() -> CloudflareRateLimiter.runInBackground(loader), workers),
+                now + ttlNanos));
+    }
+}
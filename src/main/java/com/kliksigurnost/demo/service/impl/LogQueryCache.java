@@ -0,0 +1,215 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.model.cloudflare.GatewayResolverQueries;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Results of GraphQL log queries, so repeating a query (a dashboard refresh, flipping back to a filter) doesn't
+ * spend the account's GraphQL quota again.
+ * <p>
+ * A window that ended more than {@code cloudflare.logs.query-cache.closed-after} ago no longer changes and is kept
+ * for {@code closed-ttl}; a window still open is kept for {@code open-ttl}. So that refreshes of a "last N hours"
+ * view share an entry, timestamps are normalized first: an end within {@code granularity} of now is rounded up to
+ * the next multiple of it (Cloudflare's analytics trail real time by more than that), and the start of a
+ * newest-first query is rounded down, the extra rows being dropped again before the result is returned. Entries
+ * are evicted least recently used first once they hold more than {@code max-bytes}.
+ * <p>
+ * Metrics: {@code log.query.cache.requests} tagged {@code result=hit|miss}, {@code log.query.cache.hit.ratio},
+ * {@code log.query.cache.bytes} and {@code log.query.cache.entries}.
+ */
+@Component
+public class LogQueryCache {
+
+    /**
+     * One GraphQL log query: rows in {@code (start, end)}, additionally from {@code geq} or up to {@code leq} when
+     * set, of the given policies (all of the account's when empty).
+     */
+    public record Query(String accountId, Instant start, Instant end, Instant geq, Instant leq,
+                        List<String> policyIds, int resolverDecision, boolean ascending, long limit) {
+    }
+
+    private record Entry(List<GatewayResolverQueries.Group> groups, long bytes, long expiresAt) {
+    }
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final Duration closedAfter;
+    private final long closedTtlNanos;
+    private final long openTtlNanos;
+    private final long granularitySeconds;
+
+    // Access-ordered, guarded by itself
+    private final LinkedHashMap<Query, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public LogQueryCache(MeterRegistry meterRegistry,
+                         @Value("${cloudflare.logs.query-cache.enabled:true}") boolean enabled,
+                         @Value("${cloudflare.logs.query-cache.max-bytes:64MB}") DataSize maxBytes,
+                         @Value("${cloudflare.logs.query-cache.closed-after:5m}") Duration closedAfter,
+                         @Value("${cloudflare.logs.query-cache.closed-ttl:1h}") Duration closedTtl,
+                         @Value("${cloudflare.logs.query-cache.open-ttl:30s}") Duration openTtl,
+                         @Value("${cloudflare.logs.query-cache.granularity:10s}") Duration granularity) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes.toBytes();
+        this.closedAfter = closedAfter;
+        this.closedTtlNanos = closedTtl.toNanos();
+        this.openTtlNanos = openTtl.toNanos();
+        this.granularitySeconds = Math.max(1, granularity.toSeconds());
+
+        this.hits = Counter.builder("log.query.cache.requests")
+                .description("GraphQL log queries looked up in the result cache")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("log.query.cache.requests")
+                .description("GraphQL log queries looked up in the result cache")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("log.query.cache.hit.ratio", this, LogQueryCache::hitRatio)
+                .description("Share of GraphQL log queries answered from the result cache")
+                .register(meterRegistry);
+        Gauge.builder("log.query.cache.bytes", this, LogQueryCache::bytes)
+                .description("Estimated size of the cached GraphQL log results")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("log.query.cache.entries", this, LogQueryCache::size)
+                .description("Cached GraphQL log results")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The groups {@code query} returns, cached or from {@code loader}, which is handed the normalized query.
+     */
+    public List<GatewayResolverQueries.Group> groups(Query query,
+                                                     Function<Query, List<GatewayResolverQueries.Group>> loader) {
+        if (!enabled) {
+            return loader.apply(query);
+        }
+        Instant now = Instant.now();
+        Query key = normalize(query, now);
+
+        List<GatewayResolverQueries.Group> groups = lookup(key);
+        if (groups != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            groups = loader.apply(key);
+            boolean closed = key.end().isBefore(now.minus(closedAfter));
+            store(key, groups, closed ? closedTtlNanos : openTtlNanos);
+        }
+
+        if (key.start().equals(query.start())) {
+            return groups;
+        }
+        return groups.stream()
+                .filter(group -> Instant.parse(group.dimensions().datetime()).isAfter(query.start()))
+                .toList();
+    }
+
+    private Query normalize(Query query, Instant now) {
+        // Rows are whole seconds, so (start, end) means the same with start truncated and end rounded up
+        Instant start = query.start().truncatedTo(ChronoUnit.SECONDS);
+        Instant end = ceil(query.end(), 1);
+        if (!end.isBefore(now.minusSeconds(granularitySeconds))) {
+            end = ceil(now, granularitySeconds);
+        }
+        if (!query.ascending()) {
+            // Newest first, the rows before the requested start can only trail the page, where they are cut off
+            start = Instant.ofEpochSecond(Math.floorDiv(start.getEpochSecond(), granularitySeconds) * granularitySeconds);
+        }
+        return new Query(query.accountId(), start, end, query.geq(), query.leq(),
+                query.policyIds().stream().distinct().sorted().toList(), query.resolverDecision(), query.ascending(),
+                query.limit());
+    }
+
+    private static Instant ceil(Instant instant, long seconds) {
+        long epochSecond = instant.getEpochSecond() + (instant.getNano() > 0 ? 1 : 0);
+        return Instant.ofEpochSecond(Math.floorDiv(epochSecond + seconds - 1, seconds) * seconds);
+    }
+
+    private List<GatewayResolverQueries.Group> lookup(Query key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt() - System.nanoTime() < 0) {
+                entries.remove(key);
+                bytes -= entry.bytes();
+                return null;
+            }
+            return entry.groups();
+        }
+    }
+
+    private void store(Query key, List<GatewayResolverQueries.Group> groups, long ttlNanos) {
+        long size = estimateBytes(groups);
+        if (size > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(List.copyOf(groups), size, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            bytes += size - (previous != null ? previous.bytes() : 0);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Rough heap footprint of the groups: object headers plus two bytes per character.
+     */
+    private static long estimateBytes(List<GatewayResolverQueries.Group> groups) {
+        long size = 64;
+        for (GatewayResolverQueries.Group group : groups) {
+            GatewayResolverQueries.Dimensions dimensions = group.dimensions();
+            size += 160 + chars(dimensions.datetime()) + chars(dimensions.matchedApplicationName())
+                    + chars(dimensions.policyId()) + chars(dimensions.policyName()) + chars(dimensions.queryName());
+            if (dimensions.categoryNames() != null) {
+                for (String name : dimensions.categoryNames()) {
+                    size += chars(name);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long chars(String value) {
+        return value != null ? 40 + 2L * value.length() : 0;
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total > 0 ? hits.count() / total : 0;
+    }
+
+    private long bytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.exception.LimitReached;
+import com.kliksigurnost.demo.exception.NotFoundException;
+import com.kliksigurnost.demo.exception.UnauthorizedAccessException;
+import com.kliksigurnost.demo.helper.AllowAllTrafficIndex;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
+import com.kliksigurnost.demo.helper.TrafficExpressionCompiler;
+import com.kliksigurnost.demo.helper.UserMutationLocks;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.PolicyBatchOperation;
+import com.kliksigurnost.demo.model.PolicyBatchResult;
+import com.kliksigurnost.demo.model.PolicyOutboxEntry;
+import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import com.kliksigurnost.demo.repository.PolicyOutboxRepository;
+import com.kliksigurnost.demo.service.PolicyOutboxService;
+import com.kliksigurnost.demo.service.UserService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Outbox mode for policy mutations ({@code cloudflare.policies.outbox.enabled=true}).
+ * <p>
+ * The request only records the change: the policy row (the user's intent) and an outbox entry are written in one
+ * local transaction and the caller gets the entry back to poll. {@link PolicyOutboxWorker} applies entries to
+ * Cloudflare later. New policies get a provisional ID ({@value #PROVISIONAL_ID_PREFIX}...) until Cloudflare has
+ * created the rule.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PolicyOutboxServiceImpl implements PolicyOutboxService {
+
+    public static final String PROVISIONAL_ID_PREFIX = "pending-";
+
+    private final CloudflarePolicyRepository policyRepository;
+    private final PolicyOutboxRepository outboxRepository;
+    private final UserService userService;
+    private final AllowAllTrafficIndex allowAllTrafficIndex;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final UserMutationLocks userMutationLocks;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Environment env;
+
+    @Value("${cloudflare.policies.outbox.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cloudflare.policies.batch.max-size:20}")
+    private int maxBatchSize;
+
+    public static boolean isProvisional(String policyId) {
+        return policyId != null && policyId.startsWith(PROVISIONAL_ID_PREFIX);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public PolicyOutboxEntry enqueueCreate(CloudflarePolicy policy) {
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user, () -> enqueueCreate(policy, user));
+    }
+
+    private PolicyOutboxEntry enqueueCreate(CloudflarePolicy policy, User user) {
+        if (policySnapshotCache.count(user) >= 10) {
+            throw new LimitReached(env.getProperty("policy-limit-exceeded"));
+        }
+        policy.setId(PROVISIONAL_ID_PREFIX + UUID.randomUUID());
+        policy.setUser(user);
+        policy.setCloudflareAccId(user.getCloudflareAccount().getAccountId());
+        policy.setName(CloudflarePolicyServiceImpl.generatePolicyName(user));
+        policy.setCompiledTraffic(TrafficExpressionCompiler.parseOrEmpty(policy.getTraffic()));
+
+        PolicyOutboxEntry entry = record(user, PolicyOutboxEntry.Operation.CREATE, policy.getId(),
+                () -> policyRepository.save(policy));
+        allowAllTrafficIndex.apply(user, policy.getId(), policy.getCompiledTraffic());
+        return entry;
+    }
+
+    @Override
+    public PolicyOutboxEntry enqueueUpdate(String policyId, CloudflarePolicy updatedPolicy) {
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user, () -> enqueueUpdate(policyId, updatedPolicy, user));
+    }
+
+    private PolicyOutboxEntry enqueueUpdate(String policyId, CloudflarePolicy updatedPolicy, User user) {
+        CloudflarePolicy existingPolicy = policyRepository.findById(policyId)
+                .orElseThrow(() -> new NotFoundException(env.getProperty("policy-not-found")));
+
+        if (!existingPolicy.getUser().equals(user)) {
+            throw new UnauthorizedAccessException(env.getProperty("policy-unauthorized-update"));
+        }
+
+        existingPolicy.setAction(updatedPolicy.getAction());
+        existingPolicy.setName(updatedPolicy.getName());
+        existingPolicy.setTraffic(updatedPolicy.getTraffic());
+        existingPolicy.setCompiledTraffic(TrafficExpressionCompiler.parseOrEmpty(updatedPolicy.getTraffic()));
+        existingPolicy.setSchedule(updatedPolicy.getSchedule());
+        existingPolicy.setCompiledSchedule(null);
+
+        PolicyOutboxEntry entry = record(user, PolicyOutboxEntry.Operation.UPDATE, policyId,
+                () -> policyRepository.save(existingPolicy));
+        allowAllTrafficIndex.apply(user, policyId, existingPolicy.getCompiledTraffic());
+        return entry;
+    }
+
+    @Override
+    public PolicyOutboxEntry enqueueDelete(String policyId) {
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user, () -> enqueueDelete(policyId, user));
+    }
+
+    private PolicyOutboxEntry enqueueDelete(String policyId, User user) {
+        CloudflarePolicy policy = policyRepository.findById(policyId)
+                .orElseThrow(() -> new NotFoundException(env.getProperty("policy-not-found")));
+
+        if (!policy.getUser().equals(user)) {
+            throw new UnauthorizedAccessException(env.getProperty("policy-unauthorized-delete"));
+        }
+
+        PolicyOutboxEntry entry = record(user, PolicyOutboxEntry.Operation.DELETE, policyId,
+                () -> policyRepository.delete(policy));
+        allowAllTrafficIndex.apply(user, policyId, null);
+        return entry;
+    }
+
+    @Override
+    public List<PolicyBatchResult> enqueueBatch(List<PolicyBatchOperation> operations) {
+        if (operations == null || operations.isEmpty() || operations.size() > maxBatchSize) {
+            throw new IllegalArgumentException(env.getProperty("policy-batch-size"));
+        }
+        User user = userService.getCurrentUser();
+        return userMutationLocks.call(user, () -> enqueueBatch(operations, user));
+    }
+
+    /**
+     * Records each operation like its single-item counterpart, in request order; an operation that fails doesn't
+     * stop the others. The policy limit is checked for the whole batch up front.
+     */
+    private List<PolicyBatchResult> enqueueBatch(List<PolicyBatchOperation> operations, User user) {
+        long creates = operations.stream().filter(o -> o.getType() == PolicyBatchOperation.Type.CREATE).count();
+        long deletes = operations.stream().filter(o -> o.getType() == PolicyBatchOperation.Type.DELETE).count();
+        if (policySnapshotCache.count(user) + creates - deletes > 10) {
+            throw new LimitReached(env.getProperty("policy-limit-exceeded"));
+        }
+
+        List<PolicyBatchResult> results = new ArrayList<>(operations.size());
+        Set<String> targeted = new HashSet<>();
+        for (int i = 0; i < operations.size(); i++) {
+            PolicyBatchOperation operation = operations.get(i);
+            PolicyBatchResult.PolicyBatchResultBuilder result = PolicyBatchResult.builder()
+                    .index(i)
+                    .type(operation.getType())
+                    .policyId(operation.getPolicyId());
+            PolicyBatchOperation.Type type = operation.getType();
+            if (type == null || type != PolicyBatchOperation.Type.DELETE && operation.getPolicy() == null
+                    || type != PolicyBatchOperation.Type.CREATE && !targeted.add(String.valueOf(operation.getPolicyId()))) {
+                results.add(result.status(HttpStatus.BAD_REQUEST.value())
+                        .message(env.getProperty("policy-batch-invalid")).build());
+                continue;
+            }
+            try {
+                PolicyOutboxEntry entry = switch (type) {
+                    case CREATE -> enqueueCreate(operation.getPolicy(), user);
+                    case UPDATE -> enqueueUpdate(operation.getPolicyId(), operation.getPolicy(), user);
+                    case DELETE -> enqueueDelete(operation.getPolicyId(), user);
+                };
+                results.add(result.policyId(entry.getPolicyId())
+                        .outboxEntryId(entry.getId())
+                        .status(HttpStatus.ACCEPTED.value())
+                        .build());
+            } catch (NotFoundException e) {
+                results.add(result.status(HttpStatus.NOT_FOUND.value()).message(e.getMessage()).build());
+            } catch (UnauthorizedAccessException e) {
+                results.add(result.status(HttpStatus.FORBIDDEN.value()).message(e.getMessage()).build());
+            } catch (LimitReached e) {
+                results.add(result.status(HttpStatus.CONFLICT.value()).message(e.getMessage()).build());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public PolicyOutboxEntry getEntry(Long entryId) {
+        return outboxRepository.findByIdAndUserId(entryId, userService.getCurrentUser().getId())
+                .orElseThrow(() -> new NotFoundException(env.getProperty("outbox-entry-not-found")));
+    }
+
+    @Override
+    public List<PolicyOutboxEntry> getEntries() {
+        return outboxRepository.findTop50ByUserIdOrderByIdDesc(userService.getCurrentUser().getId());
+    }
+
+    /**
+     * Applies {@code policyChange} and stores the outbox entry for it in one transaction.
+     */
+    private PolicyOutboxEntry record(User user, PolicyOutboxEntry.Operation operation, String policyId,
+                                     Runnable policyChange) {
+        Instant now = Instant.now();
+        PolicyOutboxEntry entry = PolicyOutboxEntry.builder()
+                .userId(user.getId())
+                .operation(operation)
+                .policyId(policyId)
+                .status(PolicyOutboxEntry.Status.PENDING)
+                .createdAt(now)
+                .updatedAt(now)
+                .nextAttemptAt(now)
+                .build();
+        PolicyOutboxEntry saved = transactionTemplate.execute(status -> {
+            policyChange.run();
+            return outboxRepository.save(entry);
+        });
+        policySnapshotCache.invalidate(user);
+        return saved;
+    }
+}
@@ -0,0 +1,355 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.exception.CloudflareApiException;
+import com.kliksigurnost.demo.helper.AllowAllTrafficIndex;
+import com.kliksigurnost.demo.helper.MakeApiCall;
+import com.kliksigurnost.demo.helper.PolicySnapshotCache;
+import com.kliksigurnost.demo.helper.TrafficExpressionCompiler;
+import com.kliksigurnost.demo.helper.UserMutationLocks;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.PolicyOutboxEntry;
+import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.model.cloudflare.CloudflareResponse;
+import com.kliksigurnost.demo.model.cloudflare.GatewayRule;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import com.kliksigurnost.demo.repository.PolicyOutboxRepository;
+import com.kliksigurnost.demo.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Drains the policy outbox to Cloudflare.
+ * <p>
+ * Every poll dispatches the oldest pending entry of each user that has nothing in progress, so a user's changes
+ * are applied in order while different users proceed in parallel on {@code cloudflare.policies.outbox.threads}
+ * workers. Failures that may be transient (I/O, 429, 5xx) are retried with exponential backoff up to
+ * {@code max-attempts}; other failures, and retries that run out, leave the entry {@code FAILED}. Entries that were
+ * in progress when the application stopped are picked up again on startup, so a create may be replayed; the
+ * resulting duplicate rule is reported as an orphan by {@link GatewayRuleReconciler}.
+ * <p>
+ * Each entry applies the policy's current local state, so an entry whose policy has since been deleted locally
+ * has nothing left to do.
+ */
+@Slf4j
+@Component
+public class PolicyOutboxWorker {
+
+    private static final String GATEWAY_RULES_ENDPOINT = "accounts/{account_id}/gateway/rules";
+
+    private final MakeApiCall makeApiCall;
+    private final CloudflarePolicyRepository policyRepository;
+    private final PolicyOutboxRepository outboxRepository;
+    private final UserRepository userRepository;
+    private final AllowAllTrafficIndex allowAllTrafficIndex;
+    private final PolicySnapshotCache policySnapshotCache;
+    private final AllowAllPolicySync allowAllPolicySync;
+    private final GatewayRuleMirror gatewayRuleMirror;
+    private final GatewayDomainLists gatewayDomainLists;
+    private final PlatformTransactionManager transactionManager;
+    private final UserMutationLocks userMutationLocks;
+
+    private final boolean enabled;
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+    private final Duration retention;
+
+    private final ExecutorService workers;
+    private final Set<Integer> busyUsers = ConcurrentHashMap.newKeySet();
+
+    public PolicyOutboxWorker(MakeApiCall makeApiCall,
+                              CloudflarePolicyRepository policyRepository,
+                              PolicyOutboxRepository outboxRepository,
+                              UserRepository userRepository,
+                              AllowAllTrafficIndex allowAllTrafficIndex,
+                              PolicySnapshotCache policySnapshotCache,
+                              AllowAllPolicySync allowAllPolicySync,
+                              GatewayRuleMirror gatewayRuleMirror,
+                              GatewayDomainLists gatewayDomainLists,
+                              PlatformTransactionManager transactionManager,
+                              UserMutationLocks userMutationLocks,
+                              @Value("${cloudflare.policies.outbox.enabled:false}") boolean enabled,
+                              @Value("${cloudflare.policies.outbox.threads:4}") int threads,
+                              @Value("${cloudflare.policies.outbox.max-attempts:8}") int maxAttempts,
+                              @Value("${cloudflare.policies.outbox.base-backoff:1s}") Duration baseBackoff,
+                              @Value("${cloudflare.policies.outbox.max-backoff:5m}") Duration maxBackoff,
+                              @Value("${cloudflare.policies.outbox.retention:7d}") Duration retention) {
+        this.makeApiCall = makeApiCall;
+        this.policyRepository = policyRepository;
+        this.outboxRepository = outboxRepository;
+        this.userRepository = userRepository;
+        this.allowAllTrafficIndex = allowAllTrafficIndex;
+        this.policySnapshotCache = policySnapshotCache;
+        this.allowAllPolicySync = allowAllPolicySync;
+        this.gatewayRuleMirror = gatewayRuleMirror;
+        this.gatewayDomainLists = gatewayDomainLists;
+        this.transactionManager = transactionManager;
+        this.userMutationLocks = userMutationLocks;
+        this.enabled = enabled;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+        this.retention = retention;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "policy-outbox-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterrupted() {
+        int recovered = outboxRepository.updateStatus(PolicyOutboxEntry.Status.IN_PROGRESS, PolicyOutboxEntry.Status.PENDING);
+        if (recovered > 0) {
+            log.warn("Re-queued {} policy outbox entries interrupted by a restart", recovered);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cloudflare.policies.outbox.poll-interval-ms:500}")
+    public void dispatch() {
+        if (!enabled) {
+            return;
+        }
+        Instant now = Instant.now();
+        Set<Integer> seen = new HashSet<>();
+        for (PolicyOutboxEntry entry : outboxRepository.findTop500ByStatusOrderByIdAsc(PolicyOutboxEntry.Status.PENDING)) {
+            // Only the head of each user's queue is eligible
+            if (!seen.add(entry.getUserId()) || entry.getNextAttemptAt().isAfter(now)
+                    || !busyUsers.add(entry.getUserId())) {
+                continue;
+            }
+            entry.setStatus(PolicyOutboxEntry.Status.IN_PROGRESS);
+            entry.setUpdatedAt(now);
+            outboxRepository.save(entry);
+            workers.execute(() -> {
+                try {
+                    process(entry);
+                } finally {
+                    busyUsers.remove(entry.getUserId());
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cloudflare.policies.outbox.purge-interval-ms:3600000}")
+    public void purge() {
+        long purged = outboxRepository.deleteByStatusAndUpdatedAtBefore(PolicyOutboxEntry.Status.SUCCEEDED,
+                Instant.now().minus(retention));
+        if (purged > 0) {
+            log.debug("Purged {} applied policy outbox entries", purged);
+        }
+    }
+
+    /**
+     * Blocks until nothing is pending or in progress, or the timeout passes.
+     *
+     * @return whether the outbox drained in time
+     */
+    public boolean awaitDrained(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (busyUsers.isEmpty()
+                    && outboxRepository.findTop500ByStatusOrderByIdAsc(PolicyOutboxEntry.Status.PENDING).isEmpty()
+                    && outboxRepository.findTop500ByStatusOrderByIdAsc(PolicyOutboxEntry.Status.IN_PROGRESS).isEmpty()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    void process(PolicyOutboxEntry entry) {
+        User user = userRepository.findById(entry.getUserId()).orElse(null);
+        if (user == null) {
+            finish(entry, PolicyOutboxEntry.Status.FAILED, "User no longer exists");
+            return;
+        }
+        try {
+            switch (entry.getOperation()) {
+                case CREATE -> create(entry, user);
+                case UPDATE -> update(entry, user);
+                case DELETE -> delete(entry, user);
+            }
+            finish(entry, PolicyOutboxEntry.Status.SUCCEEDED, null);
+            allowAllPolicySync.markDirty(user);
+        } catch (RuntimeException e) {
+            entry.setAttempts(entry.getAttempts() + 1);
+            if (retryable(e) && entry.getAttempts() < maxAttempts) {
+                Duration backoff = baseBackoff.multipliedBy(1L << Math.min(entry.getAttempts() - 1, 20));
+                entry.setNextAttemptAt(Instant.now().plus(backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff));
+                log.warn("Policy outbox entry {} failed (attempt {}), retrying: {}", entry.getId(), entry.getAttempts(), e.getMessage());
+                finish(entry, PolicyOutboxEntry.Status.PENDING, e.getMessage());
+            } else {
+                log.error("Policy outbox entry {} failed permanently after {} attempt(s)", entry.getId(), entry.getAttempts(), e);
+                abandon(entry, user);
+                finish(entry, PolicyOutboxEntry.Status.FAILED, e.getMessage());
+            }
+        }
+    }
+
+    private void create(PolicyOutboxEntry entry, User user) {
+        CloudflarePolicy policy = policyRepository.findById(entry.getPolicyId()).orElse(null);
+        if (policy == null) {
+            return; // deleted before it reached Cloudflare
+        }
+        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, user.getCloudflareAccount().getAccountId());
+        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(CloudflarePolicyServiceImpl.buildPolicyRequestBody(policy), headers);
+
+        GatewayRule rule = makeApiCall.exchange(url, HttpMethod.POST, entity, GatewayRule.class).result();
+
+        // Swap the provisional ID for the rule's, including in this user's later entries. Under the user's lock so
+        // a change enqueued meanwhile is either remapped here or sees the new ID
+        String provisionalId = policy.getId();
+        runLocked(user, () -> {
+            CloudflarePolicy current = policyRepository.findById(provisionalId).orElse(null);
+            if (current != null) {
+                policyRepository.deleteById(provisionalId);
+                policyRepository.flush();
+                current.setId(rule.id());
+                policyRepository.save(current);
+            }
+            // Deleted while the POST was in flight: its queued DELETE now removes the new rule
+            outboxRepository.remapPolicyId(provisionalId, rule.id(), PolicyOutboxEntry.Status.PENDING);
+            return current;
+        }, current -> {
+            policySnapshotCache.invalidate(user);
+            allowAllTrafficIndex.apply(user, provisionalId, null);
+            if (current != null) {
+                allowAllTrafficIndex.apply(user, rule.id(), TrafficExpressionCompiler.compiled(current));
+            }
+        });
+        entry.setPolicyId(rule.id());
+        gatewayRuleMirror.put(user.getCloudflareAccount().getAccountId(), rule);
+    }
+
+    private void update(PolicyOutboxEntry entry, User user) {
+        CloudflarePolicy policy = policyRepository.findById(entry.getPolicyId()).orElse(null);
+        if (policy == null || PolicyOutboxServiceImpl.isProvisional(policy.getId())) {
+            return; // deleted since, or its create failed
+        }
+        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, user.getCloudflareAccount().getAccountId()) + "/" + policy.getId();
+        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(CloudflarePolicyServiceImpl.buildPolicyRequestBody(policy), headers);
+
+        CloudflareResponse<GatewayRule> response = makeApiCall.exchange(url, HttpMethod.PUT, entity, GatewayRule.class);
+        gatewayRuleMirror.put(user.getCloudflareAccount().getAccountId(), response.result());
+        runLocked(user, () -> gatewayDomainLists.deleteUnreferenced(user));
+    }
+
+    private void delete(PolicyOutboxEntry entry, User user) {
+        if (PolicyOutboxServiceImpl.isProvisional(entry.getPolicyId())) {
+            return; // never made it to Cloudflare
+        }
+        String accountId = user.getCloudflareAccount().getAccountId();
+        String url = makeApiCall.buildUrl(GATEWAY_RULES_ENDPOINT, accountId) + "/" + entry.getPolicyId();
+        HttpHeaders headers = makeApiCall.createHeaders(user.getCloudflareAccount().getAuthorizationToken());
+        try {
+            makeApiCall.exchange(url, HttpMethod.DELETE, new HttpEntity<>(headers), GatewayRule.class);
+        } catch (CloudflareApiException e) {
+            if (e.getStatusCode() == null || e.getStatusCode().value() != HttpStatus.NOT_FOUND.value()) {
+                throw e;
+            }
+            // already gone, e.g. a replay after a restart
+        }
+        gatewayRuleMirror.remove(accountId, entry.getPolicyId());
+        // A deleted domain-list policy's list can go once its rule no longer refers to it
+        runLocked(user, () -> gatewayDomainLists.deleteUnreferenced(user));
+    }
+
+    /**
+     * A create that can't be applied is withdrawn locally, so the user's policy list matches Cloudflare again.
+     * Failed updates and deletes keep the local intent and show up as drift in the reconcile report.
+     */
+    private void abandon(PolicyOutboxEntry entry, User user) {
+        if (entry.getOperation() == PolicyOutboxEntry.Operation.CREATE
+                && PolicyOutboxServiceImpl.isProvisional(entry.getPolicyId())) {
+            runLocked(user, () -> {
+                policyRepository.findById(entry.getPolicyId()).ifPresent(policyRepository::delete);
+                return null;
+            }, ignored -> {
+                policySnapshotCache.invalidate(user);
+                allowAllTrafficIndex.apply(user, entry.getPolicyId(), null);
+            });
+            allowAllPolicySync.markDirty(user);
+        }
+    }
+
+    private void runLocked(User user, Runnable work) {
+        runLocked(user, () -> {
+            work.run();
+            return null;
+        }, ignored -> {
+        });
+    }
+
+    /**
+     * Runs {@code work} under the user's lock in a transaction that takes its connection before the lock and commits
+     * before releasing it, as {@link AllowAllPolicySync} does: request threads hold their connection (open-in-view)
+     * while waiting for the lock. {@code afterCommit} gets the work's result and still runs under the lock.
+     */
+    private <T> void runLocked(User user, Supplier<T> work, Consumer<T> afterCommit) {
+        TransactionStatus transaction = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+        try {
+            userMutationLocks.run(user, () -> {
+                T result = work.get();
+                transactionManager.commit(transaction);
+                afterCommit.accept(result);
+            });
+        } catch (RuntimeException e) {
+            if (!transaction.isCompleted()) {
+                transactionManager.rollback(transaction);
+            }
+            throw e;
+        }
+    }
+
+    private void finish(PolicyOutboxEntry entry, PolicyOutboxEntry.Status status, String error) {
+        entry.setStatus(status);
+        entry.setLastError(error);
+        entry.setUpdatedAt(Instant.now());
+        outboxRepository.save(entry);
+    }
+
+    private static boolean retryable(RuntimeException e) {
+        if (!(e instanceof CloudflareApiException apiException)) {
+            return false;
+        }
+        HttpStatusCode status = apiException.getStatusCode();
+        return status == null || status.is5xxServerError() || status.value() == HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+}
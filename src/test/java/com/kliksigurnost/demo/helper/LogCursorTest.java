@@ -0,0 +1,73 @@
+package com.kliksigurnost.demo.helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogCursorTest {
+
+    private static final Instant DATETIME = Instant.parse("2026-03-29T01:00:00Z");
+
+    @Test
+    void decodesWhatItEncodes() {
+        LogCursor local = LogCursor.local(DATETIME, "policy-1", "example.com", 42);
+        LogCursor graphql = LogCursor.graphql(DATETIME, "policy-2", "", 3);
+
+        assertEquals(local, LogCursor.decode(local.encode()));
+        assertEquals(graphql, LogCursor.decode(graphql.encode()));
+    }
+
+    @Test
+    void encodesUrlSafely() {
+        String encoded = LogCursor.local(DATETIME, "policy-1", "a.b?c=d&e=f/g+h", Long.MAX_VALUE).encode();
+
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThrows(IllegalArgumentException.class, () -> LogCursor.decode("not a cursor!"));
+        assertThrows(IllegalArgumentException.class, () -> LogCursor.decode(plain("1\nLOCAL\n1774746000\np\nq")));
+        assertThrows(IllegalArgumentException.class, () -> LogCursor.decode(plain("2\nLOCAL\n1774746000\np\nq\n1")));
+        assertThrows(IllegalArgumentException.class, () -> LogCursor.decode(plain("1\nOTHER\n1774746000\np\nq\n1")));
+        assertThrows(IllegalArgumentException.class, () -> LogCursor.decode(plain("1\nLOCAL\nyesterday\np\nq\n1")));
+        assertThrows(IllegalArgumentException.class, () -> LogCursor.decode(plain("1\nLOCAL\n1774746000\np\nq\nnull")));
+    }
+
+    @Test
+    void legacyCursorNeedsBothParameters() {
+        assertNull(LogCursor.legacy(null, "policy-1"));
+        assertNull(LogCursor.legacy("2026-03-29T01:00:00Z", null));
+
+        LogCursor legacy = LogCursor.legacy("2026-03-29T01:00:00Z", "policy-1");
+
+        assertEquals(new LogCursor(null, DATETIME, "policy-1", null, null), legacy);
+        assertFalse(legacy.hasOrdinal());
+        assertSame(legacy, legacy.forLocalStore());
+        assertThrows(IllegalArgumentException.class, () -> LogCursor.legacy("29.03.2026", "policy-1"));
+    }
+
+    @Test
+    void onlyGraphqlCursorsCarryAnOrdinal() {
+        LogCursor local = LogCursor.local(DATETIME, "policy-1", "example.com", 42);
+        LogCursor graphql = LogCursor.graphql(DATETIME, "policy-1", "example.com", 3);
+
+        assertFalse(local.hasOrdinal());
+        assertTrue(graphql.hasOrdinal());
+        assertSame(local, local.forLocalStore());
+        assertEquals(new LogCursor(null, DATETIME, "policy-1", "example.com", null), graphql.forLocalStore());
+    }
+
+    private static String plain(String fields) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(fields.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,144 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.model.Schedule;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScheduleIndexTest {
+
+    // Europe/Belgrade in 2026: CET (+01:00) until 2026-03-29T01:00Z, CEST (+02:00) until 2026-10-25T01:00Z
+    private static final String BELGRADE = "Europe/Belgrade";
+
+    @Test
+    void noScheduleIsAlwaysActive() {
+        ScheduleIndex index = ScheduleCompiler.compile(null);
+
+        assertTrue(index.isActiveAt(at("2026-01-05T12:00:00Z")));
+        assertNull(index.nextTransition(at("2026-01-05T12:00:00Z")));
+        assertTrue(ScheduleCompiler.compile(new Schedule()).isActiveAt(at("2026-01-05T12:00:00Z")));
+    }
+
+    @Test
+    void usesTheOffsetInForceOnEachSideOfDaylightSavingTime() {
+        ScheduleIndex index = ScheduleCompiler.compile(Schedule.builder()
+                .mon("08:00-17:00")
+                .timeZone(BELGRADE)
+                .build());
+
+        // Monday 2026-03-23, CET
+        assertFalse(index.isActiveAt(at("2026-03-23T06:59:59Z")));
+        assertTrue(index.isActiveAt(at("2026-03-23T07:00:00Z")));
+        assertTrue(index.isActiveAt(at("2026-03-23T15:59:59Z")));
+        assertFalse(index.isActiveAt(at("2026-03-23T16:00:00Z")));
+        // Monday 2026-03-30, CEST
+        assertFalse(index.isActiveAt(at("2026-03-30T05:59:59Z")));
+        assertTrue(index.isActiveAt(at("2026-03-30T06:00:00Z")));
+        assertFalse(index.isActiveAt(at("2026-03-30T15:00:00Z")));
+        // Tuesday has no ranges
+        assertFalse(index.isActiveAt(at("2026-03-31T10:00:00Z")));
+    }
+
+    @Test
+    void nextTransitionUsesTheNewOffsetAfterSpringForward() {
+        ScheduleIndex index = ScheduleCompiler.compile(Schedule.builder()
+                .mon("08:00-17:00")
+                .timeZone(BELGRADE)
+                .build());
+
+        // From Saturday in CET the index alone would say 07:00Z; the clocks go forward on Sunday first
+        assertEquals(at("2026-03-30T06:00:00Z"), index.nextTransition(at("2026-03-28T12:00:00Z")));
+        assertEquals(at("2026-03-30T15:00:00Z"), index.nextTransition(at("2026-03-30T06:00:00Z")));
+    }
+
+    @Test
+    void springForwardCanSwitchThePolicyOn() {
+        // Local 02:30 doesn't exist on 2026-03-29: at 01:00Z the clocks jump from 02:00 to 03:00, inside the range
+        ScheduleIndex index = ScheduleCompiler.compile(Schedule.builder()
+                .sun("02:30-04:00")
+                .timeZone(BELGRADE)
+                .build());
+
+        assertFalse(index.isActiveAt(at("2026-03-29T00:59:59Z")));
+        assertTrue(index.isActiveAt(at("2026-03-29T01:00:00Z")));
+        assertEquals(at("2026-03-29T01:00:00Z"), index.nextTransition(at("2026-03-29T00:00:00Z")));
+        assertEquals(at("2026-03-29T02:00:00Z"), index.nextTransition(at("2026-03-29T01:00:00Z")));
+    }
+
+    @Test
+    void fallBackRepeatsTheRangeWithoutAFlip() {
+        // Local 02:00-03:00 happens twice on 2026-10-25: 00:00Z-01:00Z in CEST, then 01:00Z-02:00Z in CET
+        ScheduleIndex index = ScheduleCompiler.compile(Schedule.builder()
+                .sun("02:00-03:00")
+                .timeZone(BELGRADE)
+                .build());
+
+        assertFalse(index.isActiveAt(at("2026-10-24T23:59:59Z")));
+        assertTrue(index.isActiveAt(at("2026-10-25T00:00:00Z")));
+        assertTrue(index.isActiveAt(at("2026-10-25T01:30:00Z")));
+        assertFalse(index.isActiveAt(at("2026-10-25T02:00:00Z")));
+        assertEquals(at("2026-10-25T02:00:00Z"), index.nextTransition(at("2026-10-25T00:30:00Z")));
+    }
+
+    @Test
+    void sundayEveningWrapsIntoMondayUtc() {
+        // Sunday 2026-01-04 22:00-24:00 in New York (-05:00) is Monday 03:00Z-05:00Z
+        ScheduleIndex index = ScheduleCompiler.compile(Schedule.builder()
+                .sun("22:00-24:00")
+                .timeZone("America/New_York")
+                .build());
+
+        assertFalse(index.isActiveAt(at("2026-01-05T02:59:59Z")));
+        assertTrue(index.isActiveAt(at("2026-01-05T03:00:00Z")));
+        assertTrue(index.isActiveAt(at("2026-01-05T04:59:59Z")));
+        assertFalse(index.isActiveAt(at("2026-01-05T05:00:00Z")));
+        assertEquals(at("2026-01-05T03:00:00Z"), index.nextTransition(at("2026-01-04T12:00:00Z")));
+    }
+
+    @Test
+    void rangeAcrossTheUtcWeekBoundaryIsSplit() {
+        // Monday 00:00-02:00 in CET is Sunday 23:00Z to Monday 01:00Z
+        ScheduleIndex index = ScheduleCompiler.compile(Schedule.builder()
+                .mon("00:00-02:00")
+                .timeZone(BELGRADE)
+                .build());
+
+        assertFalse(index.isActiveAt(at("2026-01-04T22:59:59Z")));
+        assertTrue(index.isActiveAt(at("2026-01-04T23:00:00Z")));
+        assertTrue(index.isActiveAt(at("2026-01-05T00:00:00Z")));
+        assertFalse(index.isActiveAt(at("2026-01-05T01:00:00Z")));
+        assertEquals(at("2026-01-04T23:00:00Z"), index.nextTransition(at("2026-01-04T12:00:00Z")));
+        assertEquals(at("2026-01-05T01:00:00Z"), index.nextTransition(at("2026-01-04T23:30:00Z")));
+        assertEquals(at("2026-01-11T23:00:00Z"), index.nextTransition(at("2026-01-05T01:00:00Z")));
+    }
+
+    @Test
+    void rejectsUnreadableRanges() {
+        assertThrows(IllegalArgumentException.class, () -> compile("24:00-24:00"));
+        assertThrows(IllegalArgumentException.class, () -> compile("23:00-24:30"));
+        assertThrows(IllegalArgumentException.class, () -> compile("10:00-09:00"));
+        assertThrows(IllegalArgumentException.class, () -> compile("10:00-10:00"));
+        assertThrows(IllegalArgumentException.class, () -> compile("10:00"));
+        assertThrows(IllegalArgumentException.class, () -> compile("ten-11:00"));
+        assertThrows(IllegalArgumentException.class, () -> ScheduleCompiler.compile(Schedule.builder()
+                .mon("08:00-17:00")
+                .timeZone("Europe/Nowhere")
+                .build()));
+        assertTrue(ScheduleCompiler.compileOrAlways(Schedule.builder().mon("10:00-09:00").build())
+                .isActiveAt(at("2026-01-06T10:00:00Z")));
+    }
+
+    private static ScheduleIndex compile(String monday) {
+        return ScheduleCompiler.compile(Schedule.builder().mon(monday).build());
+    }
+
+    private static Instant at(String instant) {
+        return Instant.parse(instant);
+    }
+}
@@ -0,0 +1,103 @@
+package com.kliksigurnost.demo.helper;
+
+import com.kliksigurnost.demo.model.TrafficExpression;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrafficExpressionCompilerTest {
+
+    private static final String LIST_ID = "4a3c5e1d-0b2f-4c6e-9d8a-7f1e2d3c4b5a";
+
+    @Test
+    void parsesEveryClauseOfTheSubset() {
+        TrafficExpression expression = TrafficExpressionCompiler.parse(
+                "any(dns.content_category[*] in {2 67 125..133}) or any(app.type.ids[*] in {5})"
+                        + " or any(app.ids[*] in {1 2}) or any(dns.domains[*] in {\"example.com\"})"
+                        + " or dns.fqdn == \"a.example.com\" or any(dns.domains[*] in $" + LIST_ID + ")");
+
+        assertArrayEquals(new int[]{2, 67, 125, 126, 127, 128, 129, 130, 131, 132, 133}, expression.getCategories());
+        assertArrayEquals(new int[]{5}, expression.getAppTypes());
+        assertArrayEquals(new int[]{1, 2}, expression.getAppIds());
+        assertArrayEquals(new String[]{"example.com"}, expression.getDomains());
+        assertArrayEquals(new String[]{"a.example.com"}, expression.getFqdns());
+        assertArrayEquals(new String[]{LIST_ID}, expression.getDomainLists());
+    }
+
+    @Test
+    void compilesWithRangesAndParsesBackToTheSameExpression() {
+        TrafficExpression expression = TrafficExpression.builder()
+                .categories(new int[]{2, 67, 125, 126, 127, 128})
+                .appTypes(new int[]{5, 6})
+                .appIds(new int[]{1})
+                .domains(new String[]{"example.com", "example.org"})
+                .fqdns(new String[]{"a.example.com"})
+                .domainLists(new String[]{LIST_ID})
+                .build();
+
+        String traffic = TrafficExpressionCompiler.compile(expression);
+
+        assertEquals("any(dns.content_category[*] in {2 67 125..128}) or any(app.type.ids[*] in {5 6})"
+                + " or any(app.ids[*] in {1}) or any(dns.domains[*] in {\"example.com\" \"example.org\"})"
+                + " or dns.fqdn in {\"a.example.com\"} or any(dns.domains[*] in $" + LIST_ID + ")", traffic);
+        assertEquals(expression, TrafficExpressionCompiler.parse(traffic));
+    }
+
+    @Test
+    void sortsAndDeduplicatesIds() {
+        TrafficExpression expression = TrafficExpressionCompiler.parse(
+                "any(dns.content_category[*] in {9 3..5 4}) or (dns.content_category in {1 9})");
+
+        assertArrayEquals(new int[]{1, 3, 4, 5, 9}, expression.getCategories());
+    }
+
+    @Test
+    void emptyTrafficCompilesToEmptyString() {
+        assertTrue(TrafficExpressionCompiler.parse(null).isEmpty());
+        assertTrue(TrafficExpressionCompiler.parse("  ").isEmpty());
+        assertEquals("", TrafficExpressionCompiler.compile(TrafficExpression.builder().build()));
+    }
+
+    @Test
+    void rejectsAndAndNot() {
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "any(app.ids[*] in {1}) and any(app.ids[*] in {2})"));
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "not(any(app.ids[*] in {1}))"));
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "any(app.ids[*] in {1}) or not any(app.ids[*] in {2})"));
+    }
+
+    @Test
+    void rejectsUnknownFields() {
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "any(dns.resolved_ips[*] in {1})"));
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "http.request.uri == \"/\""));
+    }
+
+    @Test
+    void rejectsListsOutsideDomains() {
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "any(dns.content_category[*] in $" + LIST_ID + ")"));
+    }
+
+    @Test
+    void rejectsReversedAndOverWideRanges() {
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "any(app.ids[*] in {5..3})"));
+        assertThrows(IllegalArgumentException.class, () -> TrafficExpressionCompiler.parse(
+                "any(app.ids[*] in {0..100001})"));
+        assertEquals(100_001, TrafficExpressionCompiler.parse("any(app.ids[*] in {0..100000})").getAppIds().length);
+    }
+
+    @Test
+    void parseOrEmptyFallsBackToAnEmptyExpression() {
+        assertTrue(TrafficExpressionCompiler.parseOrEmpty("any(app.ids[*] in {1}) and dns.fqdn == \"a\"").isEmpty());
+        assertTrue(TrafficExpressionCompiler.parseOrEmpty("any(app.ids[*] in {1").isEmpty());
+        assertArrayEquals(new int[]{1}, TrafficExpressionCompiler.parseOrEmpty("any(app.ids[*] in {1})").getAppIds());
+    }
+}
@@ -0,0 +1,319 @@
+package com.kliksigurnost.demo.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kliksigurnost.demo.model.CloudflareAccount;
+import com.kliksigurnost.demo.repository.CloudflareAccountRepository;
+import com.kliksigurnost.demo.repository.UserRepository;
+import com.kliksigurnost.demo.service.EmailSenderService;
+import com.kliksigurnost.demo.service.impl.AllowAllPolicySync;
+import com.kliksigurnost.demo.service.impl.GatewayLogIngestor;
+import com.kliksigurnost.demo.service.impl.GatewayRuleReconciler;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * End-to-end load test of the Cloudflare-facing endpoints against {@link CloudflareSimulator} and an embedded
+ * database. Not part of the default build; run with {@code mvn test -Pload-test}.
+ * <p>
+ * Tunables (system properties): {@code loadtest.users}, {@code loadtest.threads}, {@code loadtest.iterations},
+ * {@code loadtest.latency-ms}, {@code loadtest.jitter-ms}, {@code loadtest.error-rate},
+ * {@code loadtest.throttle-rate}, {@code loadtest.max-error-ratio}. The report is logged and written to
+ * {@code target/loadtest-report.txt}.
+ */
+@Slf4j
+@Tag("load")
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+// Runs without secret.properties; the loadtest profile supplies dummy credentials instead
+@TestPropertySource(properties = "spring.config.on-not-found=ignore")
+class CloudflareLoadTest {
+
+    private static final String ACCOUNT_ID = "loadtest-account";
+    private static final String PASSWORD = "LoadTest123!";
+
+    private static final CloudflareSimulator SIMULATOR = startSimulator();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CloudflareAccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private AllowAllPolicySync allowAllPolicySync;
+
+    @Autowired
+    private GatewayRuleReconciler gatewayRuleReconciler;
+
+    @Autowired
+    private GatewayLogIngestor gatewayLogIngestor;
+
+    @MockitoBean
+    private EmailSenderService emailSenderService;
+
+    @DynamicPropertySource
+    static void cloudflareProperties(DynamicPropertyRegistry registry) {
+        registry.add("cloudflare.api.base-url", SIMULATOR::baseUrl);
+    }
+
+    @AfterAll
+    static void stopSimulator() {
+        SIMULATOR.close();
+    }
+
+    @Test
+    void policyLifecycleUnderLoad() throws Exception {
+        int users = Integer.getInteger("loadtest.users", 20);
+        int threads = Integer.getInteger("loadtest.threads", 10);
+        int iterations = Integer.getInteger("loadtest.iterations", 10);
+        double maxErrorRatio = Double.parseDouble(System.getProperty("loadtest.max-error-ratio", "0.01"));
+
+        seedAccount();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            tokens.add(registerUser("loadtest-user-" + i + "@example.com"));
+        }
+        // Backfill the log store once the users' policies exist, so log pages are served locally from here on
+        gatewayLogIngestor.ingestAll();
+        long graphqlCalls = SIMULATOR.requestCounts().getOrDefault("POST graphql", 0L);
+
+        // Fault injection applies to the measured phase only, so setup is deterministic
+        SIMULATOR.setLatencyMillis(Long.getLong("loadtest.latency-ms", 20));
+        SIMULATOR.setLatencyJitterMillis(Long.getLong("loadtest.jitter-ms", 30));
+        SIMULATOR.setErrorRate(Double.parseDouble(System.getProperty("loadtest.error-rate", "0")));
+        SIMULATOR.setThrottleRate(Double.parseDouble(System.getProperty("loadtest.throttle-rate", "0")));
+
+        // One task per user: a user's requests stay sequential, like a single browser session
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (String token : tokens) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    runScenario(token);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long wall = System.nanoTime() - start;
+        pool.shutdown();
+
+        // Let the debounced allow-all pushes land while the simulator is still up, so they're part of the report
+        allowAllPolicySync.flushAll();
+        List<GatewayRuleReconciler.ReconcileReport> drift = gatewayRuleReconciler.reconcileAll(false);
+
+        String report = recorder.report(wall) + "simulator requests: " + SIMULATOR.requestCounts() + System.lineSeparator()
+                + outboundReport();
+        log.info("Load test report:{}{}", System.lineSeparator(), report);
+        Files.createDirectories(Path.of("target"));
+        Files.writeString(Path.of("target", "loadtest-report.txt"), report);
+
+        assertTrue(recorder.errorCount() <= recorder.totalCount() * maxErrorRatio,
+                "error ratio above " + maxErrorRatio + System.lineSeparator() + report);
+        if (recorder.errorCount() == 0) {
+            assertTrue(drift.stream().allMatch(r -> r.missing().isEmpty() && r.orphaned().isEmpty() && r.drifted().isEmpty()),
+                    "gateway rules drifted from stored policies: " + drift);
+            assertTrue(SIMULATOR.gatewayListCount(ACCOUNT_ID) == 0, "domain lists left behind by deleted policies");
+            // Per user, the historical page and its prefetched successor, each queried once. Per scenario, the
+            // not yet ingested tail of the recent page, of its successor and of the export
+            assertTrue(SIMULATOR.requestCounts().getOrDefault("POST graphql", 0L)
+                            <= graphqlCalls + 2L * tokens.size() + 3L * tokens.size() * iterations,
+                    "log pages went to GraphQL instead of the log store or the query cache");
+        }
+    }
+
+    /**
+     * Cloudflare-side view from {@code cloudflare.client.requests}, including setup calls.
+     */
+    private String outboundReport() {
+        StringBuilder out = new StringBuilder("outbound Cloudflare calls:").append(System.lineSeparator());
+        meterRegistry.find("cloudflare.client.requests").timers().stream()
+                .sorted(Comparator.comparing(timer -> timer.getId().getTags().toString()))
+                .forEach(timer -> out.append(String.format("  %-14s %-6s %-4s %6d calls, mean %7.1f ms, max %7.1f ms%n",
+                        timer.getId().getTag("endpoint"), timer.getId().getTag("method"), timer.getId().getTag("status"),
+                        timer.count(), timer.mean(TimeUnit.MILLISECONDS),
+                        timer.max(TimeUnit.MILLISECONDS))));
+        return out.toString();
+    }
+
+    private void runScenario(String token) throws IOException, InterruptedException {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+        // A closed window older than the log store's coverage: GraphQL once per user, then the query cache
+        Instant day = now.truncatedTo(ChronoUnit.DAYS);
+        call("logs.user.history", token, "GET", "/api/policies/userLogs?startDateTime=" + day.minus(3, ChronoUnit.DAYS)
+                + "&endDateTime=" + day.minus(2, ChronoUnit.DAYS) + "&pageSize=50", null);
+
+        HttpResponse<String> created = call("policy.create", token, "POST", "/api/policies",
+                Map.of("action", "block", "traffic", "any(dns.content_category[*] in {68 99})"));
+        String policyId = created.statusCode() == 200
+                ? mapper.readTree(created.body()).path("result").path("id").asText(null)
+                : null;
+
+        call("policy.list", token, "GET", "/api/policies", null);
+        String logsQuery = "/api/policies/userLogs?startDateTime=" + now.minus(1, ChronoUnit.DAYS)
+                + "&endDateTime=" + now + "&pageSize=50";
+        HttpResponse<String> logs = call("logs.user", token, "GET", logsQuery, null);
+        if (logs.statusCode() == 200) {
+            JsonNode page = mapper.readTree(logs.body());
+            if (page.size() == 50) {
+                // "Next page" click, following the last row's cursor
+                call("logs.user.next", token, "GET",
+                        logsQuery + "&cursor=" + page.get(page.size() - 1).path("cursor").asText(), null);
+            }
+        }
+        call("logs.user.export", token, "GET", "/api/policies/userLogs/export?startDateTime="
+                + now.minus(1, ChronoUnit.DAYS) + "&endDateTime=" + now + "&format=csv", null);
+        call("blocks.summary", token, "GET", "/api/policies/blockSummary?from=" + now.truncatedTo(ChronoUnit.DAYS)
+                + "&to=" + now, null);
+        call("blocks.timeline", token, "GET", "/api/policies/blockSummary/timeline?from=" + now.minus(1, ChronoUnit.DAYS)
+                + "&to=" + now, null);
+        call("devices.list", token, "GET", "/api/policies/devices", null);
+        call("notifications.unseen", token, "GET", "/api/notifications/unseenCount", null);
+
+        if (policyId != null) {
+            call("policy.update", token, "PUT", "/api/policies/" + policyId,
+                    Map.of("action", "block", "traffic", "any(dns.content_category[*] in {68 99 133})"));
+            call("policy.delete", token, "DELETE", "/api/policies/" + policyId, null);
+        }
+
+        // Domain-list policy: created with a list, grown and shrunk by diffs, then deleted with its list
+        HttpResponse<String> domainList = call("policy.domain-list.create", token, "POST", "/api/policies/domain-lists",
+                Map.of("domains", List.of("ads.example.com", "tracker.example.net", "Ads.Example.com.")));
+        if (domainList.statusCode() == 200) {
+            String domainPolicyId = mapper.readTree(domainList.body()).path("id").asText();
+            call("policy.domain-list.patch", token, "PATCH", "/api/policies/" + domainPolicyId + "/domains",
+                    Map.of("add", List.of("cdn.tracker.example.org"), "remove", List.of("ads.example.com")));
+            call("policy.delete", token, "DELETE", "/api/policies/" + domainPolicyId, null);
+        }
+
+        // Onboarding-style batch: two policies created together, then removed together
+        HttpResponse<String> batch = call("policy.batch", token, "POST", "/api/policies/batch", List.of(
+                Map.of("type", "CREATE", "policy", Map.of("action", "block", "traffic", "any(app.type.ids[*] in {5})")),
+                Map.of("type", "CREATE", "policy", Map.of("action", "block", "traffic", "any(dns.content_category[*] in {85})"))));
+        if (batch.statusCode() == 200) {
+            List<Map<String, String>> deletes = new ArrayList<>();
+            for (JsonNode result : mapper.readTree(batch.body())) {
+                if (result.path("status").asInt() == 200) {
+                    deletes.add(Map.of("type", "DELETE", "policyId", result.path("policyId").asText()));
+                }
+            }
+            if (!deletes.isEmpty()) {
+                call("policy.batch", token, "POST", "/api/policies/batch", deletes);
+            }
+        }
+    }
+
+    private HttpResponse<String> call(String operation, String token, String method, String path, Object body)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+
+        if (operation == null) {
+            // setup call, not measured
+            return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        }
+
+        long start = System.nanoTime();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            recorder.record(operation, System.nanoTime() - start, -1);
+            throw e;
+        }
+        recorder.record(operation, System.nanoTime() - start, response.statusCode());
+        return response;
+    }
+
+    private void seedAccount() {
+        String[] enrollment = SIMULATOR.seedAccount(ACCOUNT_ID, "admin@example.com");
+        accountRepository.save(CloudflareAccount.builder()
+                .accountId(ACCOUNT_ID)
+                .email("admin@example.com")
+                .organizationName("loadtest")
+                .authorizationToken("loadtest-token")
+                .enrollmentApplicationId(enrollment[0])
+                .enrollmentPolicyId(enrollment[1])
+                .userNum(0)
+                .build());
+    }
+
+    private String registerUser(String email) throws IOException, InterruptedException {
+        HttpResponse<String> registered = call(null, null, "POST", "/api/auth/register",
+                Map.of("firstName", "Load", "lastName", "Test", "email", email, "password", PASSWORD));
+        assertTrue(registered.statusCode() == 200, "registration failed: " + registered.body());
+
+        userRepository.findByEmail(email).ifPresent(user -> {
+            user.setEnabled(true);
+            userRepository.save(user);
+        });
+
+        HttpResponse<String> authenticated = call(null, null, "POST", "/api/auth/authenticate",
+                Map.of("email", email, "password", PASSWORD));
+        JsonNode body = mapper.readTree(authenticated.body());
+        assertTrue(authenticated.statusCode() == 200, "authentication failed: " + authenticated.body());
+        return body.path("token").asText();
+    }
+
+    private static CloudflareSimulator startSimulator() {
+        try {
+            return new CloudflareSimulator();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start Cloudflare simulator", e);
+        }
+    }
+}
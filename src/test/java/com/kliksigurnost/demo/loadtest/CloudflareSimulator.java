@@ -0,0 +1,497 @@
+package com.kliksigurnost.demo.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the parts of the Cloudflare API this service uses: gateway rules and lists, access apps
+ * and policies, physical devices and the {@code gatewayResolverQueriesAdaptiveGroups} GraphQL query.
+ * <p>
+ * Latency, 5xx errors and 429 throttling can be injected to see how the service behaves under a slow or
+ * unhealthy upstream. Responses are gzip-compressed when the client accepts it, like the real API.
+ */
+@Slf4j
+public class CloudflareSimulator implements AutoCloseable {
+
+    private static final String PREFIX = "/client/v4/";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final Map<String, Map<String, ObjectNode>> gatewayRules = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Set<String>>> gatewayLists = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, ObjectNode>> accessApps = new ConcurrentHashMap<>();
+    private final Map<String, List<ObjectNode>> devices = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+    @Getter @Setter
+    private volatile long latencyMillis = 0;
+    @Getter @Setter
+    private volatile long latencyJitterMillis = 0;
+    @Getter @Setter
+    private volatile double errorRate = 0;
+    @Getter @Setter
+    private volatile double throttleRate = 0;
+    @Getter @Setter
+    private volatile int devicesPerUser = 2;
+    @Getter @Setter
+    private volatile boolean compress = true;
+    @Getter @Setter
+    private volatile int logsPerMinute = 10;
+
+    public CloudflareSimulator() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(64);
+        server.setExecutor(executor);
+        server.createContext(PREFIX, this::handle);
+        server.start();
+        log.info("Cloudflare simulator listening on {}", baseUrl());
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PREFIX;
+    }
+
+    public Map<String, Long> requestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        requestCounts.forEach((key, value) -> counts.put(key, value.get()));
+        return counts;
+    }
+
+    public int gatewayRuleCount(String accountId) {
+        return gatewayRules.getOrDefault(accountId, Map.of()).size();
+    }
+
+    public int gatewayListCount(String accountId) {
+        return gatewayLists.getOrDefault(accountId, Map.of()).size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath().substring(PREFIX.length());
+            String[] segments = path.split("/");
+            String endpoint = endpointOf(segments);
+            requestCounts.computeIfAbsent(method + " " + endpoint, k -> new AtomicLong()).incrementAndGet();
+
+            simulateLatency();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < throttleRate) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                send(exchange, 429, errorEnvelope(10000, "Rate limited"));
+                return;
+            }
+            if (random.nextDouble() < errorRate) {
+                send(exchange, 500, errorEnvelope(10001, "Injected failure"));
+                return;
+            }
+
+            JsonNode body = readBody(exchange);
+            JsonNode response = switch (endpoint) {
+                case "graphql" -> graphql(body);
+                case "gateway/rules" -> gatewayRules(method, segments, exchange.getRequestURI().getRawQuery(), body);
+                case "gateway/lists" -> gatewayLists(method, segments, body);
+                case "access/apps" -> accessApps(method, segments, body);
+                case "devices/physical-devices" -> physicalDevices(method, segments, exchange.getRequestURI().getRawQuery());
+                default -> null;
+            };
+
+            if (response == null) {
+                send(exchange, 404, errorEnvelope(7003, "No route for that URI"));
+            } else {
+                send(exchange, 200, response);
+            }
+        } catch (Exception e) {
+            log.error("Simulator failed to handle request", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String endpointOf(String[] segments) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        // accounts/{id}/<area>/<resource>/...
+        return segments.length >= 4 ? segments[2] + "/" + segments[3] : String.join("/", segments);
+    }
+
+    private void simulateLatency() throws InterruptedException {
+        long delay = latencyMillis;
+        if (latencyJitterMillis > 0) {
+            delay += ThreadLocalRandom.current().nextLong(latencyJitterMillis);
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    // --- gateway rules ---------------------------------------------------------------------------------------
+
+    private JsonNode gatewayRules(String method, String[] segments, String query, JsonNode body) {
+        Map<String, ObjectNode> rules = gatewayRules.computeIfAbsent(segments[1], id -> new ConcurrentHashMap<>());
+        String ruleId = segments.length > 4 ? segments[4] : null;
+
+        switch (method) {
+            case "GET" -> {
+                if (ruleId == null) {
+                    return page(List.copyOf(rules.values()), query);
+                }
+                return rules.containsKey(ruleId) ? envelope(rules.get(ruleId)) : null;
+            }
+            case "POST" -> {
+                ObjectNode rule = ((ObjectNode) body).deepCopy();
+                rule.put("id", UUID.randomUUID().toString());
+                rules.put(rule.get("id").asText(), rule);
+                return envelope(rule);
+            }
+            case "PUT" -> {
+                if (ruleId == null || !rules.containsKey(ruleId)) return null;
+                ObjectNode rule = ((ObjectNode) body).deepCopy();
+                rule.put("id", ruleId);
+                rules.put(ruleId, rule);
+                return envelope(rule);
+            }
+            case "DELETE" -> {
+                ObjectNode removed = ruleId != null ? rules.remove(ruleId) : null;
+                return removed == null ? null : envelope(mapper.createObjectNode().put("id", ruleId));
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    // --- gateway lists ---------------------------------------------------------------------------------------
+
+    private JsonNode gatewayLists(String method, String[] segments, JsonNode body) {
+        Map<String, Set<String>> lists = gatewayLists.computeIfAbsent(segments[1], id -> new ConcurrentHashMap<>());
+        String listId = segments.length > 4 ? segments[4] : null;
+
+        if (listId == null) {
+            if (!"POST".equals(method)) return null;
+            String id = UUID.randomUUID().toString();
+            Set<String> items = ConcurrentHashMap.newKeySet();
+            body.path("items").forEach(item -> items.add(item.path("value").asText()));
+            lists.put(id, items);
+            return envelope(listNode(id, body.path("name").asText(), items));
+        }
+
+        Set<String> items = lists.get(listId);
+        if (items == null) {
+            return null;
+        }
+        switch (method) {
+            case "GET" -> {
+                return envelope(listNode(listId, null, items));
+            }
+            case "PATCH" -> {
+                body.path("append").forEach(item -> items.add(item.path("value").asText()));
+                body.path("remove").forEach(value -> items.remove(value.asText()));
+                return envelope(listNode(listId, null, items));
+            }
+            case "DELETE" -> {
+                lists.remove(listId);
+                return envelope(mapper.createObjectNode().put("id", listId));
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private ObjectNode listNode(String id, String name, Set<String> items) {
+        ObjectNode list = mapper.createObjectNode();
+        list.put("id", id).put("name", name).put("type", "DOMAIN").put("count", items.size());
+        return list;
+    }
+
+    // --- access apps and policies ----------------------------------------------------------------------------
+
+    private JsonNode accessApps(String method, String[] segments, JsonNode body) {
+        Map<String, ObjectNode> apps = accessApps.computeIfAbsent(segments[1], id -> new ConcurrentHashMap<>());
+        String appId = segments.length > 4 ? segments[4] : null;
+
+        if (appId == null) {
+            if ("GET".equals(method)) {
+                ArrayNode result = mapper.createArrayNode();
+                apps.values().forEach(result::add);
+                return envelope(result);
+            }
+            if ("POST".equals(method)) {
+                ObjectNode app = ((ObjectNode) body).deepCopy();
+                app.put("id", UUID.randomUUID().toString());
+                app.putArray("policies");
+                apps.put(app.get("id").asText(), app);
+                return envelope(app);
+            }
+            return null;
+        }
+
+        ObjectNode app = apps.get(appId);
+        if (app == null || segments.length < 6 || !"policies".equals(segments[5])) {
+            return null;
+        }
+        ArrayNode policies = (ArrayNode) app.get("policies");
+        String policyId = segments.length > 6 ? segments[6] : null;
+
+        synchronized (app) {
+            if (policyId == null && "POST".equals(method)) {
+                ObjectNode policy = ((ObjectNode) body).deepCopy();
+                policy.put("id", UUID.randomUUID().toString());
+                policy.put("precedence", policies.size() + 1);
+                policies.add(policy);
+                return envelope(policy);
+            }
+            for (int i = 0; i < policies.size(); i++) {
+                if (policies.get(i).path("id").asText().equals(policyId)) {
+                    if ("GET".equals(method)) {
+                        return envelope(policies.get(i));
+                    }
+                    if ("PUT".equals(method)) {
+                        ObjectNode policy = ((ObjectNode) body).deepCopy();
+                        policy.put("id", policyId);
+                        policy.put("precedence", policies.get(i).path("precedence").asInt());
+                        policies.set(i, policy);
+                        return envelope(policy);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // --- devices ---------------------------------------------------------------------------------------------
+
+    private JsonNode physicalDevices(String method, String[] segments, String query) {
+        String accountId = segments[1];
+        List<ObjectNode> accountDevices = devices.computeIfAbsent(accountId, id -> Collections.synchronizedList(new ArrayList<>()));
+
+        if ("DELETE".equals(method) && segments.length > 4) {
+            String deviceId = segments[4];
+            boolean removed = accountDevices.removeIf(device -> device.path("id").asText().equals(deviceId));
+            return removed ? envelope(mapper.nullNode()) : null;
+        }
+        if (!"GET".equals(method)) {
+            return null;
+        }
+
+        String email = queryParam(query, "last_seen_user.email");
+        ArrayNode result = mapper.createArrayNode();
+        synchronized (accountDevices) {
+            if (email != null && accountDevices.stream().noneMatch(d -> email.equals(d.path("last_seen_user").path("email").asText()))) {
+                for (int i = 0; i < devicesPerUser; i++) {
+                    accountDevices.add(device(email, i));
+                }
+            }
+            accountDevices.stream()
+                    .filter(d -> email == null || email.equals(d.path("last_seen_user").path("email").asText()))
+                    .forEach(result::add);
+        }
+        return envelope(result);
+    }
+
+    private ObjectNode device(String email, int index) {
+        ObjectNode device = mapper.createObjectNode();
+        device.put("id", UUID.randomUUID().toString());
+        device.put("manufacturer", "Simulated");
+        device.put("model", "Device " + index);
+        device.put("serial_number", email + "-" + index);
+        device.put("last_seen_at", Instant.now().minus(index, ChronoUnit.HOURS).toString());
+        device.putObject("last_seen_user").put("email", email);
+        return device;
+    }
+
+    // --- GraphQL ---------------------------------------------------------------------------------------------
+
+    private JsonNode graphql(JsonNode body) {
+        JsonNode variables = body.path("variables");
+        String accountId = variables.path("accountId").asText();
+        int limit = Math.min(variables.path("limit").asInt(25), 10_000);
+        int decision = variables.path("resolverDecision").asInt(0);
+
+        List<String> policyIds = new ArrayList<>();
+        variables.path("policyIdsIn").forEach(id -> policyIds.add(id.asText()));
+        if (policyIds.isEmpty()) {
+            policyIds.addAll(gatewayRules.getOrDefault(accountId, Map.of()).keySet());
+        }
+
+        Instant end = parseInstant(variables.path("datetime_lt").asText(null), Instant.now());
+        Instant leq = parseInstant(variables.path("datetime_leq").asText(null), null);
+        if (leq != null && leq.plusSeconds(1).isBefore(end)) {
+            end = leq.plusSeconds(1);
+        }
+        Instant start = parseInstant(variables.path("datetime_gt").asText(null), end.minus(1, ChronoUnit.DAYS));
+        start = parseInstant(variables.path("datetime_geq").asText(null), start);
+        boolean ascending = variables.path("orderBy").path(0).asText("").endsWith("_ASC");
+
+        ArrayNode groups = mapper.createArrayNode();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long span = Math.max(end.toEpochMilli() - start.toEpochMilli(), 1);
+        // logsPerMinute groups spread over the window, at most a page of them
+        int count = (int) Math.min(limit, span * logsPerMinute / 60_000);
+        for (int i = 0; i < count && !policyIds.isEmpty(); i++) {
+            String policyId = policyIds.get(random.nextInt(policyIds.size()));
+            ObjectNode group = groups.addObject();
+            group.put("count", 1 + random.nextInt(5));
+            ObjectNode dimensions = group.putObject("dimensions");
+            dimensions.putArray("categoryNames").add("Gambling");
+            long offset = span * (ascending ? count - i : i + 1) / (count + 1);
+            dimensions.put("datetime", Instant.ofEpochMilli(end.toEpochMilli() - offset)
+                    .truncatedTo(ChronoUnit.SECONDS).toString());
+            dimensions.put("matchedApplicationName", "");
+            dimensions.put("policyId", policyId);
+            dimensions.put("policyName", "policy-" + policyId.substring(0, Math.min(8, policyId.length())));
+            dimensions.put("queryName", "site" + random.nextInt(500) + ".example.com");
+            dimensions.put("resolverDecision", decision != 0 ? decision : (random.nextBoolean() ? 9 : 10));
+        }
+
+        ObjectNode response = mapper.createObjectNode();
+        response.putObject("data").putObject("viewer").putArray("accounts").addObject()
+                .set("gatewayResolverQueriesAdaptiveGroups", groups);
+        response.putNull("errors");
+        return response;
+    }
+
+    private static Instant parseInstant(String value, Instant fallback) {
+        try {
+            return value != null ? Instant.parse(value) : fallback;
+        } catch (Exception e) {
+            return fallback;
+        }
+    }
+
+    // --- plumbing --------------------------------------------------------------------------------------------
+
+    private JsonNode readBody(HttpExchange exchange) throws IOException {
+        byte[] bytes = exchange.getRequestBody().readAllBytes();
+        return bytes.length == 0 ? mapper.createObjectNode() : mapper.readTree(bytes);
+    }
+
+    /**
+     * Listing honouring {@code page}/{@code per_page} like Cloudflare's paginated endpoints.
+     */
+    private ObjectNode page(List<ObjectNode> items, String query) {
+        String pageParam = queryParam(query, "page");
+        String perPageParam = queryParam(query, "per_page");
+        int page = pageParam != null ? Integer.parseInt(pageParam) : 1;
+        int perPage = perPageParam != null ? Integer.parseInt(perPageParam) : Math.max(1, items.size());
+
+        ArrayNode result = mapper.createArrayNode();
+        items.stream().skip((long) (page - 1) * perPage).limit(perPage).forEach(result::add);
+        ObjectNode envelope = envelope(result);
+        ((ObjectNode) envelope.get("result_info"))
+                .put("page", page)
+                .put("per_page", perPage)
+                .put("total_count", items.size())
+                .put("total_pages", Math.max(1, (items.size() + perPage - 1) / perPage));
+        return envelope;
+    }
+
+    private ObjectNode envelope(JsonNode result) {
+        ObjectNode envelope = mapper.createObjectNode();
+        envelope.put("success", true);
+        envelope.putArray("errors");
+        envelope.putArray("messages");
+        envelope.set("result", result);
+        if (result.isArray()) {
+            envelope.putObject("result_info")
+                    .put("page", 1)
+                    .put("per_page", result.size())
+                    .put("count", result.size())
+                    .put("total_count", result.size());
+        }
+        return envelope;
+    }
+
+    private ObjectNode errorEnvelope(int code, String message) {
+        ObjectNode envelope = mapper.createObjectNode();
+        envelope.put("success", false);
+        envelope.putArray("errors").addObject().put("code", code).put("message", message);
+        envelope.putArray("messages");
+        envelope.putNull("result");
+        return envelope;
+    }
+
+    private void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (compress && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String queryParam(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Seeds an account the way {@code /api/admin/accounts/setup} would leave it: a WARP enrollment app with one
+     * policy.
+     *
+     * @return {@code [applicationId, policyId]}
+     */
+    public String[] seedAccount(String accountId, String email) {
+        Map<String, ObjectNode> apps = accessApps.computeIfAbsent(accountId, id -> new ConcurrentHashMap<>());
+        ObjectNode app = mapper.createObjectNode();
+        String appId = UUID.randomUUID().toString();
+        String policyId = UUID.randomUUID().toString();
+        app.put("id", appId).put("name", email).put("type", "warp");
+        ObjectNode policy = app.putArray("policies").addObject();
+        policy.put("id", policyId).put("name", "Allow").put("decision", "allow").put("precedence", 1);
+        policy.putArray("include").addObject().putObject("email").put("email", email);
+        apps.put(appId, app);
+        return new String[]{appId, policyId};
+    }
+}
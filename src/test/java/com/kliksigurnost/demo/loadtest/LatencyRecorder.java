@@ -0,0 +1,65 @@
+package com.kliksigurnost.demo.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects per-operation latencies and outcomes during a load test run and renders throughput and percentiles.
+ */
+class LatencyRecorder {
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    void record(String operation, long nanos, int status) {
+        Operation op = operations.computeIfAbsent(operation, k -> new Operation());
+        op.latencies.add(nanos);
+        op.statuses.computeIfAbsent(status, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    long errorCount() {
+        return operations.values().stream()
+                .flatMap(op -> op.statuses.entrySet().stream())
+                .filter(entry -> entry.getKey() >= 300 || entry.getKey() <= 0)
+                .mapToLong(entry -> entry.getValue().get())
+                .sum();
+    }
+
+    long totalCount() {
+        return operations.values().stream().mapToLong(op -> op.latencies.size()).sum();
+    }
+
+    String report(long wallNanos) {
+        StringBuilder out = new StringBuilder();
+        double seconds = wallNanos / 1e9;
+        out.append(String.format("%-22s %8s %9s %9s %9s %9s %9s  %s%n",
+                "operation", "count", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "statuses"));
+
+        new TreeMap<>(operations).forEach((name, op) -> {
+            long[] sorted = op.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            out.append(String.format("%-22s %8d %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n",
+                    name, sorted.length, sorted.length / seconds,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 1.0), new TreeMap<>(op.statuses)));
+        });
+
+        out.append(String.format("total %d requests in %.1f s (%.1f req/s), %d errors%n",
+                totalCount(), seconds, totalCount() / seconds, errorCount()));
+        return out.toString();
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static final class Operation {
+        private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        private final Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+    }
+}
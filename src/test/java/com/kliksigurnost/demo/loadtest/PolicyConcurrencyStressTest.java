@@ -0,0 +1,258 @@
+package com.kliksigurnost.demo.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kliksigurnost.demo.helper.AllowAllTrafficIndex;
+import com.kliksigurnost.demo.model.CloudflareAccount;
+import com.kliksigurnost.demo.model.CloudflarePolicy;
+import com.kliksigurnost.demo.model.User;
+import com.kliksigurnost.demo.repository.CloudflareAccountRepository;
+import com.kliksigurnost.demo.repository.CloudflarePolicyRepository;
+import com.kliksigurnost.demo.repository.UserRepository;
+import com.kliksigurnost.demo.service.EmailSenderService;
+import com.kliksigurnost.demo.service.impl.AllowAllPolicySync;
+import com.kliksigurnost.demo.service.impl.GatewayRuleReconciler;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Several "browser tabs" per user hammer the policy endpoints at the same moment, against
+ * {@link CloudflareSimulator}, and the per-user invariants must still hold: no more than 10 policies, stored
+ * policies matching Cloudflare, and the allow-all rule excluding exactly what the remaining policies block. Run
+ * with {@code mvn test -Pload-test}.
+ * <p>
+ * Tunables (system properties): {@code stresstest.users}, {@code stresstest.tabs}, {@code stresstest.latency-ms}.
+ */
+@Slf4j
+@Tag("load")
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+// Runs without secret.properties; the loadtest profile supplies dummy credentials instead
+@TestPropertySource(properties = "spring.config.on-not-found=ignore")
+class PolicyConcurrencyStressTest {
+
+    private static final String ACCOUNT_ID = "stresstest-account";
+    private static final String PASSWORD = "StressTest123!";
+    private static final int POLICY_LIMIT = 10;
+
+    private static final CloudflareSimulator SIMULATOR = startSimulator();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CloudflareAccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CloudflarePolicyRepository policyRepository;
+
+    @Autowired
+    private AllowAllPolicySync allowAllPolicySync;
+
+    @Autowired
+    private GatewayRuleReconciler gatewayRuleReconciler;
+
+    @MockitoBean
+    private EmailSenderService emailSenderService;
+
+    @DynamicPropertySource
+    static void cloudflareProperties(DynamicPropertyRegistry registry) {
+        registry.add("cloudflare.api.base-url", SIMULATOR::baseUrl);
+        // Own database, so it doesn't share state with the load test's context
+        registry.add("spring.datasource.url", () -> "jdbc:h2:mem:stresstest;MODE=MySQL;DB_CLOSE_DELAY=-1");
+    }
+
+    @AfterAll
+    static void stopSimulator() {
+        SIMULATOR.close();
+    }
+
+    @Test
+    void concurrentMutationsKeepPerUserInvariants() throws Exception {
+        int users = Integer.getInteger("stresstest.users", 4);
+        int tabs = Integer.getInteger("stresstest.tabs", 8);
+
+        String[] enrollment = SIMULATOR.seedAccount(ACCOUNT_ID, "admin@example.com");
+        accountRepository.save(CloudflareAccount.builder()
+                .accountId(ACCOUNT_ID)
+                .email("admin@example.com")
+                .organizationName("stresstest")
+                .authorizationToken("stresstest-token")
+                .enrollmentApplicationId(enrollment[0])
+                .enrollmentPolicyId(enrollment[1])
+                .userNum(0)
+                .build());
+        Map<String, String> tokens = new ConcurrentHashMap<>();
+        for (int i = 0; i < users; i++) {
+            String email = "stresstest-user-" + i + "@example.com";
+            tokens.put(email, registerUser(email));
+        }
+        // Registration's default policy and allow-all rule count towards the limit; settle them first
+        allowAllPolicySync.flushAll();
+
+        // Wide Cloudflare latency keeps each mutation's check-then-act window open
+        SIMULATOR.setLatencyMillis(Long.getLong("stresstest.latency-ms", 40));
+        ExecutorService pool = Executors.newFixedThreadPool(users * tabs);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // Every tab creates policies at once, together asking for twice the limit
+        Map<String, AtomicInteger> created = new ConcurrentHashMap<>();
+        Map<String, List<String>> createdIds = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<String, String> user : tokens.entrySet()) {
+            created.put(user.getKey(), new AtomicInteger());
+            createdIds.put(user.getKey(), new ArrayList<>());
+            for (int tab = 0; tab < tabs; tab++) {
+                int category = 200 + tab;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < Math.max(1, 2 * POLICY_LIMIT / tabs); i++) {
+                        HttpResponse<String> response = call(user.getValue(), "POST", "/api/policies",
+                                Map.of("action", "block", "traffic", "any(dns.content_category[*] in {" + (category + 10 * i) + "})"));
+                        if (response.statusCode() == 200) {
+                            created.get(user.getKey()).incrementAndGet();
+                            String id = mapper.readTree(response.body()).path("result").path("id").asText();
+                            synchronized (createdIds) {
+                                createdIds.get(user.getKey()).add(id);
+                            }
+                        } else {
+                            assertEquals(409, response.statusCode(), "unexpected create response: " + response.body());
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        for (String email : tokens.keySet()) {
+            long stored = policyRepository.countByUser(user(email));
+            assertEquals(POLICY_LIMIT, stored, email + " ended up with " + stored + " policies");
+        }
+
+        // Every tab now edits the same policies while one of them deletes half, all interleaved
+        CountDownLatch edit = new CountDownLatch(1);
+        futures.clear();
+        for (Map.Entry<String, String> user : tokens.entrySet()) {
+            List<String> ids = List.copyOf(createdIds.get(user.getKey()));
+            for (int tab = 0; tab < tabs; tab++) {
+                int value = 500 + tab;
+                boolean deleter = tab == 0;
+                futures.add(pool.submit(() -> {
+                    edit.await();
+                    for (int i = 0; i < ids.size(); i++) {
+                        if (deleter && i % 2 == 0) {
+                            call(user.getValue(), "DELETE", "/api/policies/" + ids.get(i), null);
+                        } else {
+                            call(user.getValue(), "PUT", "/api/policies/" + ids.get(i),
+                                    Map.of("action", "block", "traffic", "any(dns.content_category[*] in {" + value + " " + (value + i) + "})"));
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+        edit.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        SIMULATOR.setLatencyMillis(0);
+
+        allowAllPolicySync.flushAll();
+        for (String email : tokens.keySet()) {
+            List<CloudflarePolicy> policies = policyRepository.findByUser(user(email));
+            AllowAllTrafficIndex.BlockedTraffic blocked = new AllowAllTrafficIndex.BlockedTraffic();
+            policies.forEach(blocked::add);
+            CloudflarePolicy allowAll = policies.stream().filter(CloudflarePolicy::isAllowAll).findFirst().orElseThrow();
+            assertEquals(blocked.render(), allowAll.getTraffic(), "allow-all rule of " + email + " is stale");
+        }
+
+        List<GatewayRuleReconciler.ReconcileReport> drift = gatewayRuleReconciler.reconcileAll(false);
+        log.info("Stress test: {} users x {} tabs, created {}, simulator requests {}", users, tabs, created,
+                SIMULATOR.requestCounts());
+        assertTrue(drift.stream().allMatch(r -> r.missing().isEmpty() && r.orphaned().isEmpty() && r.drifted().isEmpty()),
+                "gateway rules drifted from stored policies: " + drift);
+    }
+
+    private User user(String email) {
+        return userRepository.findByEmail(email).orElseThrow();
+    }
+
+    private HttpResponse<String> call(String token, String method, String path, Object body)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(body)));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String registerUser(String email) throws IOException, InterruptedException {
+        HttpResponse<String> registered = call(null, "POST", "/api/auth/register",
+                Map.of("firstName", "Stress", "lastName", "Test", "email", email, "password", PASSWORD));
+        assertTrue(registered.statusCode() == 200, "registration failed: " + registered.body());
+
+        userRepository.findByEmail(email).ifPresent(user -> {
+            user.setEnabled(true);
+            userRepository.save(user);
+        });
+
+        HttpResponse<String> authenticated = call(null, "POST", "/api/auth/authenticate",
+                Map.of("email", email, "password", PASSWORD));
+        assertTrue(authenticated.statusCode() == 200, "authentication failed: " + authenticated.body());
+        JsonNode body = mapper.readTree(authenticated.body());
+        return body.path("token").asText();
+    }
+
+    private static CloudflareSimulator startSimulator() {
+        try {
+            return new CloudflareSimulator();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start Cloudflare simulator", e);
+        }
+    }
+}
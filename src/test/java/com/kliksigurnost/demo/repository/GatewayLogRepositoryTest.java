@@ -0,0 +1,135 @@
+package com.kliksigurnost.demo.repository;
+
+import com.kliksigurnost.demo.model.GatewayLogEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest
+@TestPropertySource(properties = {
+        "spring.config.on-not-found=ignore",
+        "spring.jpa.database=h2",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class GatewayLogRepositoryTest {
+
+    private static final Instant START = Instant.parse("2026-03-29T00:00:00Z");
+    private static final Instant END = Instant.parse("2026-03-29T02:00:00Z");
+    private static final Instant SECOND = Instant.parse("2026-03-29T01:00:00Z");
+    private static final List<String> POLICIES = List.of("policy-a", "policy-b");
+
+    private static final Comparator<GatewayLogEntry> KEY = Comparator.comparing(GatewayLogEntry::getDatetime)
+            .thenComparing(GatewayLogEntry::getPolicyId)
+            .thenComparing(GatewayLogEntry::getQueryName)
+            .thenComparing(GatewayLogEntry::getId);
+
+    @Autowired
+    private GatewayLogRepository repository;
+
+    private List<GatewayLogEntry> rows;
+
+    @BeforeEach
+    void insertRows() {
+        List<GatewayLogEntry> entries = new ArrayList<>();
+        // Most rows share one second, several of them also the policy and name, so only the ID tells them apart
+        for (int i = 0; i < 14; i++) {
+            entries.add(entry(SECOND, POLICIES.get(i % 2), "host-" + (i % 3) + ".example.com"));
+        }
+        entries.add(entry(SECOND.minusSeconds(1), "policy-a", "earlier.example.com"));
+        entries.add(entry(SECOND.plusSeconds(1), "policy-b", "later.example.com"));
+        entries.add(entry(SECOND, "policy-other", "host-0.example.com"));
+        rows = repository.saveAll(entries).stream()
+                .filter(entry -> POLICIES.contains(entry.getPolicyId()))
+                .sorted(KEY)
+                .toList();
+    }
+
+    @Test
+    void oldestFirstPagesHaveNoGapsOrDuplicates() {
+        for (int pageSize : new int[]{1, 3, 4, 16}) {
+            assertEquals(ids(rows), ids(pageThrough(true, pageSize)), "page size " + pageSize);
+        }
+    }
+
+    @Test
+    void newestFirstPagesHaveNoGapsOrDuplicates() {
+        for (int pageSize : new int[]{1, 3, 4, 16}) {
+            assertEquals(ids(rows.stream().sorted(KEY.reversed()).toList()), ids(pageThrough(false, pageSize)), "page size " + pageSize);
+        }
+    }
+
+    @Test
+    void shorterKeySkipsEveryRowSharingIt() {
+        List<GatewayLogEntry> after = repository.findPageAfter(POLICIES, START, END, 0,
+                SECOND, "policy-a", null, null, page(true, 100));
+
+        assertTrue(after.stream().noneMatch(entry -> entry.getDatetime().equals(SECOND)
+                && entry.getPolicyId().equals("policy-a")));
+        assertEquals(ids(rows.stream()
+                .filter(entry -> entry.getDatetime().isAfter(SECOND)
+                        || entry.getDatetime().equals(SECOND) && entry.getPolicyId().equals("policy-b"))
+                .toList()), ids(after));
+    }
+
+    private List<GatewayLogEntry> pageThrough(boolean ascending, int pageSize) {
+        List<GatewayLogEntry> seen = new ArrayList<>();
+        GatewayLogEntry last = null;
+        while (true) {
+            List<GatewayLogEntry> page = ascending
+                    ? repository.findPageAfter(POLICIES, START, END, 0,
+                    last != null ? last.getDatetime() : START,
+                    last != null ? last.getPolicyId() : null,
+                    last != null ? last.getQueryName() : null,
+                    last != null ? last.getId() : null,
+                    page(true, pageSize))
+                    : repository.findPageBefore(POLICIES, START, END, 0,
+                    last != null ? last.getDatetime() : END,
+                    last != null ? last.getPolicyId() : null,
+                    last != null ? last.getQueryName() : null,
+                    last != null ? last.getId() : null,
+                    page(false, pageSize));
+            if (page.isEmpty()) {
+                return seen;
+            }
+            seen.addAll(page);
+            last = page.get(page.size() - 1);
+        }
+    }
+
+    private static PageRequest page(boolean ascending, int pageSize) {
+        return PageRequest.of(0, pageSize,
+                Sort.by(ascending ? Sort.Direction.ASC : Sort.Direction.DESC, "datetime", "policyId", "queryName", "id"));
+    }
+
+    private static List<Long> ids(List<GatewayLogEntry> entries) {
+        return entries.stream().map(GatewayLogEntry::getId).toList();
+    }
+
+    private static GatewayLogEntry entry(Instant datetime, String policyId, String queryName) {
+        return GatewayLogEntry.builder()
+                .accountId("account")
+                .day(LocalDate.ofInstant(datetime, ZoneOffset.UTC))
+                .datetime(datetime)
+                .policyId(policyId)
+                .policyName(policyId)
+                .queryName(queryName)
+                .resolverDecision(9)
+                .count(1)
+                .build();
+    }
+}
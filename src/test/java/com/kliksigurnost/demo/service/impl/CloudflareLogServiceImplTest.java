@@ -0,0 +1,76 @@
+package com.kliksigurnost.demo.service.impl;
+
+import com.kliksigurnost.demo.helper.LogCursor;
+import com.kliksigurnost.demo.model.CloudflareLog;
+import com.kliksigurnost.demo.model.cloudflare.GatewayResolverQueries;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CloudflareLogServiceImplTest {
+
+    // Oldest first; three rows share the first second
+    private static final List<GatewayResolverQueries.Group> GROUPS = List.of(
+            group("2026-03-29T01:00:00Z", "a.example.com", 0),
+            group("2026-03-29T01:00:00Z", "a.example.com", 1),
+            group("2026-03-29T01:00:00Z", "b.example.com", 2),
+            group("2026-03-29T01:00:01Z", "c.example.com", 3),
+            group("2026-03-29T01:00:01Z", "d.example.com", 4));
+
+    @Test
+    void followingTheCursorSkipsTheRowsAlreadyReturnedFromTheSameSecond() {
+        List<String> seen = new ArrayList<>();
+        LogCursor after = null;
+        for (int page = 0; page < 3; page++) {
+            List<CloudflareLog> logs = CloudflareLogServiceImpl.mapLogsToCloudflareLogs(queryFrom(after), after, 2);
+            logs.forEach(log -> seen.add(log.getDatetime() + " " + log.getQueryName() + " " + log.getCount()));
+            after = LogCursor.decode(logs.get(logs.size() - 1).getCursor());
+        }
+
+        assertEquals(List.of(
+                "2026-03-29T01:00:00Z a.example.com 0",
+                "2026-03-29T01:00:00Z a.example.com 1",
+                "2026-03-29T01:00:00Z b.example.com 2",
+                "2026-03-29T01:00:01Z c.example.com 3",
+                "2026-03-29T01:00:01Z d.example.com 4"), seen);
+    }
+
+    @Test
+    void cursorCarriesThePositionWithinTheSecond() {
+        List<CloudflareLog> logs = CloudflareLogServiceImpl.mapLogsToCloudflareLogs(GROUPS, null, 10);
+
+        assertEquals(LogCursor.graphql(Instant.parse("2026-03-29T01:00:00Z"), "policy-1", "b.example.com", 2),
+                LogCursor.decode(logs.get(2).getCursor()));
+        assertEquals(LogCursor.graphql(Instant.parse("2026-03-29T01:00:01Z"), "policy-1", "c.example.com", 0),
+                LogCursor.decode(logs.get(3).getCursor()));
+    }
+
+    @Test
+    void cursorsWithoutAnOrdinalSkipNothing() {
+        Instant second = Instant.parse("2026-03-29T01:00:00Z");
+
+        assertEquals(5, CloudflareLogServiceImpl.mapLogsToCloudflareLogs(GROUPS,
+                LogCursor.local(second, "policy-1", "b.example.com", 7), 10).size());
+        assertEquals(5, CloudflareLogServiceImpl.mapLogsToCloudflareLogs(GROUPS,
+                LogCursor.legacy(second.toString(), "policy-1"), 10).size());
+    }
+
+    /**
+     * What the GraphQL query returns for a page after {@code after}: the rows from the cursor's second on.
+     */
+    private static List<GatewayResolverQueries.Group> queryFrom(LogCursor after) {
+        return GROUPS.stream()
+                .filter(group -> after == null || !Instant.parse(group.dimensions().datetime()).isBefore(after.datetime()))
+                .toList();
+    }
+
+    // The count doubles as the row's position in GROUPS, so the test can tell repeated rows apart
+    private static GatewayResolverQueries.Group group(String datetime, String queryName, long count) {
+        return new GatewayResolverQueries.Group(count, new GatewayResolverQueries.Dimensions(
+                new String[]{"Technology"}, datetime, null, "policy-1", "Policy", queryName, 9));
+    }
+}